@@ -27,9 +27,15 @@ public class Archive implements RrdUpdater {
     // state
     private final Robin[] robins;
     private final ArcState[] states;
+    private ConsolFun consolFunValue;
+
+    // start and end offsets of the definition and state areas, see stateRanges()
+    private final long[] stateRanges;
 
     Archive(RrdDb parentDb, ArcDef arcDef) throws IOException {
         this.parentDb = parentDb;
+        RrdAllocator allocator = parentDb.getRrdAllocator();
+        long start = allocator.getAllocationPointer();
         consolFun = new RrdString(this, true);     // constant, may be cached
         xff = new RrdDouble(this);
         steps = new RrdInt(this, true);            // constant, may be cached
@@ -47,10 +53,29 @@ public class Archive implements RrdUpdater {
         int version = parentDb.getHeader().getVersion();
         if (version == 1) {
             robins = new RobinArray[n];
+            stateRanges = new long[2 * n + 2];
+            stateRanges[0] = start;
+            stateRanges[1] = allocator.getAllocationPointer();
             for (int i = 0; i < n; i++) {
+                stateRanges[2 * i + 2] = allocator.getAllocationPointer();
                 states[i] = new ArcState(this, shouldInitialize);
+                // the state is followed by the robin pointer, then by the values
+                stateRanges[2 * i + 3] = allocator.getAllocationPointer() + RrdPrimitive.RRD_PRIM_SIZES[RrdPrimitive.RRD_INT];
                 robins[i] = new RobinArray(this, numRows, shouldInitialize);
             }
+        } else if (version == 3) {
+            // pointers and states first, then one contiguous block of values per datasource
+            RrdInt[] pointers = new RrdInt[n];
+            robins = new RobinArray[n];
+            for (int i = 0; i < n; i++) {
+                pointers[i] = new RrdInt(this);
+                states[i] = new ArcState(this, shouldInitialize);
+            }
+            stateRanges = new long[] {start, allocator.getAllocationPointer()};
+            for (int i = 0; i < n; i++) {
+                RrdDoubleArray values = new RrdDoubleArray(this, numRows);
+                robins[i] = new RobinArray(this, pointers[i], values, numRows, shouldInitialize);
+            }
         } else {
             RrdInt[] pointers = new RrdInt[n];
             robins = new RobinMatrix[n];
@@ -62,6 +87,7 @@ public class Archive implements RrdUpdater {
                 }
                 states[i] = new ArcState(this, shouldInitialize);
             }
+            stateRanges = new long[] {start, allocator.getAllocationPointer()};
             RrdDoubleMatrix values = new RrdDoubleMatrix(this, numRows, n, shouldInitialize);
             for (int i = 0; i < n; i++) {
                 robins[i] = new RobinMatrix(this, values, pointers[i], i);
@@ -85,6 +111,14 @@ public class Archive implements RrdUpdater {
         }
     }
 
+    /**
+     * Returns the start and end offsets of the parts of this archive changed by updates: its
+     * definition, the archive states and the robin pointers, without the robin values.
+     */
+    long[] stateRanges() {
+        return stateRanges;
+    }
+
     /**
      * Returns archive time step in seconds. Archive step is equal to RRD step
      * multiplied with the number of archive steps.
@@ -155,46 +189,141 @@ public class Archive implements RrdUpdater {
         if (Double.isNaN(value)) {
             state.setNanSteps(state.getNanSteps() + 1);
         } else {
-            switch (ConsolFun.valueOf(consolFun.get())) {
-                case MIN:
-                    state.setAccumValue(Util.min(state.getAccumValue(), value));
-                    break;
-                case MAX:
-                    state.setAccumValue(Util.max(state.getAccumValue(), value));
-                    break;
-                case FIRST:
-                    if (Double.isNaN(state.getAccumValue())) {
-                        state.setAccumValue(value);
-                    }
-                    break;
-                case LAST:
-                    state.setAccumValue(value);
-                    break;
-                case AVERAGE:
-                case TOTAL:
-                    state.setAccumValue(Util.sum(state.getAccumValue(), value));
-                    break;
+            ConsolFun cf = getConsolFun();
+            // FIRST keeps its value once set
+            if (cf != ConsolFun.FIRST || Double.isNaN(state.getAccumValue())) {
+                state.setAccumValue(consolidate(cf, state.getAccumValue(), value));
             }
         }
     }
 
+    private static double consolidate(ConsolFun cf, double accumValue, double value) {
+        switch (cf) {
+            case MIN:
+                return Util.min(accumValue, value);
+            case MAX:
+                return Util.max(accumValue, value);
+            case FIRST:
+                return Double.isNaN(accumValue) ? value : accumValue;
+            case LAST:
+                return value;
+            case AVERAGE:
+            case TOTAL:
+                return Util.sum(accumValue, value);
+            default:
+                return accumValue;
+        }
+    }
+
     private void finalizeStep(ArcState state, Robin robin) throws IOException {
         // should store
-        long arcSteps = steps.get();
-        double arcXff = xff.get();
-        long nanSteps = state.getNanSteps();
+        robin.store(consolidatedValue(getConsolFun(), steps.get(), xff.get(), state.getNanSteps(), state.getAccumValue()));
+        state.setAccumValue(Double.NaN);
+        state.setNanSteps(0);
+    }
+
+    private static double consolidatedValue(ConsolFun cf, long arcSteps, double arcXff, long nanSteps, double accumValue) {
         //double nanPct = (double) nanSteps / (double) arcSteps;
-        double accumValue = state.getAccumValue();
         if (nanSteps <= arcXff * arcSteps && !Double.isNaN(accumValue)) {
-            if (getConsolFun() == ConsolFun.AVERAGE) {
+            if (cf == ConsolFun.AVERAGE) {
                 accumValue /= (arcSteps - nanSteps);
             }
-            robin.store(accumValue);
+            return accumValue;
         } else {
-            robin.store(Double.NaN);
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * State of this archive for a single datasource, kept in local variables during a batch of
+     * updates and written back once by {@link #commit()}. See {@link RrdDb#storeBatch(long[], double[][])}.
+     */
+    final class Batch {
+        private static final int BUFFER_SIZE = 1024;
+
+        private final Robin robin;
+        private final ArcState state;
+        private final ConsolFun cf;
+        private final long step;
+        private final long arcStep;
+        private final long arcSteps;
+        private final int arcRows;
+        private final double arcXff;
+        private final double[] stored;
+        private int storedCount = 0;
+        private double accumValue;
+        private long nanSteps;
+
+        Batch(int dsIndex) throws IOException {
+            robin = robins[dsIndex];
+            state = states[dsIndex];
+            cf = getConsolFun();
+            step = parentDb.getHeader().getStep();
+            arcStep = getArcStep();
+            arcSteps = steps.get();
+            arcRows = rows.get();
+            arcXff = xff.get();
+            stored = new double[Math.min(BUFFER_SIZE, arcRows)];
+            accumValue = state.getAccumValue();
+            nanSteps = state.getNanSteps();
+        }
+
+        // same as Archive.archive, lastUpdateTime being the time of the previous sample
+        void archive(long lastUpdateTime, double value, long numUpdates) throws IOException {
+            long updateTime = Util.normalize(lastUpdateTime, step) + step;
+            // finish current step
+            while (numUpdates > 0) {
+                accumulate(value);
+                numUpdates--;
+                if (updateTime % arcStep == 0) {
+                    store(consolidatedValue(cf, arcSteps, arcXff, nanSteps, accumValue));
+                    accumValue = Double.NaN;
+                    nanSteps = 0;
+                    break;
+                } else {
+                    updateTime += step;
+                }
+            }
+            // update robin in bulk
+            int bulkUpdateCount = (int) Math.min(numUpdates / arcSteps, (long) arcRows);
+            if (bulkUpdateCount > 0) {
+                flush();
+                robin.bulkStore(value, bulkUpdateCount);
+            }
+            // update remaining steps
+            long remainingUpdates = numUpdates % arcSteps;
+            for (long i = 0; i < remainingUpdates; i++) {
+                accumulate(value);
+            }
+        }
+
+        private void accumulate(double value) {
+            if (Double.isNaN(value)) {
+                nanSteps++;
+            } else {
+                accumValue = consolidate(cf, accumValue, value);
+            }
+        }
+
+        private void store(double value) throws IOException {
+            stored[storedCount++] = value;
+            if (storedCount == stored.length) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            if (storedCount > 0) {
+                robin.store(stored, storedCount);
+                storedCount = 0;
+            }
+        }
+
+        void commit() throws IOException {
+            flush();
+            state.setAccumValue(accumValue);
+            state.setNanSteps(nanSteps);
         }
-        state.setAccumValue(Double.NaN);
-        state.setNanSteps(0);
     }
 
     /**
@@ -204,7 +333,11 @@ public class Archive implements RrdUpdater {
      * @throws java.io.IOException Thrown in case of I/O error.
      */
     public ConsolFun getConsolFun() throws IOException {
-        return ConsolFun.valueOf(consolFun.get());
+        // the consolidation function is constant
+        if (consolFunValue == null) {
+            consolFunValue = ConsolFun.valueOf(consolFun.get());
+        }
+        return consolFunValue;
     }
 
     /**
@@ -300,7 +433,6 @@ public class Archive implements RrdUpdater {
         }
         int dsCount = dsToFetch.length;
         int ptsCount = (int) ((fetchEnd - fetchStart) / arcStep + 1);
-        long[] timestamps = new long[ptsCount];
         double[][] values = new double[dsCount][ptsCount];
         long matchStartTime = Math.max(fetchStart, startTime);
         long matchEndTime = Math.min(fetchEnd, endTime);
@@ -317,7 +449,6 @@ public class Archive implements RrdUpdater {
         }
         for (int ptIndex = 0; ptIndex < ptsCount; ptIndex++) {
             long time = fetchStart + ptIndex * arcStep;
-            timestamps[ptIndex] = time;
             for (int i = 0; i < dsCount; i++) {
                 double value = Double.NaN;
                 if (time >= matchStartTime && time <= matchEndTime) {
@@ -330,7 +461,7 @@ public class Archive implements RrdUpdater {
             }
         }
         FetchData fetchData = new FetchData(this, request);
-        fetchData.setTimestamps(timestamps);
+        fetchData.setTimeline(new Timeline(fetchStart, arcStep, ptsCount));
         fetchData.setValues(values);
         return fetchData;
     }
@@ -186,52 +186,131 @@ public class Datasource implements RrdUpdater {
         }
     }
 
+    /**
+     * Batched version of {@link #process(long, double)}: processes the values of this datasource
+     * for several samples, keeping the datasource and archive states in local variables and
+     * writing them back once.
+     *
+     * @param lastUpdateTime Last update time of the RRD before the first sample.
+     * @param newTimes       Strictly increasing sample timestamps.
+     * @param newValues      Sample values, indexed by sample then datasource.
+     * @param dsIndex        Index of this datasource.
+     * @param archives       Archives of the RRD.
+     * @throws IOException Thrown in case of I/O error.
+     */
+    final void process(long lastUpdateTime, long[] newTimes, double[][] newValues, int dsIndex, Archive[] archives) throws IOException {
+        long step = parentDb.getHeader().getStep();
+        long heartbeatValue = heartbeat.get();
+        DsType type = DsType.valueOf(dsType.get());
+        double minVal = minValue.get();
+        double maxVal = maxValue.get();
+        boolean forceZeros = dsName.get().endsWith(DsDef.FORCE_ZEROS_FOR_NANS_SUFFIX);
+        Archive.Batch[] batches = new Archive.Batch[archives.length];
+        for (int i = 0; i < archives.length; i++) {
+            batches[i] = archives[i].new Batch(dsIndex);
+        }
+        double oldValue = lastValue.get();
+        long nanSecondsValue = nanSeconds.get();
+        double accum = accumValue.get();
+        long oldTime = lastUpdateTime;
+        for (int k = 0; k < newTimes.length; k++) {
+            long newTime = newTimes[k];
+            double newValue = newValues[k][dsIndex];
+            long startTime = Util.normalize(oldTime, step);
+            long endTime = startTime + step;
+            double updateValue = Double.NaN;
+            if (newTime - oldTime <= heartbeatValue) {
+                updateValue = calculateUpdateValue(type, minVal, maxVal, oldTime, oldValue, newTime, newValue);
+            }
+            oldValue = newValue;
+            long accumulateFrom = oldTime;
+            if (newTime >= endTime) {
+                // should store something
+                long boundaryTime = Util.normalize(newTime, step);
+                if (Double.isNaN(updateValue)) {
+                    nanSecondsValue += boundaryTime - oldTime;
+                }
+                else {
+                    accum += updateValue * (boundaryTime - oldTime);
+                }
+                double value = calculateTotal(startTime, boundaryTime, nanSecondsValue, accum, heartbeatValue);
+                if (Double.isNaN(value) && forceZeros) {
+                    value = 0D;
+                }
+                long numSteps = (boundaryTime - endTime) / step + 1L;
+                for (Archive.Batch batch : batches) {
+                    batch.archive(oldTime, value, numSteps);
+                }
+                nanSecondsValue = 0;
+                accum = 0.0;
+                accumulateFrom = boundaryTime;
+            }
+            if (Double.isNaN(updateValue)) {
+                nanSecondsValue += newTime - accumulateFrom;
+            }
+            else {
+                accum += updateValue * (newTime - accumulateFrom);
+            }
+            oldTime = newTime;
+        }
+        for (Archive.Batch batch : batches) {
+            batch.commit();
+        }
+        lastValue.set(oldValue);
+        nanSeconds.set(nanSecondsValue);
+        accumValue.set(accum);
+    }
+
     private double calculateUpdateValue(long oldTime, double oldValue,
                                         long newTime, double newValue) throws IOException {
         double updateValue = Double.NaN;
         if (newTime - oldTime <= heartbeat.get()) {
-            DsType type = DsType.valueOf(dsType.get());
+            updateValue = calculateUpdateValue(DsType.valueOf(dsType.get()), minValue.get(), maxValue.get(),
+                    oldTime, oldValue, newTime, newValue);
+        }
+        lastValue.set(newValue);
+        return updateValue;
+    }
 
-            if (type == DsType.GAUGE) {
-                updateValue = newValue;
-            }
-            else if (type == DsType.COUNTER) {
-                if (!Double.isNaN(newValue) && !Double.isNaN(oldValue)) {
-                    double diff = newValue - oldValue;
-                    if (diff < 0) {
-                        diff += MAX_32_BIT;
-                    }
-                    if (diff < 0) {
-                        diff += MAX_64_BIT - MAX_32_BIT;
-                    }
-                    if (diff >= 0) {
-                        updateValue = diff / (newTime - oldTime);
-                    }
+    private static double calculateUpdateValue(DsType type, double minVal, double maxVal, long oldTime, double oldValue,
+                                               long newTime, double newValue) {
+        double updateValue = Double.NaN;
+        if (type == DsType.GAUGE) {
+            updateValue = newValue;
+        }
+        else if (type == DsType.COUNTER) {
+            if (!Double.isNaN(newValue) && !Double.isNaN(oldValue)) {
+                double diff = newValue - oldValue;
+                if (diff < 0) {
+                    diff += MAX_32_BIT;
                 }
-            }
-            else if (type == DsType.ABSOLUTE) {
-                if (!Double.isNaN(newValue)) {
-                    updateValue = newValue / (newTime - oldTime);
+                if (diff < 0) {
+                    diff += MAX_64_BIT - MAX_32_BIT;
                 }
-            }
-            else if (type == DsType.DERIVE) {
-                if (!Double.isNaN(newValue) && !Double.isNaN(oldValue)) {
-                    updateValue = (newValue - oldValue) / (newTime - oldTime);
+                if (diff >= 0) {
+                    updateValue = diff / (newTime - oldTime);
                 }
             }
+        }
+        else if (type == DsType.ABSOLUTE) {
+            if (!Double.isNaN(newValue)) {
+                updateValue = newValue / (newTime - oldTime);
+            }
+        }
+        else if (type == DsType.DERIVE) {
+            if (!Double.isNaN(newValue) && !Double.isNaN(oldValue)) {
+                updateValue = (newValue - oldValue) / (newTime - oldTime);
+            }
+        }
 
-            if (!Double.isNaN(updateValue)) {
-                double minVal = minValue.get();
-                double maxVal = maxValue.get();
-                if (!Double.isNaN(minVal) && updateValue < minVal) {
-                    updateValue = Double.NaN;
-                }
-                if (!Double.isNaN(maxVal) && updateValue > maxVal) {
-                    updateValue = Double.NaN;
-                }
+        if (!Double.isNaN(updateValue)) {
+            if (!Double.isNaN(minVal) && updateValue < minVal) {
+                updateValue = Double.NaN;
+            }
+            if (!Double.isNaN(maxVal) && updateValue > maxVal) {
+                updateValue = Double.NaN;
             }
         }
-        lastValue.set(newValue);
         return updateValue;
     }
 
@@ -245,11 +324,7 @@ public class Datasource implements RrdUpdater {
     }
 
     private double calculateTotal(long startTime, long boundaryTime) throws IOException {
-        double totalValue = Double.NaN;
-        long validSeconds = boundaryTime - startTime - nanSeconds.get();
-        if (nanSeconds.get() <= heartbeat.get() && validSeconds > 0) {
-            totalValue = accumValue.get() / validSeconds;
-        }
+        double totalValue = calculateTotal(startTime, boundaryTime, nanSeconds.get(), accumValue.get(), heartbeat.get());
         // IMPORTANT:
         // if datasource name ends with "!", we'll send zeros instead of NaNs
         // this might be handy from time to time
@@ -259,6 +334,14 @@ public class Datasource implements RrdUpdater {
         return totalValue;
     }
 
+    private static double calculateTotal(long startTime, long boundaryTime, long nanSeconds, double accumValue, long heartbeat) {
+        long validSeconds = boundaryTime - startTime - nanSeconds;
+        if (nanSeconds <= heartbeat && validSeconds > 0) {
+            return accumValue / validSeconds;
+        }
+        return Double.NaN;
+    }
+
     void appendXml(XmlWriter writer) throws IOException {
         writer.startTag("ds");
         writer.writeTag("name", dsName.get());
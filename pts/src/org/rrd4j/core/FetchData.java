@@ -4,6 +4,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collections;
 
 import org.rrd4j.ConsolFun;
 import org.rrd4j.data.Aggregates;
@@ -35,6 +36,10 @@ import org.rrd4j.data.DataProcessor;
  * the values returned with {@link #getTimestamps() getTimestamps()} method.
  * <p>
  *
+ * A FetchData handed out by a {@link org.rrd4j.core.RrdFetchCache RrdFetchCache} shares its data
+ * with the other users of the cache, so its getters return copies of its arrays.
+ * <p>
+ *
  * @author Sasa Markovic
  */
 public class FetchData {
@@ -43,12 +48,14 @@ public class FetchData {
 
     private FetchRequest request;
     private String[] dsNames;
-    private long[] timestamps;
+    private Timeline timeline;
     private double[][] values;
 
     private Archive matchingArchive;
     private long arcStep;
     private long arcEndTime;
+    // the arrays are shared with the other users of a fetch cache, they are only handed out as copies
+    private boolean shared = false;
 
     FetchData(Archive matchingArchive, FetchRequest request) throws IOException {
         this.matchingArchive = matchingArchive;
@@ -61,8 +68,22 @@ public class FetchData {
         this.request = request;
     }
 
-    void setTimestamps(long[] timestamps) {
-        this.timestamps = timestamps;
+    /**
+     * Creates a view of cached data for another request of the same data, sharing the arrays of the data.
+     */
+    FetchData(FetchData data, Archive matchingArchive, FetchRequest request) {
+        this.matchingArchive = matchingArchive;
+        this.arcStep = data.arcStep;
+        this.arcEndTime = data.arcEndTime;
+        this.dsNames = data.dsNames;
+        this.timeline = data.timeline;
+        this.values = data.values;
+        this.request = request;
+        this.shared = true;
+    }
+
+    void setTimeline(Timeline timeline) {
+        this.timeline = timeline;
     }
 
     void setValues(double[][] values) {
@@ -76,7 +97,7 @@ public class FetchData {
      * @return Number of rows.
      */
     public int getRowCount() {
-        return timestamps.length;
+        return timeline.getCount();
     }
 
     /**
@@ -97,7 +118,17 @@ public class FetchData {
      * @return Array of equidistant timestamps.
      */
     public long[] getTimestamps() {
-        return timestamps;
+        // the timestamps of cached data are not kept with it
+        return shared ? timeline.copyTimestamps(0, timeline.getCount()) : timeline.getTimestamps();
+    }
+
+    /**
+     * Returns the timestamps of the rows, without creating an array of them.
+     *
+     * @return the timeline of the rows.
+     */
+    public Timeline getTimeline() {
+        return timeline;
     }
 
     /**
@@ -106,7 +137,7 @@ public class FetchData {
      * @return Step as long.
      */
     public long getStep() {
-        return timestamps[1] - timestamps[0];
+        return timeline.getStep();
     }
 
     /**
@@ -118,7 +149,7 @@ public class FetchData {
      * @return Array of single datasource values.
      */
     public double[] getValues(int dsIndex) {
-        return values[dsIndex];
+        return shared ? values[dsIndex].clone() : values[dsIndex];
     }
 
     /**
@@ -129,6 +160,13 @@ public class FetchData {
      * @return Two-dimensional aray of all datasource values.
      */
     public double[][] getValues() {
+        if (shared) {
+            double[][] copy = new double[values.length][];
+            for (int i = 0; i < values.length; i++) {
+                copy[i] = values[i].clone();
+            }
+            return copy;
+        }
         return values;
     }
 
@@ -161,7 +199,7 @@ public class FetchData {
      * @throws java.lang.IllegalArgumentException Thrown if invalid RPN expression is supplied
      */
     public double[] getRpnValues(String rpnExpression) {
-        DataProcessor dataProcessor = createDataProcessor(rpnExpression);
+        DataProcessor dataProcessor = createDataProcessor(rpnExpression, RPN_SOURCE_NAME);
         return dataProcessor.getValues(RPN_SOURCE_NAME);
     }
 
@@ -180,7 +218,7 @@ public class FetchData {
      * @return The smallest timestamp.
      */
     public long getFirstTimestamp() {
-        return timestamps[0];
+        return timeline.getStart();
     }
 
     /**
@@ -189,7 +227,7 @@ public class FetchData {
      * @return The biggest timestamp.
      */
     public long getLastTimestamp() {
-        return timestamps[timestamps.length - 1];
+        return timeline.getEnd();
     }
 
     /**
@@ -211,7 +249,7 @@ public class FetchData {
      * @return Array of datasource names.
      */
     public String[] getDsNames() {
-        return dsNames;
+        return shared ? dsNames.clone() : dsNames;
     }
 
     /**
@@ -238,7 +276,7 @@ public class FetchData {
     public String dump() {
         StringBuilder buffer = new StringBuilder();
         for (int row = 0; row < getRowCount(); row++) {
-            buffer.append(timestamps[row]);
+            buffer.append(timeline.getTimestamp(row));
             buffer.append(":  ");
             for (int dsIndex = 0; dsIndex < getColumnCount(); dsIndex++) {
                 buffer.append(Util.formatDouble(values[dsIndex][row], true));
@@ -263,8 +301,8 @@ public class FetchData {
             buff.append(padWithBlanks(dsName, 18));
         }
         buff.append("\n \n");
-        for (int i = 0; i < timestamps.length; i++) {
-            buff.append(padWithBlanks(Long.toString(timestamps[i]), 10));
+        for (int i = 0; i < timeline.getCount(); i++) {
+            buff.append(padWithBlanks(Long.toString(timeline.getTimestamp(i)), 10));
             buff.append(":");
             for (int j = 0; j < dsNames.length; j++) {
                 double value = values[j][i];
@@ -299,7 +337,7 @@ public class FetchData {
      */
     @Deprecated
     public double getAggregate(String dsName, ConsolFun consolFun) {
-        DataProcessor dp = createDataProcessor(null);
+        DataProcessor dp = createDataProcessor(null, dsName);
         return dp.getAggregate(dsName, consolFun);
     }
 
@@ -318,7 +356,7 @@ public class FetchData {
      */
     @Deprecated
     public double getRpnAggregate(String rpnExpression, ConsolFun consolFun) {
-        DataProcessor dataProcessor = createDataProcessor(rpnExpression);
+        DataProcessor dataProcessor = createDataProcessor(rpnExpression, RPN_SOURCE_NAME);
         return dataProcessor.getAggregate(RPN_SOURCE_NAME, consolFun);
     }
 
@@ -333,7 +371,7 @@ public class FetchData {
      */
     @Deprecated
     public Aggregates getAggregates(String dsName) {
-        DataProcessor dataProcessor = createDataProcessor(null);
+        DataProcessor dataProcessor = createDataProcessor(null, dsName);
         return dataProcessor.getAggregates(dsName);
     }
 
@@ -353,7 +391,7 @@ public class FetchData {
      */
     @Deprecated
     public Aggregates getRpnAggregates(String rpnExpression) throws IOException {
-        DataProcessor dataProcessor = createDataProcessor(rpnExpression);
+        DataProcessor dataProcessor = createDataProcessor(rpnExpression, RPN_SOURCE_NAME);
         return dataProcessor.getAggregates(RPN_SOURCE_NAME);
     }
 
@@ -377,7 +415,7 @@ public class FetchData {
      */
     @Deprecated
     public double get95Percentile(String dsName) {
-        DataProcessor dataProcessor = createDataProcessor(null);
+        DataProcessor dataProcessor = createDataProcessor(null, dsName);
         return dataProcessor.get95Percentile(dsName);
     }
 
@@ -392,7 +430,7 @@ public class FetchData {
      */
     @Deprecated
     public double getRpn95Percentile(String rpnExpression) {
-        DataProcessor dataProcessor = createDataProcessor(rpnExpression);
+        DataProcessor dataProcessor = createDataProcessor(rpnExpression, RPN_SOURCE_NAME);
         return dataProcessor.get95Percentile(RPN_SOURCE_NAME);
     }
 
@@ -421,10 +459,11 @@ public class FetchData {
         }
         writer.closeTag(); // datasources
         writer.startTag("data");
-        for (int i = 0; i < timestamps.length; i++) {
+        for (int i = 0; i < timeline.getCount(); i++) {
+            long timestamp = timeline.getTimestamp(i);
             writer.startTag("row");
-            writer.writeComment(Util.getDate(timestamps[i]));
-            writer.writeTag("timestamp", timestamps[i]);
+            writer.writeComment(Util.getDate(timestamp));
+            writer.writeTag("timestamp", timestamp);
             writer.startTag("values");
             for (int j = 0; j < dsNames.length; j++) {
                 writer.writeTag("v", values[j][i]);
@@ -486,7 +525,7 @@ public class FetchData {
         return arcEndTime;
     }
 
-    private DataProcessor createDataProcessor(String rpnExpression) {
+    private DataProcessor createDataProcessor(String rpnExpression, String sourceName) {
         DataProcessor dataProcessor = new DataProcessor(request.getFetchStart(), request.getFetchEnd());
         for (String dsName : dsNames) {
             dataProcessor.addDatasource(dsName, this);
@@ -494,6 +533,7 @@ public class FetchData {
         if (rpnExpression != null) {
             dataProcessor.addDatasource(RPN_SOURCE_NAME, rpnExpression);
         }
+        dataProcessor.setRequiredSources(Collections.singleton(sourceName));
         try {
             dataProcessor.processData();
         }
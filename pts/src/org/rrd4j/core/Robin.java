@@ -140,6 +140,16 @@ public interface Robin extends RrdUpdater {
      */
     void bulkStore(double newValue, int bulkCount) throws IOException;
 
+    /**
+     * Stores the first values of an array in sequence, as the same number of calls to
+     * {@link #store(double)} would, but updates the robin pointer only once.
+     *
+     * @param newValues Array holding the values to store, the oldest one first.
+     * @param count     Number of values of the array to store.
+     * @throws java.io.IOException if any.
+     */
+    void store(double[] newValues, int count) throws IOException;
+
     /**
      * <p>getValues.</p>
      *
@@ -1,6 +1,7 @@
 package org.rrd4j.core;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Class to represent archive values for a single datasource. Robin class is the heart of
@@ -31,6 +32,17 @@ class RobinArray implements Robin {
         }
     }
 
+    RobinArray(Archive parentArc, RrdInt pointer, RrdDoubleArray values, int rows, boolean shouldInitialize) throws IOException {
+        this.parentArc = parentArc;
+        this.pointer = pointer;
+        this.values = values;
+        this.rows = rows;
+        if (shouldInitialize) {
+            pointer.set(0);
+            values.set(0, Double.NaN, rows);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.rrd4j.core.Robin#getValues()
      */
@@ -86,6 +98,22 @@ class RobinArray implements Robin {
         values.writeDouble(0, newValues);
     }
 
+    // stores several values in sequence
+    /** {@inheritDoc} */
+    public void store(double[] newValues, int count) throws IOException {
+        int position = pointer.get();
+        // only the last rows values would survive
+        int index = Math.max(0, count - rows);
+        position = (int) ((position + (long) index) % rows);
+        while (index < count) {
+            int updateCount = Math.min(rows - position, count - index);
+            values.set(position, Arrays.copyOfRange(newValues, index, index + updateCount));
+            position = (position + updateCount) % rows;
+            index += updateCount;
+        }
+        pointer.set(position);
+    }
+
     /* (non-Javadoc)
      * @see org.rrd4j.core.Robin#setValues(double)
      */
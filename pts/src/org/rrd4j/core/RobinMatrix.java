@@ -1,6 +1,7 @@
 package org.rrd4j.core;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Class to represent archive values for a single datasource. Robin class is the heart of
@@ -68,6 +69,22 @@ class RobinMatrix implements Robin {
         }
     }
 
+    // stores several values in sequence
+    /** {@inheritDoc} */
+    public void store(double[] newValues, int count) throws IOException {
+        int position = pointer.get();
+        // only the last rows values would survive
+        int index = Math.max(0, count - rows);
+        position = (int) ((position + (long) index) % rows);
+        while (index < count) {
+            int updateCount = Math.min(rows - position, count - index);
+            values.set(column, position, Arrays.copyOfRange(newValues, index, index + updateCount));
+            position = (position + updateCount) % rows;
+            index += updateCount;
+        }
+        pointer.set(position);
+    }
+
     /**
      * <p>update.</p>
      *
@@ -14,6 +14,10 @@ public class RrdAllocator {
         super();
     }
 
+    long getAllocationPointer() {
+        return allocationPointer;
+    }
+
     long allocate(long byteCount) throws IOException {
         long pointer = allocationPointer;
         allocationPointer += byteCount;
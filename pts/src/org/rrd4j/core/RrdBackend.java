@@ -5,6 +5,7 @@ import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
 
 /**
  * <p>Base implementation class for all backend classes. Each Round Robin Database object
@@ -34,7 +35,10 @@ import java.nio.CharBuffer;
  * <ul>
  * <li>Create your custom RrdBackend class (RrdCustomBackend, for example)
  * by extending RrdBackend class. You have to implement all abstract methods defined
- * in the base class.
+ * in the base class. If your storage keeps RRD bytes in a buffer or an array, also
+ * override the buffer based {@link #read(long, java.nio.ByteBuffer)} and
+ * {@link #write(long, java.nio.ByteBuffer)} methods, and possibly the primitive
+ * accessors, to avoid intermediate copies.
  *
  * <li>Create your custom RrdBackendFactory class (RrdCustomBackendFactory,
  * for example) by extending RrdBackendFactory class. You have to implement all
@@ -57,11 +61,14 @@ public abstract class RrdBackend {
     private static final int ENDPRIVATEAREACODEPOINT = Character.codePointAt(new char[]{ENDPRIVATEAREA}, 0);
     private static final int PRIVATEAREASIZE = ENDPRIVATEAREACODEPOINT - STARTPRIVATEAREACODEPOINT + 1;
     private static final int MAXUNSIGNEDSHORT = Short.MAX_VALUE - Short.MIN_VALUE;
+    private static final int FILL_CHUNK = 8192;
 
     private static boolean instanceCreated = false;
     private final String path;
     private RrdBackendFactory factory;
     private long nextBigStringOffset = -1;
+    // set by RrdDb when the backend doesn't allow caching
+    RrdMirror mirror;
 
     /**
      * Creates backend for a RRD storage with the given path.
@@ -138,6 +145,16 @@ public abstract class RrdBackend {
     public void close() throws IOException {
     }
 
+    /**
+     * Forces the bytes written so far to be stored on the underlying storage, so that they
+     * survive a crash. The default implementation does nothing, which fits storages without
+     * an intermediate buffer.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected void sync() throws IOException {
+    }
+
     /**
      * This method suggests the caching policy to the Rrd4j frontend (high-level) classes. If <code>true</code>
      * is returned, frontend classes will cache frequently used parts of a RRD file in memory to improve
@@ -163,56 +180,146 @@ public abstract class RrdBackend {
         return b;
     }
 
+    /**
+     * Writes the remaining bytes of a buffer to the underlying storage starting from the given
+     * storage offset. On return, the buffer position is equal to its limit.
+     * <p>
+     * The default implementation delegates to {@link #write(long, byte[])}. Backends which keep
+     * their data in a buffer or an array should override it to avoid the intermediate copy.
+     *
+     * @param offset Storage offset.
+     * @param src    Buffer holding the bytes that should be copied to the underlying storage
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected void write(long offset, ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        if (isWholeArray(src)) {
+            write(offset, src.array());
+            src.position(src.limit());
+        }
+        else {
+            byte[] b = new byte[length];
+            src.get(b);
+            write(offset, b);
+        }
+    }
+
+    /**
+     * Reads bytes from the underlying storage starting from the given storage offset, until the
+     * given buffer has no remaining space. On return, the buffer position is equal to its limit.
+     * <p>
+     * The default implementation delegates to {@link #read(long, byte[])}. Backends which keep
+     * their data in a buffer or an array should override it to avoid the intermediate copy.
+     *
+     * @param offset Storage offset.
+     * @param dst    Buffer which receives bytes from the underlying storage
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected void read(long offset, ByteBuffer dst) throws IOException {
+        int length = dst.remaining();
+        if (isWholeArray(dst)) {
+            read(offset, dst.array());
+            dst.position(dst.limit());
+        }
+        else {
+            byte[] b = new byte[length];
+            read(offset, b);
+            dst.put(b);
+        }
+    }
+
+    private static boolean isWholeArray(ByteBuffer bb) {
+        return bb.hasArray() && bb.arrayOffset() == 0 && bb.position() == 0 && bb.limit() == bb.array().length;
+    }
+
+    private static ByteBuffer allocate(int length) {
+        ByteBuffer bb = ByteBuffer.allocate(length);
+        bb.order(BYTEORDER);
+        return bb;
+    }
+
     private void writeShort(long offset, short value) throws IOException {
-        byte[] b = new byte[2];
-        b[0] = (byte) ((value >>> 8) & 0xFF);
-        b[1] = (byte) ((value >>> 0) & 0xFF);
-        write(offset, b);
+        ByteBuffer bb = allocate(2);
+        bb.putShort(0, value);
+        write(offset, bb);
     }
 
-    final void writeInt(long offset, int value) throws IOException {
-        write(offset, getIntBytes(value));
+    /**
+     * Writes a big-endian int at the given storage offset.
+     *
+     * @param offset Storage offset.
+     * @param value  Value to write
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected void writeInt(long offset, int value) throws IOException {
+        ByteBuffer bb = allocate(4);
+        bb.putInt(0, value);
+        write(offset, bb);
     }
 
-    final void writeLong(long offset, long value) throws IOException {
-        write(offset, getLongBytes(value));
+    /**
+     * Writes a big-endian long at the given storage offset.
+     *
+     * @param offset Storage offset.
+     * @param value  Value to write
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected void writeLong(long offset, long value) throws IOException {
+        ByteBuffer bb = allocate(8);
+        bb.putLong(0, value);
+        write(offset, bb);
     }
 
-    final void writeDouble(long offset, double value) throws IOException {
-        write(offset, getDoubleBytes(value));
+    /**
+     * Writes a big-endian double at the given storage offset.
+     *
+     * @param offset Storage offset.
+     * @param value  Value to write
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected void writeDouble(long offset, double value) throws IOException {
+        ByteBuffer bb = allocate(8);
+        bb.putDouble(0, value);
+        write(offset, bb);
     }
 
-    final void writeDouble(long offset, double value, int count) throws IOException {
-        byte[] b = getDoubleBytes(value);
-        byte[] image = new byte[8 * count];
-        for (int i = 0, k = 0; i < count; i++) {
-            image[k++] = b[0];
-            image[k++] = b[1];
-            image[k++] = b[2];
-            image[k++] = b[3];
-            image[k++] = b[4];
-            image[k++] = b[5];
-            image[k++] = b[6];
-            image[k++] = b[7];
+    /**
+     * Writes the same double value <code>count</code> times, starting at the given storage offset.
+     *
+     * @param offset Storage offset.
+     * @param value  Value to write
+     * @param count  Number of times the value is written
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected void writeDouble(long offset, double value, int count) throws IOException {
+        // large fills (archive initialization) are written in chunks
+        int chunk = Math.min(count, FILL_CHUNK);
+        ByteBuffer bb = allocate(8 * chunk);
+        DoubleBuffer db = bb.asDoubleBuffer();
+        while (db.hasRemaining()) {
+            db.put(value);
+        }
+        while (count > 0) {
+            int n = Math.min(count, chunk);
+            bb.clear();
+            bb.limit(8 * n);
+            write(offset, bb);
+            offset += 8L * n;
+            count -= n;
         }
-        write(offset, image);
     }
 
-    final void writeDouble(long offset, double[] values) throws IOException {
-        int count = values.length;
-        byte[] image = new byte[8 * count];
-        for (int i = 0, k = 0; i < count; i++) {
-            byte[] b = getDoubleBytes(values[i]);
-            image[k++] = b[0];
-            image[k++] = b[1];
-            image[k++] = b[2];
-            image[k++] = b[3];
-            image[k++] = b[4];
-            image[k++] = b[5];
-            image[k++] = b[6];
-            image[k++] = b[7];
-        }
-        write(offset, image);
+    /**
+     * Writes an array of doubles, starting at the given storage offset.
+     *
+     * @param offset Storage offset.
+     * @param values Values to write
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected void writeDouble(long offset, double[] values) throws IOException {
+        ByteBuffer bb = allocate(8 * values.length);
+        bb.asDoubleBuffer().put(values);
+        write(offset, bb);
     }
 
     final void writeString(long offset, String value) throws IOException {
@@ -246,64 +353,85 @@ public abstract class RrdBackend {
     }
 
     private void writeString(long offset, String value, int length) throws IOException {
-        ByteBuffer bbuf = ByteBuffer.allocate(length * 2);
-        bbuf.order(BYTEORDER);
-        bbuf.position(0);
-        bbuf.limit(length * 2);
+        ByteBuffer bbuf = allocate(length * 2);
         CharBuffer cbuf = bbuf.asCharBuffer();
         cbuf.put(value);
         while (cbuf.position() < cbuf.limit()) {
             cbuf.put(' ');
         }
-        write(offset, bbuf.array());
+        write(offset, bbuf);
     }
 
     private short readShort(long offset) throws IOException {
-        byte[] b = new byte[2];
-        read(offset, b);
-        return (short) (((b[0] << 8) & 0x0000FF00) + ((b[1] << 0) & 0x000000FF));
+        ByteBuffer bb = allocate(2);
+        read(offset, bb);
+        return bb.getShort(0);
+    }
 
+    /**
+     * Reads a big-endian int at the given storage offset.
+     *
+     * @param offset Storage offset.
+     * @return Value read
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected int readInt(long offset) throws IOException {
+        ByteBuffer bb = allocate(4);
+        read(offset, bb);
+        return bb.getInt(0);
     }
 
-    final int readInt(long offset) throws IOException {
-        byte[] b = new byte[4];
-        read(offset, b);
-        return getInt(b);
+    /**
+     * Reads a big-endian long at the given storage offset.
+     *
+     * @param offset Storage offset.
+     * @return Value read
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected long readLong(long offset) throws IOException {
+        ByteBuffer bb = allocate(8);
+        read(offset, bb);
+        return bb.getLong(0);
     }
 
-    final long readLong(long offset) throws IOException {
-        byte[] b = new byte[8];
-        read(offset, b);
-        return getLong(b);
+    /**
+     * Reads a big-endian double at the given storage offset.
+     *
+     * @param offset Storage offset.
+     * @return Value read
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected double readDouble(long offset) throws IOException {
+        ByteBuffer bb = allocate(8);
+        read(offset, bb);
+        return bb.getDouble(0);
     }
 
-    final double readDouble(long offset) throws IOException {
-        byte[] b = new byte[8];
-        read(offset, b);
-        return getDouble(b);
+    /**
+     * Reads consecutive doubles starting at the given storage offset, until the destination
+     * array is filled.
+     *
+     * @param offset Storage offset.
+     * @param values Array which receives the values
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected void readDouble(long offset, double[] values) throws IOException {
+        ByteBuffer bb = allocate(8 * values.length);
+        read(offset, bb);
+        bb.flip();
+        bb.asDoubleBuffer().get(values);
     }
 
     final double[] readDouble(long offset, int count) throws IOException {
-        int byteCount = 8 * count;
-        byte[] image = new byte[byteCount];
-        read(offset, image);
         double[] values = new double[count];
-        for (int i = 0, k = -1; i < count; i++) {
-            byte[] b = new byte[]{
-                    image[++k], image[++k], image[++k], image[++k],
-                    image[++k], image[++k], image[++k], image[++k]
-            };
-            values[i] = getDouble(b);
-        }
+        readDouble(offset, values);
         return values;
     }
 
     final String readString(long offset) throws IOException {
-        ByteBuffer bbuf = ByteBuffer.allocate(RrdPrimitive.STRING_LENGTH * 2);
-        bbuf.order(BYTEORDER);
-        read(offset, bbuf.array());
-        bbuf.position(0);
-        bbuf.limit(RrdPrimitive.STRING_LENGTH * 2);
+        ByteBuffer bbuf = allocate(RrdPrimitive.STRING_LENGTH * 2);
+        read(offset, bbuf);
+        bbuf.flip();
         CharBuffer cbuf = bbuf.asCharBuffer();
         long realStringOffset = 0;
         int i = -1;
@@ -322,63 +450,15 @@ public abstract class RrdBackend {
             if (bigStringSize < 0) {
                 bigStringSize += MAXUNSIGNEDSHORT + 1;
             }
-            ByteBuffer realStringbuf = ByteBuffer.allocate(bigStringSize * 2);
-            bbuf.order(BYTEORDER);
-            read(realStringOffset - bigStringSize * 2, realStringbuf.array());
+            ByteBuffer realStringbuf = allocate(bigStringSize * 2);
+            read(realStringOffset - bigStringSize * 2, realStringbuf);
+            realStringbuf.flip();
             return realStringbuf.asCharBuffer().toString().trim();
         } else {
             return cbuf.toString().trim();
         }
     }
 
-    // static helper methods
-
-    private static byte[] getIntBytes(int value) {
-        byte[] b = new byte[4];
-        b[0] = (byte) ((value >>> 24) & 0xFF);
-        b[1] = (byte) ((value >>> 16) & 0xFF);
-        b[2] = (byte) ((value >>> 8) & 0xFF);
-        b[3] = (byte) ((value >>> 0) & 0xFF);
-        return b;
-    }
-
-    private static byte[] getLongBytes(long value) {
-        byte[] b = new byte[8];
-        b[0] = (byte) ((int) (value >>> 56) & 0xFF);
-        b[1] = (byte) ((int) (value >>> 48) & 0xFF);
-        b[2] = (byte) ((int) (value >>> 40) & 0xFF);
-        b[3] = (byte) ((int) (value >>> 32) & 0xFF);
-        b[4] = (byte) ((int) (value >>> 24) & 0xFF);
-        b[5] = (byte) ((int) (value >>> 16) & 0xFF);
-        b[6] = (byte) ((int) (value >>> 8) & 0xFF);
-        b[7] = (byte) ((int) (value >>> 0) & 0xFF);
-        return b;
-    }
-
-
-    private static byte[] getDoubleBytes(double value) {
-        byte[] bytes = getLongBytes(Double.doubleToLongBits(value));
-        return bytes;
-    }
-
-    private static int getInt(byte[] b) {
-        assert b.length == 4 : "Invalid number of bytes for integer conversion";
-        return ((b[0] << 24) & 0xFF000000) + ((b[1] << 16) & 0x00FF0000) +
-                ((b[2] << 8) & 0x0000FF00) + ((b[3] << 0) & 0x000000FF);
-    }
-
-    private static long getLong(byte[] b) {
-        assert b.length == 8 : "Invalid number of bytes for long conversion";
-        int high = getInt(new byte[]{b[0], b[1], b[2], b[3]});
-        int low = getInt(new byte[]{b[4], b[5], b[6], b[7]});
-        return ((long) (high) << 32) + (low & 0xFFFFFFFFL);
-    }
-
-    private static double getDouble(byte[] b) {
-        assert b.length == 8 : "Invalid number of bytes for double conversion";
-        return Double.longBitsToDouble(getLong(b));
-    }
-
     static boolean isInstanceCreated() {
         return instanceCreated;
     }
@@ -23,7 +23,7 @@ import java.util.regex.Pattern;
  * Factory classes are used to create concrete {@link org.rrd4j.core.RrdBackend} implementations.
  * Each factory creates unlimited number of specific backend objects.
  *
- * Rrd4j supports six different backend types (backend factories) out of the box:
+ * Rrd4j supports eight different backend types (backend factories) out of the box:
  * <ul>
  * <li>{@link org.rrd4j.core.RrdRandomAccessFileBackend}: objects of this class are created from the
  * {@link org.rrd4j.core.RrdRandomAccessFileBackendFactory} class. This was the default backend used in all
@@ -46,6 +46,15 @@ import java.util.regex.Pattern;
  * <li>{@link org.rrd4j.core.RrdMemoryBackend}: objects of this class are created from the
  * {@link org.rrd4j.core.RrdMemoryBackendFactory} class. This backend stores all data in memory. Once
  * JVM exits, all data gets lost. The backend is extremely fast and memory hungry.
+ *
+ * <li>{@link org.rrd4j.core.RrdOffHeapMemoryBackend}: objects of this class are created from the
+ * {@link org.rrd4j.core.RrdOffHeapMemoryBackendFactory} class. This backend stores all data in direct
+ * buffers, outside of the Java heap. The memory is released when the RRD is closed.
+ *
+ * <li>{@link org.rrd4j.core.RrdWriteBackBackend}: objects of this class are created from the
+ * {@link org.rrd4j.core.RrdWriteBackBackendFactory} class. This backend decorates another one, by default
+ * a "FILE" backend, and keeps the writes in a page cache which is written back periodically. The writes
+ * done since the last write back are lost if the JVM crashes.
  * 
  * <li>{@link org.rrd4j.core.RrdBerkeleyDbBackend}: objects of this class are created from the 
  * {@link org.rrd4j.core.RrdBerkeleyDbBackendFactory} class. It stores RRD data to ordinary disk files 
@@ -87,10 +96,14 @@ public abstract class RrdBackendFactory {
         registerFactory(fileFactory);
         RrdMemoryBackendFactory memoryFactory = new RrdMemoryBackendFactory();
         registerFactory(memoryFactory);
+        RrdOffHeapMemoryBackendFactory offHeapFactory = new RrdOffHeapMemoryBackendFactory();
+        registerFactory(offHeapFactory);
         RrdNioBackendFactory nioFactory = new RrdNioBackendFactory();
         registerFactory(nioFactory);
         RrdSafeFileBackendFactory safeFactory = new RrdSafeFileBackendFactory();
         registerFactory(safeFactory);
+        RrdWriteBackBackendFactory writeBackFactory = new RrdWriteBackBackendFactory();
+        registerFactory(writeBackFactory);
         setActiveFactories(RrdBackendFactory.getFactory(DEFAULTFACTORY));
     }
 
@@ -109,6 +122,11 @@ public abstract class RrdBackendFactory {
      *             java.nio.* package. RRD data is stored in files on the disk
      *             <li><b>MEMORY</b>: Factory which creates memory-oriented backends.
      *             RRD data is stored in memory, it gets lost as soon as JVM exits.
+     *             <li><b>OFFHEAP</b>: Factory which creates memory-oriented backends storing
+     *             RRD data outside of the Java heap. The memory is released as soon as the
+     *             RRD is closed.
+     *             <li><b>WRITEBACK</b>: Factory which keeps the writes to RRD files in an in-memory
+     *             page cache and writes them back periodically, on close or under memory pressure.
      *             <li><b>BERKELEY</b>: a memory-oriented backend that ensure persistens
      *             in a <a href="http://www.oracle.com/technetwork/database/berkeleydb/overview/index-093405.html">Berkeley Db</a> storage.
      *             <li><b>MONGODB</b>: a memory-oriented backend that ensure persistens
@@ -1,6 +1,7 @@
 package org.rrd4j.core;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Abstract byte array based backend.
@@ -8,14 +9,34 @@ import java.io.IOException;
  */
 public abstract class RrdByteArrayBackend extends RrdBackend {
     protected byte[] buffer;
+    private ByteBuffer view;
+    // false if a subclass intercepts the writes, which must then all go through its methods
+    private final boolean directWrites;
 
     /**
      * <p>Constructor for RrdByteArrayBackend.</p>
+     * <p>The values are written straight into the memory buffer, unless the class overrides
+     * {@link #write(long, byte[])} or {@link #write(long, ByteBuffer)}: every write then goes through
+     * these methods, as the writes of single values do by default.</p>
      *
      * @param path a {@link java.lang.String} object.
      */
     protected RrdByteArrayBackend(String path) {
         super(path);
+        directWrites = !overrides(getClass(), byte[].class) && !overrides(getClass(), ByteBuffer.class);
+    }
+
+    private static boolean overrides(Class<?> c, Class<?> source) {
+        for (Class<?> k = c; k != RrdByteArrayBackend.class; k = k.getSuperclass()) {
+            try {
+                k.getDeclaredMethod("write", long.class, source);
+                return true;
+            }
+            catch (NoSuchMethodException e) {
+                // not declared by this class
+            }
+        }
+        return false;
     }
 
     /**
@@ -26,7 +47,7 @@ public abstract class RrdByteArrayBackend extends RrdBackend {
      * @throws java.io.IOException if any.
      */
     protected synchronized void write(long offset, byte[] bytes) throws IOException {
-        int pos = (int) offset;
+        int pos = checkRange(offset, bytes.length);
         System.arraycopy(bytes, 0, buffer, pos, bytes.length);
     }
 
@@ -38,13 +59,125 @@ public abstract class RrdByteArrayBackend extends RrdBackend {
      * @throws java.io.IOException if any.
      */
     protected synchronized void read(long offset, byte[] bytes) throws IOException {
-        int pos = (int) offset;
-        if (pos + bytes.length <= buffer.length) {
-            System.arraycopy(buffer, pos, bytes, 0, bytes.length);
+        int pos = checkRange(offset, bytes.length);
+        System.arraycopy(buffer, pos, bytes, 0, bytes.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Copies the bytes straight into the memory buffer, or through {@link #write(long, byte[])} if the
+     * class overrides it.
+     */
+    protected synchronized void write(long offset, ByteBuffer src) throws IOException {
+        if (!directWrites) {
+            super.write(offset, src);
+            return;
+        }
+        int pos = checkRange(offset, src.remaining());
+        src.get(buffer, pos, src.remaining());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Copies the bytes straight from the memory buffer.
+     */
+    protected synchronized void read(long offset, ByteBuffer dst) throws IOException {
+        int pos = checkRange(offset, dst.remaining());
+        dst.put(buffer, pos, dst.remaining());
+    }
+
+    /** {@inheritDoc} */
+    protected synchronized void writeInt(long offset, int value) throws IOException {
+        if (!directWrites) {
+            super.writeInt(offset, value);
+            return;
+        }
+        getView().putInt(checkRange(offset, 4), value);
+    }
+
+    /** {@inheritDoc} */
+    protected synchronized void writeLong(long offset, long value) throws IOException {
+        if (!directWrites) {
+            super.writeLong(offset, value);
+            return;
         }
-        else {
+        getView().putLong(checkRange(offset, 8), value);
+    }
+
+    /** {@inheritDoc} */
+    protected synchronized void writeDouble(long offset, double value) throws IOException {
+        if (!directWrites) {
+            super.writeDouble(offset, value);
+            return;
+        }
+        getView().putDouble(checkRange(offset, 8), value);
+    }
+
+    /** {@inheritDoc} */
+    protected synchronized void writeDouble(long offset, double value, int count) throws IOException {
+        if (!directWrites) {
+            super.writeDouble(offset, value, count);
+            return;
+        }
+        ByteBuffer bb = getView();
+        int pos = checkRange(offset, 8 * count);
+        for (int i = 0; i < count; i++, pos += 8) {
+            bb.putDouble(pos, value);
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected synchronized void writeDouble(long offset, double[] values) throws IOException {
+        if (!directWrites) {
+            super.writeDouble(offset, values);
+            return;
+        }
+        ByteBuffer bb = getView();
+        int pos = checkRange(offset, 8 * values.length);
+        for (int i = 0; i < values.length; i++, pos += 8) {
+            bb.putDouble(pos, values[i]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected synchronized int readInt(long offset) throws IOException {
+        return getView().getInt(checkRange(offset, 4));
+    }
+
+    /** {@inheritDoc} */
+    protected synchronized long readLong(long offset) throws IOException {
+        return getView().getLong(checkRange(offset, 8));
+    }
+
+    /** {@inheritDoc} */
+    protected synchronized double readDouble(long offset) throws IOException {
+        return getView().getDouble(checkRange(offset, 8));
+    }
+
+    /** {@inheritDoc} */
+    protected synchronized void readDouble(long offset, double[] values) throws IOException {
+        ByteBuffer bb = getView();
+        int pos = checkRange(offset, 8 * values.length);
+        for (int i = 0; i < values.length; i++, pos += 8) {
+            values[i] = bb.getDouble(pos);
+        }
+    }
+
+    private int checkRange(long offset, int length) throws IOException {
+        if (offset < 0 || offset + length > buffer.length) {
             throw new IOException("Not enough bytes available in memory; RRD " + getPath());
         }
+        return (int) offset;
+    }
+
+    // big-endian view used with absolute accessors only, rebuilt if a subclass swapped the buffer
+    private ByteBuffer getView() {
+        if (view == null || view.array() != buffer) {
+            view = ByteBuffer.wrap(buffer);
+        }
+        return view;
     }
 
     /**
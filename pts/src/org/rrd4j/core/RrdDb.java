@@ -7,7 +7,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
 import org.rrd4j.ConsolFun;
 
@@ -27,6 +30,14 @@ import org.rrd4j.ConsolFun;
  * use this class to manipulate RRD files created with RRDTool. <b>However, if you perform
  * the same sequence of create, update and fetch operations, you will get exactly the same
  * results from Rrd4j and RRDTool.</b></p>
+ * <p>A RrdDb object can be shared between threads. Updates exclude each other and the reads, while
+ * fetches, dumps and other reads run concurrently with each other. The last update time and
+ * the last datasource values are read optimistically when the backend allows caching: they don't
+ * wait for a concurrent update, but are read again if one happened meanwhile.</p>
+ * <p>Updates, {@link #setInfo(String)} and {@link #close()} also hold the monitor of the RrdDb
+ * object, so a sequence of calls in a <code>synchronized (rrdDb)</code> block excludes the updates
+ * of other threads. The reads don't take the monitor: such a block doesn't exclude fetches, dumps
+ * and other reads.</p>
  * <p>You will not be able to use Rrd4j API if you are not familiar with
  * basic RRDTool concepts. Good place to start is the
  * <a href="http://people.ee.ethz.ch/~oetiker/webtools/rrdtool/tutorial/rrdtutorial.html">official RRD tutorial</a>
@@ -63,6 +74,15 @@ public class RrdDb implements RrdUpdater, Closeable {
     private final Archive[] archives;
 
     private boolean closed = false;
+    private RrdJournal journal;
+
+    // write lock for updates and state changes, read lock for reads
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // write locked during the updates, only used to validate the optimistic reads
+    private final StampedLock updateSequence = new StampedLock();
+    // set once the values read optimistically are cached, they are then read without touching the backend
+    private volatile boolean optimisticReads = false;
+    private volatile RrdFetchCache fetchCache = null;
 
     /**
      * <p>Constructor used to create new RRD object from the definition. If the rrdDef was constructed
@@ -499,9 +519,45 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @throws java.io.IOException Thrown in case of I/O related error.
      */
     public synchronized void close() throws IOException {
-        if (!closed) {
-            closed = true;
-            backend.close();
+        lock.writeLock().lock();
+        try {
+            if (!closed) {
+                closed = true;
+                try {
+                    // the journal may drop the records of this RRD once it's on the disk
+                    if (journal != null) {
+                        backend.sync();
+                    }
+                }
+                finally {
+                    backend.close();
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void setJournal(RrdJournal journal) {
+        lock.writeLock().lock();
+        try {
+            this.journal = journal;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void sync() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (!closed) {
+                backend.sync();
+            }
+        }
+        finally {
+            lock.readLock().unlock();
         }
     }
 
@@ -627,29 +683,160 @@ public class RrdDb implements RrdUpdater, Closeable {
     }
 
     final synchronized void store(Sample sample) throws IOException {
-        if (closed) {
-            throw new IllegalStateException("RRD already closed, cannot store this sample");
+        RrdJournal storeJournal;
+        long position = 0;
+        lock.writeLock().lock();
+        long stamp = updateSequence.writeLock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("RRD already closed, cannot store this sample");
+            }
+            RrdMirror storeMirror = beginMirror();
+            try {
+                long newTime = sample.getTime();
+                long lastTime = header.getLastUpdateTime();
+                if (lastTime >= newTime) {
+                    throw new IllegalArgumentException("Bad sample time: " + newTime +
+                            ". Last update time was " + lastTime + ", at least one second step is required");
+                }
+                double[] newValues = sample.getValues();
+                storeJournal = journal;
+                if (storeJournal != null) {
+                    position = storeJournal.append(this, newTime, newValues);
+                }
+                for (int i = 0; i < datasources.length; i++) {
+                    double newValue = newValues[i];
+                    datasources[i].process(newTime, newValue);
+                }
+                header.setLastUpdateTime(newTime);
+            }
+            finally {
+                if (storeMirror != null) {
+                    storeMirror.commit();
+                }
+            }
         }
-        long newTime = sample.getTime();
-        long lastTime = header.getLastUpdateTime();
-        if (lastTime >= newTime) {
-            throw new IllegalArgumentException("Bad sample time: " + newTime +
-                    ". Last update time was " + lastTime + ", at least one second step is required");
+        finally {
+            updateSequence.unlockWrite(stamp);
+            lock.writeLock().unlock();
         }
-        double[] newValues = sample.getValues();
-        for (int i = 0; i < datasources.length; i++) {
-            double newValue = newValues[i];
-            datasources[i].process(newTime, newValue);
+        // wait for the journal outside of the lock, other updates join the same commit
+        if (storeJournal != null) {
+            storeJournal.commit(position);
+        }
+    }
+
+    /**
+     * <p>Stores several samples at once. The result is the same as creating and updating a
+     * {@link org.rrd4j.core.Sample} for each timestamp, but the RRD is locked once, the timestamps
+     * are checked once and the datasource and archive states are read and written once per batch
+     * instead of once per sample, which makes back-filling a RRD much faster.</p>
+     * <p>Either all samples are stored or, if a timestamp is invalid, none of them.</p>
+     *
+     * @param times  Sample timestamps, strictly increasing and after the last update time.
+     * @param values Sample values, <code>values[i]</code> holding the value of each datasource
+     *               for <code>times[i]</code>, in datasource order. Use Double.NaN for unknown values.
+     * @throws java.io.IOException Thrown in case of I/O error.
+     * @throws java.lang.IllegalArgumentException Thrown if a timestamp is invalid or if the
+     *                 dimensions of the arrays don't match.
+     */
+    public synchronized void storeBatch(long[] times, double[][] values) throws IOException {
+        if (times.length != values.length) {
+            throw new IllegalArgumentException("Got " + times.length + " timestamps but " + values.length + " value sets");
+        }
+        for (double[] sampleValues : values) {
+            if (sampleValues.length != datasources.length) {
+                throw new IllegalArgumentException("Invalid number of values specified (found " +
+                        sampleValues.length + ", " + datasources.length + " allowed)");
+            }
+        }
+        if (times.length == 0) {
+            return;
+        }
+        RrdJournal storeJournal;
+        long position = 0;
+        lock.writeLock().lock();
+        long stamp = updateSequence.writeLock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("RRD already closed, cannot store these samples");
+            }
+            RrdMirror storeMirror = beginMirror();
+            try {
+                long lastTime = header.getLastUpdateTime();
+                for (long newTime : times) {
+                    if (lastTime >= newTime) {
+                        throw new IllegalArgumentException("Bad sample time: " + newTime +
+                                ". Last update time was " + lastTime + ", at least one second step is required");
+                    }
+                    lastTime = newTime;
+                }
+                storeJournal = journal;
+                if (storeJournal != null) {
+                    for (int i = 0; i < times.length; i++) {
+                        position = storeJournal.append(this, times[i], values[i]);
+                    }
+                }
+                long lastUpdateTime = header.getLastUpdateTime();
+                for (int i = 0; i < datasources.length; i++) {
+                    datasources[i].process(lastUpdateTime, times, values, i, archives);
+                }
+                header.setLastUpdateTime(lastTime);
+            }
+            finally {
+                if (storeMirror != null) {
+                    storeMirror.commit();
+                }
+            }
+        }
+        finally {
+            updateSequence.unlockWrite(stamp);
+            lock.writeLock().unlock();
+        }
+        if (storeJournal != null) {
+            storeJournal.commit(position);
         }
-        header.setLastUpdateTime(newTime);
     }
 
-    synchronized FetchData fetchData(FetchRequest request) throws IOException {
-        if (closed) {
-            throw new IllegalStateException("RRD already closed, cannot fetch data");
+    // When the backend doesn't allow caching, the update goes through a mirror of the header,
+    // datasources and archive states, read and written back once.
+    private RrdMirror beginMirror() {
+        if (backend.isCachingAllowed()) {
+            return null;
+        }
+        if (backend.mirror == null) {
+            long[] ranges = new long[] {0, archives[0].stateRanges()[0]};
+            for (Archive archive : archives) {
+                long[] arcRanges = archive.stateRanges();
+                long[] merged = Arrays.copyOf(ranges, ranges.length + arcRanges.length);
+                System.arraycopy(arcRanges, 0, merged, ranges.length, arcRanges.length);
+                ranges = merged;
+            }
+            backend.mirror = new RrdMirror(backend, ranges);
+        }
+        backend.mirror.begin();
+        return backend.mirror;
+    }
+
+    FetchData fetchData(FetchRequest request) throws IOException {
+        return fetchData(request, fetchCache);
+    }
+
+    FetchData fetchData(FetchRequest request, RrdFetchCache cache) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("RRD already closed, cannot fetch data");
+            }
+            Archive archive = findMatchingArchive(request);
+            if (cache != null) {
+                return cache.fetchData(archive, request, header.getLastUpdateTime());
+            }
+            return archive.fetchData(request);
+        }
+        finally {
+            lock.readLock().unlock();
         }
-        Archive archive = findMatchingArchive(request);
-        return archive.fetchData(request);
     }
 
     /**
@@ -758,16 +945,22 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @return String representing internal RRD state.
      * @throws java.io.IOException Thrown in case of I/O related error.
      */
-    public synchronized String dump() throws IOException {
-        StringBuilder buffer = new StringBuilder();
-        buffer.append(header.dump());
-        for (Datasource datasource : datasources) {
-            buffer.append(datasource.dump());
+    public String dump() throws IOException {
+        lock.readLock().lock();
+        try {
+            StringBuilder buffer = new StringBuilder();
+            buffer.append(header.dump());
+            for (Datasource datasource : datasources) {
+                buffer.append(datasource.dump());
+            }
+            for (Archive archive : archives) {
+                buffer.append(archive.dump());
+            }
+            return buffer.toString();
         }
-        for (Archive archive : archives) {
-            buffer.append(archive.dump());
+        finally {
+            lock.readLock().unlock();
         }
-        return buffer.toString();
     }
 
     final void archive(Datasource datasource, double value, long numUpdates) throws IOException {
@@ -825,21 +1018,27 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @param destination Output stream to receive XML data
      * @throws java.io.IOException Thrown in case of I/O related error
      */
-    public synchronized void dumpXml(OutputStream destination) throws IOException {
-        XmlWriter writer = new XmlWriter(destination);
-        writer.startTag("rrd");
-        // dump header
-        header.appendXml(writer);
-        // dump datasources
-        for (Datasource datasource : datasources) {
-            datasource.appendXml(writer);
+    public void dumpXml(OutputStream destination) throws IOException {
+        lock.readLock().lock();
+        try {
+            XmlWriter writer = new XmlWriter(destination);
+            writer.startTag("rrd");
+            // dump header
+            header.appendXml(writer);
+            // dump datasources
+            for (Datasource datasource : datasources) {
+                datasource.appendXml(writer);
+            }
+            // dump archives
+            for (Archive archive : archives) {
+                archive.appendXml(writer);
+            }
+            writer.closeTag();
+            writer.flush();
         }
-        // dump archives
-        for (Archive archive : archives) {
-            archive.appendXml(writer);
+        finally {
+            lock.readLock().unlock();
         }
-        writer.closeTag();
-        writer.flush();
     }
 
     /**
@@ -848,7 +1047,7 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @throws java.io.IOException Thrown in case of I/O related error
      * @param destination a {@link java.io.OutputStream} object.
      */
-    public synchronized void exportXml(OutputStream destination) throws IOException {
+    public void exportXml(OutputStream destination) throws IOException {
         dumpXml(destination);
     }
 
@@ -860,7 +1059,7 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @return Internal RRD state in XML format.
      * @throws java.io.IOException Thrown in case of I/O related error
      */
-    public synchronized String getXml() throws IOException {
+    public String getXml() throws IOException {
         ByteArrayOutputStream destination = new ByteArrayOutputStream(XML_BUFFER_CAPACITY);
         dumpXml(destination);
         return destination.toString();
@@ -872,7 +1071,7 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @return Internal RRD state in XML format.
      * @throws java.io.IOException Thrown in case of I/O related error
      */
-    public synchronized String exportXml() throws IOException {
+    public String exportXml() throws IOException {
         return getXml();
     }
 
@@ -894,7 +1093,7 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @param filename Path to XML file which will be created.
      * @throws java.io.IOException Thrown in case of I/O related error.
      */
-    public synchronized void dumpXml(String filename) throws IOException {
+    public void dumpXml(String filename) throws IOException {
         OutputStream outputStream = null;
         try {
             outputStream = new FileOutputStream(filename, false);
@@ -913,7 +1112,7 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @throws java.io.IOException Thrown in case of I/O related error
      * @param filename a {@link java.lang.String} object.
      */
-    public synchronized void exportXml(String filename) throws IOException {
+    public void exportXml(String filename) throws IOException {
         dumpXml(filename);
     }
 
@@ -923,8 +1122,35 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @return Last update time (in seconds).
      * @throws java.io.IOException if any.
      */
-    public synchronized long getLastUpdateTime() throws IOException {
-        return header.getLastUpdateTime();
+    public long getLastUpdateTime() throws IOException {
+        if (optimisticReads) {
+            long stamp = updateSequence.tryOptimisticRead();
+            long lastUpdateTime = header.getLastUpdateTime();
+            if (updateSequence.validate(stamp)) {
+                return lastUpdateTime;
+            }
+        }
+        lock.readLock().lock();
+        try {
+            cacheOptimisticReads();
+            return header.getLastUpdateTime();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Reads once, under the read lock, the values read optimistically. Once they are cached, an
+    // optimistic read only reads fields, even if the RRD is closed meanwhile; without caching it
+    // would read the backend, which might be modified or released under it.
+    private void cacheOptimisticReads() throws IOException {
+        if (!optimisticReads && !closed && backend.isCachingAllowed()) {
+            header.getLastUpdateTime();
+            for (Datasource datasource : datasources) {
+                datasource.getLastValue();
+            }
+            optimisticReads = true;
+        }
     }
 
     /**
@@ -943,27 +1169,33 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @return RRD definition.
      * @throws java.io.IOException if any.
      */
-    public synchronized RrdDef getRrdDef() throws IOException {
-        // set header
-        long startTime = header.getLastUpdateTime();
-        long step = header.getStep();
-        int version = header.getVersion();
-        String path = backend.getPath();
-        RrdDef rrdDef = new RrdDef(path, startTime, step, version);
-        // add datasources
-        for (Datasource datasource : datasources) {
-            DsDef dsDef = new DsDef(datasource.getName(),
-                    datasource.getType(), datasource.getHeartbeat(),
-                    datasource.getMinValue(), datasource.getMaxValue());
-            rrdDef.addDatasource(dsDef);
+    public RrdDef getRrdDef() throws IOException {
+        lock.readLock().lock();
+        try {
+            // set header
+            long startTime = header.getLastUpdateTime();
+            long step = header.getStep();
+            int version = header.getVersion();
+            String path = backend.getPath();
+            RrdDef rrdDef = new RrdDef(path, startTime, step, version);
+            // add datasources
+            for (Datasource datasource : datasources) {
+                DsDef dsDef = new DsDef(datasource.getName(),
+                        datasource.getType(), datasource.getHeartbeat(),
+                        datasource.getMinValue(), datasource.getMaxValue());
+                rrdDef.addDatasource(dsDef);
+            }
+            // add archives
+            for (Archive archive : archives) {
+                ArcDef arcDef = new ArcDef(archive.getConsolFun(),
+                        archive.getXff(), archive.getSteps(), archive.getRows());
+                rrdDef.addArchive(arcDef);
+            }
+            return rrdDef;
         }
-        // add archives
-        for (Archive archive : archives) {
-            ArcDef arcDef = new ArcDef(archive.getConsolFun(),
-                    archive.getXff(), archive.getSteps(), archive.getRows());
-            rrdDef.addArchive(arcDef);
+        finally {
+            lock.readLock().unlock();
         }
-        return rrdDef;
     }
 
     /**
@@ -985,23 +1217,29 @@ public class RrdDb implements RrdUpdater, Closeable {
      *
      * Copies object's internal state to another RrdDb object.
      */
-    public synchronized void copyStateTo(RrdUpdater other) throws IOException {
-        if (!(other instanceof RrdDb)) {
-            throw new IllegalArgumentException("Cannot copy RrdDb object to " + other.getClass().getName());
-        }
-        RrdDb otherRrd = (RrdDb) other;
-        header.copyStateTo(otherRrd.header);
-        for (int i = 0; i < datasources.length; i++) {
-            int j = Util.getMatchingDatasourceIndex(this, i, otherRrd);
-            if (j >= 0) {
-                datasources[i].copyStateTo(otherRrd.datasources[j]);
+    public void copyStateTo(RrdUpdater other) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (!(other instanceof RrdDb)) {
+                throw new IllegalArgumentException("Cannot copy RrdDb object to " + other.getClass().getName());
             }
-        }
-        for (int i = 0; i < archives.length; i++) {
-            int j = Util.getMatchingArchiveIndex(this, i, otherRrd);
-            if (j >= 0) {
-                archives[i].copyStateTo(otherRrd.archives[j]);
+            RrdDb otherRrd = (RrdDb) other;
+            header.copyStateTo(otherRrd.header);
+            for (int i = 0; i < datasources.length; i++) {
+                int j = Util.getMatchingDatasourceIndex(this, i, otherRrd);
+                if (j >= 0) {
+                    datasources[i].copyStateTo(otherRrd.datasources[j]);
+                }
             }
+            for (int i = 0; i < archives.length; i++) {
+                int j = Util.getMatchingArchiveIndex(this, i, otherRrd);
+                if (j >= 0) {
+                    archives[i].copyStateTo(otherRrd.archives[j]);
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
         }
     }
 
@@ -1076,6 +1314,25 @@ public class RrdDb implements RrdUpdater, Closeable {
         }
     }
 
+    /**
+     * Returns the cache used by the fetch requests of this RRD.
+     *
+     * @return the fetch cache, or null if the data is always fetched from the RRD.
+     */
+    public RrdFetchCache getFetchCache() {
+        return fetchCache;
+    }
+
+    /**
+     * Sets the cache used by the fetch requests of this RRD. The cache can be shared with other RRDs, data
+     * processors or RRD objects opened later on the same RRD, it's not closed with this RRD.
+     *
+     * @param fetchCache the fetch cache, or null to always fetch the data from the RRD.
+     */
+    public void setFetchCache(RrdFetchCache fetchCache) {
+        this.fetchCache = fetchCache;
+    }
+
     /**
      * Returns the path to this RRD.
      *
@@ -1118,8 +1375,14 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @return All RRD bytes
      * @throws java.io.IOException Thrown in case of I/O related error.
      */
-    public synchronized byte[] getBytes() throws IOException {
-        return backend.readAll();
+    public byte[] getBytes() throws IOException {
+        lock.readLock().lock();
+        try {
+            return backend.readAll();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -1141,12 +1404,28 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @return Array of last datasource values
      * @throws java.io.IOException Thrown in case of I/O error
      */
-    public synchronized double[] getLastDatasourceValues() throws IOException {
+    public double[] getLastDatasourceValues() throws IOException {
         double[] values = new double[datasources.length];
-        for (int i = 0; i < values.length; i++) {
-            values[i] = datasources[i].getLastValue();
+        if (optimisticReads) {
+            long stamp = updateSequence.tryOptimisticRead();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = datasources[i].getLastValue();
+            }
+            if (updateSequence.validate(stamp)) {
+                return values;
+            }
+        }
+        lock.readLock().lock();
+        try {
+            cacheOptimisticReads();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = datasources[i].getLastValue();
+            }
+            return values;
+        }
+        finally {
+            lock.readLock().unlock();
         }
-        return values;
     }
 
     /**
@@ -1157,9 +1436,23 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @throws java.io.IOException              Thrown in case of I/O error
      * @throws java.lang.IllegalArgumentException Thrown if no datasource in this RrdDb matches the given datasource name
      */
-    public synchronized double getLastDatasourceValue(String dsName) throws IOException {
+    public double getLastDatasourceValue(String dsName) throws IOException {
         int dsIndex = getDsIndex(dsName);
-        return datasources[dsIndex].getLastValue();
+        if (optimisticReads) {
+            long stamp = updateSequence.tryOptimisticRead();
+            double value = datasources[dsIndex].getLastValue();
+            if (updateSequence.validate(stamp)) {
+                return value;
+            }
+        }
+        lock.readLock().lock();
+        try {
+            cacheOptimisticReads();
+            return datasources[dsIndex].getLastValue();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -1202,8 +1495,14 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @return a {@link java.lang.String} object.
      * @throws java.io.IOException if any.
      */
-    public synchronized String getInfo() throws IOException {
-        return header.getInfo();
+    public String getInfo() throws IOException {
+        lock.readLock().lock();
+        try {
+            return header.getInfo();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -1213,7 +1512,13 @@ public class RrdDb implements RrdUpdater, Closeable {
      * @throws java.io.IOException if any.
      */
     public synchronized void setInfo(String info) throws IOException {
-        header.setInfo(info);
+        lock.writeLock().lock();
+        try {
+            header.setInfo(info);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
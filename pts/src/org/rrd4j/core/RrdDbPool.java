@@ -3,11 +3,18 @@ package org.rrd4j.core;
 import java.io.IOException;
 import java.net.URI;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -17,6 +24,14 @@ import java.util.concurrent.locks.ReentrantLock;
  * too many RRD files at the same time (thus avoiding operating system limits).
  * <p>
  * It's much more scalable than the previous pool
+ * <p>
+ * By default, a RRD file is closed as soon as its last reference is released. With
+ * {@link #setIdleCapacity(int)}, unreferenced RRD files are kept open instead, so that the next request
+ * doesn't pay for a new open. Idle files are closed in the background, least recently released first,
+ * when there are more than {@link #setIdleCapacity(int) idle capacity} of them, when their size exceeds
+ * {@link #setMaxIdleBytes(long)}, when they have been idle for longer than {@link #setIdleTimeout(int)},
+ * or when a request needs a slot while the pool is full. Idle files count as open files for the
+ * capacity of the pool.
  */
 public class RrdDbPool {
     private static class RrdDbPoolSingletonHolder {
@@ -31,6 +46,23 @@ public class RrdDbPool {
      */
     public static final int INITIAL_CAPACITY = 200;
 
+    /**
+     * Default time in seconds after which an idle RRD file is closed, 5 minutes.
+     */
+    public static final int DEFAULT_IDLE_TIMEOUT = 300;
+
+    /**
+     * An unreferenced RRD file kept open.
+     */
+    private static class IdleRrd {
+        final long since;
+        final long bytes;
+        IdleRrd(long since, long bytes) {
+            this.since = since;
+            this.bytes = bytes;
+        }
+    }
+
     private static class RrdEntry {
         RrdDb rrdDb = null;
         int count = 0;
@@ -71,6 +103,28 @@ public class RrdDbPool {
 
     private final RrdBackendFactory defaultFactory;
 
+    // idle RRD files, least recently released first, guarded by itself
+    private final LinkedHashMap<URI, IdleRrd> idle = new LinkedHashMap<URI, IdleRrd>();
+    private long idleBytes = 0;
+    private volatile int idleCapacity = 0;
+    private volatile long maxIdleBytes = Long.MAX_VALUE;
+    private volatile int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private ScheduledExecutorService evictor;
+    private final AtomicLong idleHitCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private final Runnable evictRunnable = new Runnable() {
+        public void run() {
+            evictIdle(false);
+        }
+    };
+
+    private final Runnable evictOneRunnable = new Runnable() {
+        public void run() {
+            evictIdle(true);
+        }
+    };
+
     /**
      * Constructor for RrdDbPool.
      * 
@@ -129,14 +183,24 @@ public class RrdDbPool {
                 try {
                     countLock.lockInterruptibly();
                     while(ref == null && usage.get() >= maxCapacity && cancreate) {
+                        //An idle file can give its slot
+                        if(hasIdle()) {
+                            evictor().execute(evictOneRunnable);
+                        }
                         full.await();
                         ref = pool.get(uri);
                     }
-                    if(ref == null && cancreate) {
+                    if(ref != null) {
+                        //Created meanwhile, a new iteration is needed to get it
+                        ref = new RrdEntry(true, uri);
+                    } else if(cancreate) {
                         ref = pool.putIfAbsent(uri, new RrdEntry(true, uri));
                         if(ref == null) {
                             ref = new RrdEntry(false, uri);
                             usage.incrementAndGet();
+                        } else {
+                            //Created meanwhile, a new iteration is needed to get it
+                            ref = new RrdEntry(true, uri);
                         }
                     }
                 } finally {
@@ -221,6 +285,18 @@ public class RrdDbPool {
                 passNext(ACTION.DROP, ref);
                 throw new IllegalStateException("Could not release [" + rrdDb.getPath() + "], pool corruption");
             }
+            if(idleCapacity > 0) {
+                //Kept open, in a new entry as the waitempty latch is used
+                RrdEntry idleRef = new RrdEntry(false, dburi);
+                idleRef.rrdDb = ref.rrdDb;
+                boolean overIdleBound = markIdle(dburi, ref.rrdDb);
+                passNext(ACTION.SWAP, idleRef);
+                ref.waitempty.countDown();
+                if(overIdleBound) {
+                    evictor().execute(evictRunnable);
+                }
+                return;
+            }
             ref.rrdDb.close();
             passNext(ACTION.DROP, ref);
             //If someone is waiting for an empty entry, signal it
@@ -281,7 +357,11 @@ public class RrdDbPool {
         }
 
         //Someone might have already open it, rechecks
-        if(ref.count == 0) {
+        if(ref.count == 0 && ref.rrdDb != null) {
+            //An idle file, still open
+            forgetIdle(uri);
+            idleHitCount.incrementAndGet();
+        } else if(ref.count == 0) {
             try {
                 ref.rrdDb = new RrdDb(factory.getPath(uri), factory);
             } catch (IOException e) {
@@ -327,6 +407,18 @@ public class RrdDbPool {
      */
     private RrdEntry requestEmpty(URI uri) throws InterruptedException, IOException {
         RrdEntry ref = waitEmpty(uri);
+        if(ref.rrdDb != null) {
+            //An idle file, it will be replaced
+            forgetIdle(uri);
+            try {
+                ref.rrdDb.close();
+            } catch (IOException e) {
+                passNext(ACTION.DROP, ref);
+                ref.waitempty.countDown();
+                throw e;
+            }
+            ref.rrdDb = null;
+        }
         ref.count = 1;
         return ref;
     }
@@ -513,4 +605,218 @@ public class RrdDbPool {
             }
         }
     }
+
+    /**
+     * Sets the maximum number of unreferenced RRD files kept open. Zero, the default, closes a
+     * RRD file as soon as its last reference is released.
+     *
+     * @param idleCapacity Maximum number of idle RRD files.
+     */
+    public void setIdleCapacity(int idleCapacity) {
+        if (idleCapacity < 0) {
+            throw new IllegalArgumentException("Invalid idle capacity: " + idleCapacity);
+        }
+        this.idleCapacity = idleCapacity;
+        evictor().execute(evictRunnable);
+    }
+
+    /**
+     * Returns the maximum number of unreferenced RRD files kept open.
+     *
+     * @return maximum number of idle RRD files, zero if they are closed on release.
+     */
+    public int getIdleCapacity() {
+        return idleCapacity;
+    }
+
+    /**
+     * Sets the bound of the storage size of the idle RRD files, which is how much memory is mapped
+     * for them with the "NIO" backend. No bound by default.
+     *
+     * @param maxIdleBytes Maximum number of bytes of idle RRD files.
+     */
+    public void setMaxIdleBytes(long maxIdleBytes) {
+        if (maxIdleBytes < 0) {
+            throw new IllegalArgumentException("Invalid idle bytes bound: " + maxIdleBytes);
+        }
+        this.maxIdleBytes = maxIdleBytes;
+        evictor().execute(evictRunnable);
+    }
+
+    /**
+     * Returns the bound of the storage size of the idle RRD files.
+     *
+     * @return Maximum number of bytes of idle RRD files.
+     */
+    public long getMaxIdleBytes() {
+        return maxIdleBytes;
+    }
+
+    /**
+     * Sets the time after which an idle RRD file is closed. If not changed, defaults to
+     * {@link #DEFAULT_IDLE_TIMEOUT}.
+     *
+     * @param idleTimeout Time in seconds, zero to keep idle RRD files open without time limit.
+     */
+    public void setIdleTimeout(int idleTimeout) {
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("Invalid idle timeout: " + idleTimeout);
+        }
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns the time after which an idle RRD file is closed.
+     *
+     * @return Time in seconds, zero if there is no time limit.
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Returns the number of unreferenced RRD files kept open, they are included in {@link #getOpenFileCount()}.
+     *
+     * @return Number of idle RRD files.
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * Returns the number of requests served by an idle RRD file, without opening it.
+     *
+     * @return Number of idle hits.
+     */
+    public long getIdleHitCount() {
+        return idleHitCount.get();
+    }
+
+    /**
+     * Returns the number of idle RRD files closed by the pool.
+     *
+     * @return Number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Closes all the idle RRD files now, in the calling thread.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    public void closeIdle() throws IOException {
+        URI[] uris;
+        synchronized (idle) {
+            uris = idle.keySet().toArray(new URI[0]);
+        }
+        for (URI uri : uris) {
+            evict(uri);
+        }
+    }
+
+    private boolean hasIdle() {
+        synchronized (idle) {
+            return !idle.isEmpty();
+        }
+    }
+
+    // returns true if the idle files are over their bounds
+    private boolean markIdle(URI uri, RrdDb rrdDb) {
+        long bytes;
+        try {
+            bytes = rrdDb.getRrdBackend().getLength();
+        } catch (IOException e) {
+            bytes = 0;
+        }
+        synchronized (idle) {
+            IdleRrd old = idle.put(uri, new IdleRrd(System.nanoTime(), bytes));
+            if (old != null) {
+                idleBytes -= old.bytes;
+            }
+            idleBytes += bytes;
+            return idle.size() > idleCapacity || idleBytes > maxIdleBytes;
+        }
+    }
+
+    private void forgetIdle(URI uri) {
+        synchronized (idle) {
+            IdleRrd old = idle.remove(uri);
+            if (old != null) {
+                idleBytes -= old.bytes;
+            }
+        }
+    }
+
+    // Closes the least recently released idle files while they are over their bounds or too old,
+    // or just one of them.
+    private void evictIdle(boolean one) {
+        int attempts;
+        synchronized (idle) {
+            attempts = idle.size();
+        }
+        for (int i = 0; i < attempts; i++) {
+            URI uri = null;
+            synchronized (idle) {
+                Iterator<Map.Entry<URI, IdleRrd>> eldest = idle.entrySet().iterator();
+                if (eldest.hasNext()) {
+                    Map.Entry<URI, IdleRrd> e = eldest.next();
+                    long timeout = TimeUnit.SECONDS.toNanos(idleTimeout);
+                    if (one || idle.size() > idleCapacity || idleBytes > maxIdleBytes
+                            || (timeout > 0 && System.nanoTime() - e.getValue().since > timeout)) {
+                        uri = e.getKey();
+                    }
+                }
+            }
+            if (uri == null) {
+                return;
+            }
+            try {
+                if (evict(uri) && one) {
+                    return;
+                }
+            } catch (IOException e) {
+                // the file is dropped from the pool anyway
+            }
+        }
+    }
+
+    // returns true if the file was idle and closed
+    private boolean evict(URI uri) throws IOException {
+        RrdEntry ref;
+        try {
+            ref = getEntry(uri, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("eviction interrupted for " + uri, e);
+        }
+        if(ref == null) {
+            forgetIdle(uri);
+            return false;
+        }
+        if(ref.count != 0 || ref.rrdDb == null) {
+            passNext(ACTION.SWAP, ref);
+            return false;
+        }
+        forgetIdle(uri);
+        try {
+            ref.rrdDb.close();
+        } finally {
+            passNext(ACTION.DROP, ref);
+            ref.waitempty.countDown();
+            evictionCount.incrementAndGet();
+        }
+        return true;
+    }
+
+    private synchronized ScheduledExecutorService evictor() {
+        if (evictor == null) {
+            evictor = Executors.newSingleThreadScheduledExecutor(new RrdSyncThreadPool.DaemonThreadFactory("RRD4J Pool-Evictor for " + this));
+            evictor.scheduleWithFixedDelay(evictRunnable, 1, 1, TimeUnit.SECONDS);
+        }
+        return evictor;
+    }
 }
@@ -29,7 +29,8 @@ import org.rrd4j.DsType;
  * <li> path to RRD that will be created
  * <li> starting timestamp
  * <li> step
- * <li> version, 1 for linear disposition of archives, 2 for matrix disposition
+ * <li> version, 1 for linear disposition of archives, 2 for matrix disposition, 3 for
+ *      per-datasource contiguous disposition (one bulk read per datasource when fetching)
  * <li> one or more datasource definitions
  * <li> one or more archive definitions
  * </ul>
@@ -164,10 +165,7 @@ public class RrdDef {
      */
     public RrdDef(String path, long startTime, long step, int version) {
         this(path, startTime, step);
-        if(startTime < 0) {
-            throw new IllegalArgumentException("Invalid RRD start time specified: " + startTime);
-        }
-        this.version = version;
+        setVersion(version);
     }
 
     /**
@@ -181,10 +179,7 @@ public class RrdDef {
      */
     public RrdDef(URI uri, long startTime, long step, int version) {
         this(uri, startTime, step);
-        if(startTime < 0) {
-            throw new IllegalArgumentException("Invalid RRD start time specified: " + startTime);
-        }
-        this.version = version;
+        setVersion(version);
     }
 
     /**
@@ -293,10 +288,19 @@ public class RrdDef {
 
     /**
      * Sets RRD's file version.
+     * <ul>
+     * <li>1: each archive stores state and values of a datasource one after the other.
+     * <li>2: archive values are stored as a matrix, datasources interleaved row by row.
+     * <li>3: archive pointers and states come first, followed by the values of each
+     * datasource stored contiguously. A fetch of a single datasource is a single read.
+     * </ul>
      *
      * @param version the version to set
      */
     public void setVersion(int version) {
+        if (version < 1 || version > 3) {
+            throw new IllegalArgumentException("Invalid RRD version specified: " + version);
+        }
         this.version = version;
     }
 
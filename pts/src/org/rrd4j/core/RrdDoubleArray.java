@@ -21,6 +21,13 @@ class RrdDoubleArray extends RrdPrimitive {
         writeDouble(index, value, count);
     }
 
+    void set(int index, double[] newValues) throws IOException {
+        // rollovers not allowed!
+        assert index + newValues.length <= length : "Invalid robin index supplied: index=" + index +
+                ", count=" + newValues.length + ", length=" + length;
+        writeDouble(index, newValues);
+    }
+
     double get(int index) throws IOException {
         assert index < length : "Invalid index supplied: " + index + ", length=" + length;
         return readDouble(index);
@@ -4,26 +4,32 @@ import java.io.IOException;
 
 class RrdDoubleMatrix extends RrdPrimitive {
     private static final String LENGTH = ", length=";
+    private static final int INIT_CHUNK = 1 << 20;
     private final int rows;
     private final int columns;
 
     RrdDoubleMatrix(RrdUpdater updater, int row, int column, boolean shouldInitialize) throws IOException {
-        super(updater, RrdPrimitive.RRD_DOUBLE, row * column, false);
+        super(updater, RrdPrimitive.RRD_DOUBLE, (long) row * column, false);
         this.rows = row;
         this.columns = column;
-        if (shouldInitialize)
-            writeDouble(0, Double.NaN, rows * columns);
+        if (shouldInitialize) {
+            // written in chunks, the matrix may hold more than Integer.MAX_VALUE values
+            long count = (long) rows * columns;
+            for (long index = 0; index < count; index += INIT_CHUNK) {
+                writeDouble(index, Double.NaN, (int) Math.min(INIT_CHUNK, count - index));
+            }
+        }
     }
 
     void set(int column, int index, double value) throws IOException {
-        writeDouble(columns * index + column, value);
+        writeDouble((long) columns * index + column, value);
     }
 
     void set(int column, int index, double value, int count) throws IOException {
         // rollovers not allowed!
         assert index + count <= rows : "Invalid robin index supplied: index=" + index +
                 ", count=" + count + LENGTH + rows;
-        for (int i = columns * index + column, c = 0; c < count; i += columns, c++)
+        for (long i = (long) columns * index + column, c = 0; c < count; i += columns, c++)
             writeDouble(i, value);
     }
 
@@ -40,20 +46,22 @@ class RrdDoubleMatrix extends RrdPrimitive {
         // rollovers not allowed!
         assert index + count <= rows : "Invalid robin index supplied: index=" + index +
                 ", count=" + count + LENGTH + rows;
-        for (int i = columns * index + column, c = 0; c < count; i += columns, c++)
+        int c = 0;
+        for (long i = (long) columns * index + column; c < count; i += columns, c++)
             writeDouble(i, newValues[c]);
     }
 
     double get(int column, int index) throws IOException {
         assert index < rows : "Invalid index supplied: " + index + LENGTH + rows;
-        return readDouble(columns * index + column);
+        return readDouble((long) columns * index + column);
     }
 
     double[] get(int column, int index, int count) throws IOException {
         assert index + count <= rows : "Invalid index/count supplied: " + index +
                 "/" + count + " (length=" + rows + ")";
         double[] values = new double[count];
-        for (int i = columns * index + column, c = 0; c < count; i += columns, c++) {
+        int c = 0;
+        for (long i = (long) columns * index + column; c < count; i += columns, c++) {
             values[c] = readDouble(i);
         }
         return values;
@@ -0,0 +1,271 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.rrd4j.ConsolFun;
+
+/**
+ * Bounded cache of fetched data, to be shared by the users fetching the same data from the same RRDs, like
+ * graphs refreshed by many clients. It's used by {@link org.rrd4j.core.RrdDb#setFetchCache(RrdFetchCache)
+ * RrdDb} and {@link org.rrd4j.data.DataProcessor#setFetchCache(RrdFetchCache) DataProcessor}.
+ * <p>
+ * Data is cached by the URI of the RRD, consolidation function, resolution, datasources fetched, step of the
+ * matching archive and fetch start and end times, normalized to this step. It's fetched again once the last
+ * update time of the RRD changes, so the cache must not be used with RRDs modified otherwise than by updates,
+ * for instance restored or copied to.
+ * <p>
+ * The cache holds at most {@link #getMaxBytes() getMaxBytes()} bytes of data and evicts the least
+ * recently used data beyond. The {@link org.rrd4j.core.FetchData FetchData} objects returned share the
+ * cached data, their getters return copies of their arrays.
+ * <p>
+ * The cache is thread safe, and can be shared by any number of RRDs and data processors.
+ */
+public class RrdFetchCache {
+    /**
+     * Default maximum size of the data cached: 16MB.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    // approximate overhead of an entry, its key and the arrays of its data
+    private static final long ENTRY_OVERHEAD = 256;
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private long maxBytes;
+    private long bytes = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Creates a cache holding at most {@link #DEFAULT_MAX_BYTES} bytes of data.
+     */
+    public RrdFetchCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a cache holding at most the given number of bytes of data.
+     *
+     * @param maxBytes maximum size of the data cached, in bytes.
+     */
+    public RrdFetchCache(long maxBytes) {
+        setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Fetches data, from the cache if the same data was fetched since the last update of the RRD.
+     *
+     * @param request the fetch request.
+     * @return the data fetched, sharing its arrays with the cache.
+     * @throws java.io.IOException Thrown in case of I/O error.
+     */
+    public FetchData fetchData(FetchRequest request) throws IOException {
+        return request.getParentDb().fetchData(request, this);
+    }
+
+    /**
+     * Called by the RRD fetching the data, under its read lock.
+     */
+    FetchData fetchData(Archive archive, FetchRequest request, long lastUpdateTime) throws IOException {
+        long arcStep = archive.getArcStep();
+        long fetchStart = Util.normalize(request.getFetchStart(), arcStep);
+        long fetchEnd = Util.normalize(request.getFetchEnd(), arcStep);
+        if (fetchEnd < request.getFetchEnd()) {
+            fetchEnd += arcStep;
+        }
+        String[] filter = request.getFilter();
+        Key key = new Key(request.getParentDb().getUri(), request.getConsolFun(), arcStep, fetchStart,
+                fetchEnd, request.getResolution(), filter == null ? null : filter.clone());
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.lastUpdateTime == lastUpdateTime) {
+                hitCount++;
+                return new FetchData(entry.data, archive, request);
+            }
+            missCount++;
+        }
+        FetchData data = archive.fetchData(request);
+        Entry entry = new Entry(data, lastUpdateTime);
+        synchronized (entries) {
+            Entry previous = entries.get(key);
+            // a concurrent fetch could have cached newer data meanwhile
+            if (previous == null || previous.lastUpdateTime <= lastUpdateTime) {
+                if (previous != null) {
+                    bytes -= previous.bytes;
+                    entries.remove(key);
+                }
+                if (entry.bytes <= maxBytes) {
+                    entries.put(key, entry);
+                    bytes += entry.bytes;
+                    evict();
+                }
+            }
+        }
+        return new FetchData(data, archive, request);
+    }
+
+    // must be called while holding the lock on entries
+    private void evict() {
+        Iterator<Entry> i = entries.values().iterator();
+        while (bytes > maxBytes && i.hasNext()) {
+            bytes -= i.next().bytes;
+            i.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Removes all the data cached.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Returns the maximum size of the data cached.
+     *
+     * @return the maximum size, in bytes.
+     */
+    public long getMaxBytes() {
+        synchronized (entries) {
+            return maxBytes;
+        }
+    }
+
+    /**
+     * Sets the maximum size of the data cached, evicting the least recently used data beyond.
+     *
+     * @param maxBytes the maximum size, in bytes.
+     */
+    public void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid maximum cache size: " + maxBytes);
+        }
+        synchronized (entries) {
+            this.maxBytes = maxBytes;
+            evict();
+        }
+    }
+
+    /**
+     * Returns the approximate size of the data cached.
+     *
+     * @return the size, in bytes.
+     */
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    /**
+     * Returns the number of fetches cached.
+     *
+     * @return the number of fetches.
+     */
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of fetches served by the cache.
+     *
+     * @return the number of hits.
+     */
+    public long getHitCount() {
+        synchronized (entries) {
+            return hitCount;
+        }
+    }
+
+    /**
+     * Returns the number of fetches that read the RRD, because the data was not cached or was outdated.
+     *
+     * @return the number of misses.
+     */
+    public long getMissCount() {
+        synchronized (entries) {
+            return missCount;
+        }
+    }
+
+    /**
+     * Returns the number of fetches evicted to stay within the maximum size.
+     *
+     * @return the number of evictions.
+     */
+    public long getEvictionCount() {
+        synchronized (entries) {
+            return evictionCount;
+        }
+    }
+
+    private static final class Key {
+        private final URI uri;
+        private final ConsolFun consolFun;
+        // the step of the matching archive, chosen from the fetch start and end times and not only the resolution
+        private final long arcStep;
+        private final long fetchStart;
+        private final long fetchEnd;
+        private final long resolution;
+        private final String[] filter;
+        private final int hash;
+
+        Key(URI uri, ConsolFun consolFun, long arcStep, long fetchStart, long fetchEnd, long resolution,
+                String[] filter) {
+            this.uri = uri;
+            this.consolFun = consolFun;
+            this.arcStep = arcStep;
+            this.fetchStart = fetchStart;
+            this.fetchEnd = fetchEnd;
+            this.resolution = resolution;
+            this.filter = filter;
+            int h = uri.hashCode();
+            h = 31 * h + consolFun.hashCode();
+            h = 31 * h + (int) (arcStep ^ (arcStep >>> 32));
+            h = 31 * h + (int) (fetchStart ^ (fetchStart >>> 32));
+            h = 31 * h + (int) (fetchEnd ^ (fetchEnd >>> 32));
+            h = 31 * h + (int) (resolution ^ (resolution >>> 32));
+            this.hash = 31 * h + Arrays.hashCode(filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return fetchStart == other.fetchStart && fetchEnd == other.fetchEnd && resolution == other.resolution
+                    && arcStep == other.arcStep && consolFun == other.consolFun && uri.equals(other.uri)
+                    && Arrays.equals(filter, other.filter);
+        }
+    }
+
+    private static final class Entry {
+        private final FetchData data;
+        private final long lastUpdateTime;
+        private final long bytes;
+
+        Entry(FetchData data, long lastUpdateTime) {
+            this.data = data;
+            this.lastUpdateTime = lastUpdateTime;
+            long rows = data.getRowCount();
+            this.bytes = ENTRY_OVERHEAD + 8 * rows * data.getColumnCount();
+        }
+    }
+}
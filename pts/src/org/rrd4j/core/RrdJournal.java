@@ -0,0 +1,586 @@
+package org.rrd4j.core;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Append-only journal of the updates done on a set of RRDs, which makes them durable without
+ * syncing the RRDs themselves. Each {@link org.rrd4j.core.Sample#update()} on an attached RRD is recorded
+ * as a small binary record before being applied to the RRD, and the journal file is synced once for all
+ * the updates done concurrently, whatever the RRD they belong to (group commit). The RRDs, for example
+ * memory mapped by the NIO backend, reach the disk later, at their own pace.</p>
+ * <p>When a journal is created, the records left by a previous run which was not closed cleanly are
+ * replayed: each RRD is brought back to its last journaled update, samples already stored in the RRD
+ * being skipped. The journal is then emptied.</p>
+ * <p>A journal is made of generation files, named after the journal path with a numeric suffix. When the
+ * current one grows beyond {@link #getMaxSize()}, a checkpoint syncs the RRDs it references and deletes
+ * it, so the journal stays bounded.</p>
+ * <p>Typical usage:</p>
+ * <pre>
+ * RrdJournal journal = new RrdJournal("/var/rrd/journal", factory);
+ * RrdDb rrdDb = new RrdDb("/var/rrd/test.rrd", factory);
+ * journal.attach(rrdDb);
+ * ...
+ * rrdDb.close();
+ * journal.close();
+ * </pre>
+ * <p>An RRD must be attached to at most one journal, and only while it is open in read/write mode.</p>
+ *
+ */
+public class RrdJournal implements Closeable {
+    /**
+     * Default size of a journal generation above which a checkpoint is done, 64 MB.
+     */
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    private static final int MAGIC = 0x524A4E4C; // "RJNL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte RRD_RECORD = 1;
+    private static final byte SAMPLE_RECORD = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File base;
+    private final RrdBackendFactory factory;
+    private final Object syncLock = new Object();
+    private final Object checkpointLock = new Object();
+    private final CRC32 crc = new CRC32();
+
+    // guarded by this
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+    private int recordStart;
+    private Map<RrdDb, Integer> ids = new IdentityHashMap<RrdDb, Integer>();
+    private long generation;
+    private File generationFile;
+    private RandomAccessFile generationRaf;
+    private FileChannel channel;
+    private volatile long generationSize;
+    private long appended;
+    private long recordCount;
+    private boolean closed = false;
+
+    // guarded by syncLock
+    private volatile long durable;
+    private volatile long commitCount;
+
+    private volatile long maxSize = DEFAULT_MAX_SIZE;
+    private volatile long commitPeriod = 0;
+    private RrdSyncThreadPool syncThreadPool;
+    private ScheduledFuture<?> commitRunnableHandle = null;
+
+    private final Runnable commitRunnable = new Runnable() {
+        public void run() {
+            try {
+                commitAll();
+            }
+            catch (IOException e) {
+                // the records stay pending, the next commit will try again
+            }
+        }
+    };
+
+    /**
+     * Opens the journal at the given path, replaying the records left by a previous run in the RRDs
+     * opened with the default backend factory.
+     *
+     * @param path Path of the journal, generation files are named after it.
+     * @throws java.io.IOException Thrown in case of I/O error.
+     */
+    public RrdJournal(String path) throws IOException {
+        this(path, null);
+    }
+
+    /**
+     * Opens the journal at the given path, replaying the records left by a previous run in the RRDs
+     * opened with the given backend factory.
+     *
+     * @param path    Path of the journal, generation files are named after it.
+     * @param factory Backend factory used to open the RRDs to replay, the default one if null.
+     * @throws java.io.IOException Thrown in case of I/O error.
+     */
+    public RrdJournal(String path, RrdBackendFactory factory) throws IOException {
+        this.base = new File(path).getAbsoluteFile();
+        this.factory = factory;
+        long[] generations = findGenerations();
+        replay(generations);
+        openGeneration(generations.length > 0 ? generations[generations.length - 1] + 1 : 0);
+    }
+
+    /**
+     * Records the further updates of the given RRD in this journal. The RRD must be open in
+     * read/write mode; when it's closed, it's synced before the journal forgets it.
+     *
+     * @param rrdDb the RRD to journal.
+     */
+    public void attach(RrdDb rrdDb) {
+        rrdDb.setJournal(this);
+    }
+
+    /**
+     * Stops recording the updates of the given RRD. The RRD is synced, so that the records of the
+     * journal are no longer needed.
+     *
+     * @param rrdDb the RRD to stop journaling.
+     * @throws java.io.IOException Thrown in case of I/O error.
+     */
+    public void detach(RrdDb rrdDb) throws IOException {
+        rrdDb.setJournal(null);
+        rrdDb.sync();
+    }
+
+    /**
+     * Returns the size of a journal generation above which a checkpoint is done. If not changed via
+     * {@link #setMaxSize(long)} method call, defaults to {@link #DEFAULT_MAX_SIZE}.
+     *
+     * @return Size in bytes.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the size of a journal generation above which a checkpoint is done. A checkpoint syncs
+     * every RRD updated in the generation, so a small size trades journal space for RRD syncs.
+     *
+     * @param maxSize Size in bytes, must be positive.
+     */
+    public void setMaxSize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid journal size: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the period of the background commits, 0 if each update waits for its commit.
+     *
+     * @return Period in milliseconds.
+     */
+    public long getCommitPeriod() {
+        return commitPeriod;
+    }
+
+    /**
+     * Sets the period of the background commits. By default (0), an update returns once its
+     * record is on the disk, concurrent updates sharing a single sync. With a positive period, updates
+     * return as soon as they are recorded in memory and the journal is synced in the background, so
+     * at most the updates of the last period are lost on a crash.
+     *
+     * @param commitPeriod Period in milliseconds, 0 to commit each update.
+     */
+    public synchronized void setCommitPeriod(long commitPeriod) {
+        if (commitPeriod < 0) {
+            throw new IllegalArgumentException("Invalid commit period: " + commitPeriod);
+        }
+        if (commitRunnableHandle != null) {
+            commitRunnableHandle.cancel(false);
+            commitRunnableHandle = null;
+        }
+        this.commitPeriod = commitPeriod;
+        if (commitPeriod > 0) {
+            if (syncThreadPool == null) {
+                syncThreadPool = RrdNioBackendFactory.getDefaultSyncThreadPool();
+            }
+            commitRunnableHandle = syncThreadPool.scheduleWithFixedDelay(commitRunnable, commitPeriod, commitPeriod, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sets the thread pool running the background commits. It must be set before
+     * {@link #setCommitPeriod(long)} to be used.
+     *
+     * @param syncThreadPool the RrdSyncThreadPool to use for the background commits.
+     */
+    public synchronized void setSyncThreadPool(RrdSyncThreadPool syncThreadPool) {
+        this.syncThreadPool = syncThreadPool;
+    }
+
+    // Records a sample, returns the position to commit to make it durable
+    synchronized long append(RrdDb rrdDb, long time, double[] values) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Journal already closed, cannot record this sample");
+        }
+        Integer id = ids.get(rrdDb);
+        if (id == null) {
+            id = ids.size();
+            byte[] path = rrdDb.getPath().getBytes(UTF8);
+            ByteBuffer record = startRecord(1 + 4 + 4 + path.length);
+            record.put(RRD_RECORD);
+            record.putInt(id);
+            record.putInt(path.length);
+            record.put(path);
+            endRecord();
+            ids.put(rrdDb, id);
+        }
+        ByteBuffer record = startRecord(1 + 4 + 8 + 4 + values.length * 8);
+        record.put(SAMPLE_RECORD);
+        record.putInt(id);
+        record.putLong(time);
+        record.putInt(values.length);
+        for (double value : values) {
+            record.putDouble(value);
+        }
+        endRecord();
+        recordCount++;
+        return appended;
+    }
+
+    private ByteBuffer startRecord(int payloadLength) throws IOException {
+        int length = RECORD_HEADER_SIZE + payloadLength;
+        if (pending.remaining() < length) {
+            drain();
+            if (pending.capacity() < length) {
+                pending = ByteBuffer.allocate(length);
+            }
+        }
+        recordStart = pending.position();
+        pending.putInt(payloadLength);
+        pending.putInt(0);
+        return pending;
+    }
+
+    private void endRecord() {
+        int payloadStart = recordStart + RECORD_HEADER_SIZE;
+        crc.reset();
+        crc.update(pending.array(), payloadStart, pending.position() - payloadStart);
+        pending.putInt(recordStart + 4, (int) crc.getValue());
+        long length = pending.position() - recordStart;
+        appended += length;
+        generationSize += length;
+    }
+
+    // writes the pending records to the current generation, without syncing it
+    private void drain() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            channel.write(pending);
+        }
+        pending.clear();
+    }
+
+    // Makes the records up to the given position durable, unless the background commit does it
+    void commit(long position) throws IOException {
+        if (commitPeriod == 0) {
+            sync(position);
+        }
+        if (generationSize > maxSize) {
+            synchronized (checkpointLock) {
+                if (generationSize > maxSize) {
+                    checkpoint();
+                }
+            }
+        }
+    }
+
+    private void sync(long position) throws IOException {
+        synchronized (syncLock) {
+            // a concurrent update may have synced this record already
+            if (durable >= position) {
+                return;
+            }
+            FileChannel syncChannel;
+            long syncPosition;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                drain();
+                syncChannel = channel;
+                syncPosition = appended;
+            }
+            // appends go on during the sync and will be part of the next group
+            syncChannel.force(false);
+            durable = syncPosition;
+            commitCount++;
+        }
+    }
+
+    /**
+     * Makes all the updates recorded so far durable.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error.
+     */
+    public void commitAll() throws IOException {
+        long position;
+        synchronized (this) {
+            position = appended;
+        }
+        sync(position);
+        if (generationSize > maxSize) {
+            synchronized (checkpointLock) {
+                if (generationSize > maxSize) {
+                    checkpoint();
+                }
+            }
+        }
+    }
+
+    /**
+     * Syncs every RRD updated since the last checkpoint and deletes the journal records of those updates.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error.
+     */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            Map<RrdDb, Integer> oldIds;
+            File oldFile;
+            RandomAccessFile oldRaf;
+            synchronized (syncLock) {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    drain();
+                    channel.force(false);
+                    durable = appended;
+                    oldIds = ids;
+                    oldFile = generationFile;
+                    oldRaf = generationRaf;
+                    openGeneration(generation + 1);
+                }
+            }
+            // an update recorded in the old generation holds the RRD lock until it's applied
+            for (RrdDb rrdDb : oldIds.keySet()) {
+                rrdDb.sync();
+            }
+            oldRaf.close();
+            deleteGeneration(oldFile);
+        }
+    }
+
+    private void openGeneration(long newGeneration) throws IOException {
+        File newFile = generationFile(newGeneration);
+        RandomAccessFile newRaf = new RandomAccessFile(newFile, "rw");
+        try {
+            newRaf.setLength(0);
+            FileChannel newChannel = newRaf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.flip();
+            while (header.hasRemaining()) {
+                newChannel.write(header);
+            }
+            generation = newGeneration;
+            generationFile = newFile;
+            generationRaf = newRaf;
+            channel = newChannel;
+            generationSize = HEADER_SIZE;
+            ids = new IdentityHashMap<RrdDb, Integer>();
+        }
+        catch (IOException e) {
+            newRaf.close();
+            throw e;
+        }
+    }
+
+    private File generationFile(long generation) {
+        return new File(base.getParentFile(), base.getName() + "." + generation);
+    }
+
+    private static void deleteGeneration(File file) throws IOException {
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Could not delete journal file " + file);
+        }
+    }
+
+    private long[] findGenerations() {
+        final String prefix = base.getName() + ".";
+        String[] names = base.getParentFile().list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.length() > prefix.length()
+                        && name.substring(prefix.length()).matches("\\d+");
+            }
+        });
+        if (names == null) {
+            return new long[0];
+        }
+        long[] generations = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            generations[i] = Long.parseLong(names[i].substring(prefix.length()));
+        }
+        Arrays.sort(generations);
+        return generations;
+    }
+
+    private void replay(long[] generations) throws IOException {
+        if (generations.length == 0) {
+            return;
+        }
+        Map<String, RrdDb> rrdDbs = new HashMap<String, RrdDb>();
+        try {
+            for (long oldGeneration : generations) {
+                replay(generationFile(oldGeneration), rrdDbs);
+            }
+            for (RrdDb rrdDb : rrdDbs.values()) {
+                if (rrdDb != null) {
+                    rrdDb.sync();
+                }
+            }
+        }
+        finally {
+            for (RrdDb rrdDb : rrdDbs.values()) {
+                if (rrdDb != null) {
+                    rrdDb.close();
+                }
+            }
+        }
+        for (long oldGeneration : generations) {
+            deleteGeneration(generationFile(oldGeneration));
+        }
+    }
+
+    private void replay(File file, Map<String, RrdDb> rrdDbs) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Invalid journal file " + file);
+                }
+            }
+            catch (EOFException e) {
+                // created but never written to
+                return;
+            }
+            Map<Integer, String> paths = new HashMap<Integer, String>();
+            CRC32 check = new CRC32();
+            byte[] payload = new byte[BUFFER_SIZE];
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 0) {
+                        return;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[length];
+                    }
+                    in.readFully(payload, 0, length);
+                }
+                catch (EOFException e) {
+                    // the last record was not completely written
+                    return;
+                }
+                check.reset();
+                check.update(payload, 0, length);
+                if ((int) check.getValue() != checksum) {
+                    return;
+                }
+                ByteBuffer record = ByteBuffer.wrap(payload, 0, length);
+                byte type = record.get();
+                int id = record.getInt();
+                if (type == RRD_RECORD) {
+                    byte[] path = new byte[record.getInt()];
+                    record.get(path);
+                    paths.put(id, new String(path, UTF8));
+                }
+                else if (type == SAMPLE_RECORD) {
+                    long time = record.getLong();
+                    double[] values = new double[record.getInt()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = record.getDouble();
+                    }
+                    String path = paths.get(id);
+                    if (path != null) {
+                        replay(path, time, values, rrdDbs);
+                    }
+                }
+                else {
+                    throw new IOException("Invalid record type " + type + " in journal file " + file);
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private void replay(String path, long time, double[] values, Map<String, RrdDb> rrdDbs) throws IOException {
+        RrdDb rrdDb;
+        if (rrdDbs.containsKey(path)) {
+            rrdDb = rrdDbs.get(path);
+        }
+        else {
+            try {
+                rrdDb = factory != null ? new RrdDb(path, factory) : new RrdDb(path);
+            }
+            catch (FileNotFoundException e) {
+                // deleted since, nothing to restore
+                rrdDb = null;
+            }
+            rrdDbs.put(path, rrdDb);
+        }
+        if (rrdDb != null && rrdDb.getLastUpdateTime() < time && rrdDb.getDsCount() == values.length) {
+            rrdDb.createSample(time).setValues(values).update();
+        }
+    }
+
+    /**
+     * Returns the number of samples recorded since this journal was opened.
+     *
+     * @return Number of samples.
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns the number of syncs of the journal file since this journal was opened. Compared with
+     * {@link #getRecordCount()}, it tells how many updates shared a single sync.
+     *
+     * @return Number of syncs.
+     */
+    public long getCommitCount() {
+        return commitCount;
+    }
+
+    /**
+     * Closes the journal. Every RRD updated since the last checkpoint is synced and the journal files
+     * are deleted. The RRDs still attached can't be updated afterward.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (commitRunnableHandle != null) {
+                commitRunnableHandle.cancel(false);
+                commitRunnableHandle = null;
+            }
+        }
+        synchronized (checkpointLock) {
+            checkpoint();
+            synchronized (syncLock) {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    generationRaf.close();
+                    deleteGeneration(generationFile);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * In-memory mirror of the parts of a RRD touched by each update: the header, the datasources and the
+ * archive states. It's used by {@link org.rrd4j.core.RrdDb} during an update when the backend doesn't allow
+ * caching, so that each primitive doesn't cost a round trip to the backend.
+ * <p>
+ * The mirror is made of windows, byte ranges of the backend. A window is read in a single operation the
+ * first time it's accessed during an update and the bytes changed are written back in a single operation
+ * by {@link #commit()}, which also forgets the content read, as the backend may be changed by someone else
+ * between two updates. Accesses outside of the windows, or from another thread than the updating one, go
+ * straight to the backend.
+ */
+final class RrdMirror extends RrdBackend {
+    private final RrdBackend backend;
+    private final long[] starts;
+    private final long[] ends;
+    private final ByteBuffer[] windows;
+    private final int[] dirtyLo;
+    private final int[] dirtyHi;
+    private volatile Thread owner;
+
+    /**
+     * @param backend the mirrored backend.
+     * @param ranges  pairs of start and end offsets of the windows; touching ranges are merged.
+     */
+    RrdMirror(RrdBackend backend, long[] ranges) {
+        super(backend.getPath());
+        this.backend = backend;
+        long[][] sorted = new long[ranges.length / 2][];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = new long[] {ranges[2 * i], ranges[2 * i + 1]};
+        }
+        Arrays.sort(sorted, new Comparator<long[]>() {
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        long[] mergedStarts = new long[sorted.length];
+        long[] mergedEnds = new long[sorted.length];
+        int count = 0;
+        for (long[] range : sorted) {
+            if (count > 0 && range[0] <= mergedEnds[count - 1]) {
+                mergedEnds[count - 1] = Math.max(mergedEnds[count - 1], range[1]);
+            }
+            else {
+                mergedStarts[count] = range[0];
+                mergedEnds[count] = range[1];
+                count++;
+            }
+        }
+        this.starts = Arrays.copyOf(mergedStarts, count);
+        this.ends = Arrays.copyOf(mergedEnds, count);
+        this.windows = new ByteBuffer[count];
+        this.dirtyLo = new int[count];
+        this.dirtyHi = new int[count];
+    }
+
+    /**
+     * Starts an update, the primitives accessed by the current thread go through the mirror.
+     */
+    void begin() {
+        owner = Thread.currentThread();
+    }
+
+    /**
+     * Ends an update, writes back the bytes changed and forgets the windows read.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error.
+     */
+    void commit() throws IOException {
+        owner = null;
+        try {
+            for (int i = 0; i < windows.length; i++) {
+                ByteBuffer window = windows[i];
+                if (window != null && dirtyLo[i] < dirtyHi[i]) {
+                    backend.write(starts[i] + dirtyLo[i], ByteBuffer.wrap(window.array(), dirtyLo[i], dirtyHi[i] - dirtyLo[i]));
+                }
+            }
+        }
+        finally {
+            // even if a write failed, the next update must read the backend again
+            Arrays.fill(windows, null);
+            Arrays.fill(dirtyLo, 0);
+            Arrays.fill(dirtyHi, 0);
+        }
+    }
+
+    boolean isActive() {
+        return owner == Thread.currentThread();
+    }
+
+    // returns the index of the window holding the given bytes, -1 if none
+    private int window(long offset, long length) {
+        int i = Arrays.binarySearch(starts, offset);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return i >= 0 && offset + length <= ends[i] ? i : -1;
+    }
+
+    private ByteBuffer load(int i) throws IOException {
+        ByteBuffer window = windows[i];
+        if (window == null) {
+            window = ByteBuffer.allocate((int) (ends[i] - starts[i]));
+            backend.read(starts[i], window);
+            window.clear();
+            windows[i] = window;
+            dirtyLo[i] = window.capacity();
+            dirtyHi[i] = 0;
+        }
+        return window;
+    }
+
+    private int position(int i, long offset) {
+        return (int) (offset - starts[i]);
+    }
+
+    private void dirty(int i, int position, int length) {
+        dirtyLo[i] = Math.min(dirtyLo[i], position);
+        dirtyHi[i] = Math.max(dirtyHi[i], position + length);
+    }
+
+    /** {@inheritDoc} */
+    protected void write(long offset, byte[] b) throws IOException {
+        write(offset, ByteBuffer.wrap(b));
+    }
+
+    /** {@inheritDoc} */
+    protected void read(long offset, byte[] b) throws IOException {
+        read(offset, ByteBuffer.wrap(b));
+    }
+
+    /** {@inheritDoc} */
+    protected void write(long offset, ByteBuffer src) throws IOException {
+        int i = window(offset, src.remaining());
+        if (i < 0) {
+            backend.write(offset, src);
+            return;
+        }
+        ByteBuffer window = load(i).duplicate();
+        int position = position(i, offset);
+        dirty(i, position, src.remaining());
+        window.position(position);
+        window.put(src);
+    }
+
+    /** {@inheritDoc} */
+    protected void read(long offset, ByteBuffer dst) throws IOException {
+        int i = window(offset, dst.remaining());
+        if (i < 0) {
+            backend.read(offset, dst);
+            return;
+        }
+        ByteBuffer window = load(i).duplicate();
+        int position = position(i, offset);
+        window.position(position);
+        window.limit(position + dst.remaining());
+        dst.put(window);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeInt(long offset, int value) throws IOException {
+        int i = window(offset, 4);
+        if (i < 0) {
+            backend.writeInt(offset, value);
+            return;
+        }
+        int position = position(i, offset);
+        load(i).putInt(position, value);
+        dirty(i, position, 4);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeLong(long offset, long value) throws IOException {
+        int i = window(offset, 8);
+        if (i < 0) {
+            backend.writeLong(offset, value);
+            return;
+        }
+        int position = position(i, offset);
+        load(i).putLong(position, value);
+        dirty(i, position, 8);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeDouble(long offset, double value) throws IOException {
+        int i = window(offset, 8);
+        if (i < 0) {
+            backend.writeDouble(offset, value);
+            return;
+        }
+        int position = position(i, offset);
+        load(i).putDouble(position, value);
+        dirty(i, position, 8);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeDouble(long offset, double value, int count) throws IOException {
+        int i = window(offset, 8L * count);
+        if (i < 0) {
+            backend.writeDouble(offset, value, count);
+            return;
+        }
+        ByteBuffer window = load(i);
+        int position = position(i, offset);
+        for (int c = 0; c < count; c++) {
+            window.putDouble(position + 8 * c, value);
+        }
+        dirty(i, position, 8 * count);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeDouble(long offset, double[] values) throws IOException {
+        int i = window(offset, 8L * values.length);
+        if (i < 0) {
+            backend.writeDouble(offset, values);
+            return;
+        }
+        ByteBuffer window = load(i);
+        int position = position(i, offset);
+        for (int c = 0; c < values.length; c++) {
+            window.putDouble(position + 8 * c, values[c]);
+        }
+        dirty(i, position, 8 * values.length);
+    }
+
+    /** {@inheritDoc} */
+    protected int readInt(long offset) throws IOException {
+        int i = window(offset, 4);
+        return i < 0 ? backend.readInt(offset) : load(i).getInt(position(i, offset));
+    }
+
+    /** {@inheritDoc} */
+    protected long readLong(long offset) throws IOException {
+        int i = window(offset, 8);
+        return i < 0 ? backend.readLong(offset) : load(i).getLong(position(i, offset));
+    }
+
+    /** {@inheritDoc} */
+    protected double readDouble(long offset) throws IOException {
+        int i = window(offset, 8);
+        return i < 0 ? backend.readDouble(offset) : load(i).getDouble(position(i, offset));
+    }
+
+    /** {@inheritDoc} */
+    protected void readDouble(long offset, double[] values) throws IOException {
+        int i = window(offset, 8L * values.length);
+        if (i < 0) {
+            backend.readDouble(offset, values);
+            return;
+        }
+        ByteBuffer window = load(i);
+        int position = position(i, offset);
+        for (int c = 0; c < values.length; c++) {
+            values[c] = window.getDouble(position + 8 * c);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public long getLength() throws IOException {
+        return backend.getLength();
+    }
+
+    /** {@inheritDoc} */
+    protected void setLength(long length) throws IOException {
+        backend.setLength(length);
+    }
+
+    /** {@inheritDoc} */
+    protected boolean isCachingAllowed() {
+        return false;
+    }
+}
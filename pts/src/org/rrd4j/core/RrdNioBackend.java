@@ -1,6 +1,7 @@
 package org.rrd4j.core;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.concurrent.ScheduledFuture;
@@ -11,11 +12,24 @@ import sun.nio.ch.DirectBuffer;
 /**
  * Backend which is used to store RRD data to ordinary disk files
  * using java.nio.* package. This is the default backend engine.
- *
+ * <p>
+ * Reads and writes only use absolute indexes or private duplicates of the mapped buffer,
+ * they never move the position of the shared buffer and don't take any lock, so concurrent
+ * readers proceed in parallel. Writes are not atomic with respect to concurrent reads: a
+ * reader may observe a partially written value set, and writes from another thread become
+ * visible only after a happens-before edge with the writer. Callers needing consistent
+ * snapshots must synchronize at a higher level, as {@link org.rrd4j.core.RrdDb} does.
+ * Mapping changes ({@link #setLength(long)} and {@link #close()}) must not run concurrently
+ * with reads or writes.
+ * <p>
+ * The file is mapped in segments of at most {@link org.rrd4j.core.RrdNioBackendFactory#getSegmentSize()}
+ * bytes, so RRD files can be larger than 2 GB. Reads and writes spanning two segments are split
+ * transparently.
  */
 @SuppressWarnings("restriction")
 public class RrdNioBackend extends RrdRandomAccessFileBackend {
-    private MappedByteBuffer byteBuffer;
+    private volatile MappedByteBuffer[] segments;
+    private final int segmentSize;
 
     private final Runnable syncRunnable = new Runnable() {
         public void run() {
@@ -35,7 +49,26 @@ public class RrdNioBackend extends RrdRandomAccessFileBackend {
      * @param threadPool a {@link org.rrd4j.core.RrdSyncThreadPool} object.
      */
     protected RrdNioBackend(String path, boolean readOnly, RrdSyncThreadPool threadPool, int syncPeriod) throws IOException {
+        this(path, readOnly, threadPool, syncPeriod, RrdNioBackendFactory.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates RrdFileBackend object for the given file path, backed by java.nio.* classes.
+     *
+     * @param path        Path to a file
+     * @param readOnly    True, if file should be open in a read-only mode. False otherwise
+     * @param threadPool  a {@link org.rrd4j.core.RrdSyncThreadPool} object.
+     * @param syncPeriod  See {@link org.rrd4j.core.RrdNioBackendFactory#setSyncPeriod(int)} for explanation
+     * @param segmentSize See {@link org.rrd4j.core.RrdNioBackendFactory#setSegmentSize(int)} for explanation
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected RrdNioBackend(String path, boolean readOnly, RrdSyncThreadPool threadPool, int syncPeriod, int segmentSize) throws IOException {
         super(path, readOnly);
+        if (segmentSize <= 0) {
+            super.close();
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
         try {
             mapFile();
         }
@@ -63,16 +96,30 @@ public class RrdNioBackend extends RrdRandomAccessFileBackend {
         if (length > 0) {
             FileChannel.MapMode mapMode =
                     readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
-            byteBuffer = rafile.getChannel().map(mapMode, 0, length);
+            FileChannel channel = rafile.getChannel();
+            MappedByteBuffer[] newSegments = new MappedByteBuffer[(int) ((length + segmentSize - 1) / segmentSize)];
+            for (int i = 0; i < newSegments.length; i++) {
+                long start = (long) i * segmentSize;
+                newSegments[i] = channel.map(mapMode, start, Math.min(segmentSize, length - start));
+            }
+            segments = newSegments;
         }
     }
 
     private void unmapFile() {
-        if (byteBuffer != null) {
-            if (byteBuffer instanceof DirectBuffer) {
-                ((DirectBuffer) byteBuffer).cleaner().clean();
+        MappedByteBuffer[] oldSegments = segments;
+        if (oldSegments != null) {
+            segments = null;
+            for (MappedByteBuffer segment : oldSegments) {
+                clean(segment);
             }
-            byteBuffer = null;
+        }
+    }
+
+    // releases the memory of a direct or mapped buffer, which must not be used anymore
+    static void clean(ByteBuffer buffer) {
+        if (buffer instanceof DirectBuffer) {
+            ((DirectBuffer) buffer).cleaner().clean();
         }
     }
 
@@ -95,14 +142,8 @@ public class RrdNioBackend extends RrdRandomAccessFileBackend {
      * @param b      Bytes to be written.
      * @throws java.io.IOException if any.
      */
-    protected synchronized void write(long offset, byte[] b) throws IOException {
-        if (byteBuffer != null) {
-            byteBuffer.position((int) offset);
-            byteBuffer.put(b);
-        }
-        else {
-            throw new IOException("Write failed, file " + getPath() + " not mapped for I/O");
-        }
+    protected void write(long offset, byte[] b) throws IOException {
+        write(offset, ByteBuffer.wrap(b));
     }
 
     /**
@@ -112,16 +153,181 @@ public class RrdNioBackend extends RrdRandomAccessFileBackend {
      * @param b      Buffer which receives bytes read from the file.
      * @throws java.io.IOException Thrown in case of I/O error.
      */
-    protected synchronized void read(long offset, byte[] b) throws IOException {
-        if (byteBuffer != null) {
-            byteBuffer.position((int) offset);
-            byteBuffer.get(b);
+    protected void read(long offset, byte[] b) throws IOException {
+        read(offset, ByteBuffer.wrap(b));
+    }
+
+    /** {@inheritDoc} */
+    protected void write(long offset, ByteBuffer src) throws IOException {
+        MappedByteBuffer[] segs = mapped("Write");
+        while (src.hasRemaining()) {
+            ByteBuffer dst = segs[segmentIndex(offset)].duplicate();
+            int start = segmentPosition(offset);
+            int count = checkCount("Write", offset, Math.min(src.remaining(), dst.limit() - start));
+            ByteBuffer chunk = src.duplicate();
+            chunk.limit(chunk.position() + count);
+            dst.position(start);
+            dst.put(chunk);
+            src.position(src.position() + count);
+            offset += count;
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected void read(long offset, ByteBuffer dst) throws IOException {
+        MappedByteBuffer[] segs = mapped("Read");
+        while (dst.hasRemaining()) {
+            ByteBuffer src = segs[segmentIndex(offset)].duplicate();
+            int start = segmentPosition(offset);
+            int count = checkCount("Read", offset, Math.min(dst.remaining(), src.limit() - start));
+            src.position(start);
+            src.limit(start + count);
+            dst.put(src);
+            offset += count;
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected void writeInt(long offset, int value) throws IOException {
+        ByteBuffer segment = segment(mapped("Write"), offset, 4);
+        if (segment != null) {
+            segment.putInt(segmentPosition(offset), value);
+        }
+        else {
+            super.writeInt(offset, value);
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected void writeLong(long offset, long value) throws IOException {
+        ByteBuffer segment = segment(mapped("Write"), offset, 8);
+        if (segment != null) {
+            segment.putLong(segmentPosition(offset), value);
+        }
+        else {
+            super.writeLong(offset, value);
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected void writeDouble(long offset, double value) throws IOException {
+        ByteBuffer segment = segment(mapped("Write"), offset, 8);
+        if (segment != null) {
+            segment.putDouble(segmentPosition(offset), value);
         }
         else {
-            throw new IOException("Read failed, file " + getPath() + " not mapped for I/O");
+            super.writeDouble(offset, value);
         }
     }
 
+    /** {@inheritDoc} */
+    protected void writeDouble(long offset, double value, int count) throws IOException {
+        MappedByteBuffer[] segs = mapped("Write");
+        int i = 0;
+        while (i < count) {
+            ByteBuffer segment = segs[segmentIndex(offset)];
+            int pos = segmentPosition(offset);
+            int end = i + Math.min(count - i, (segment.limit() - pos) / 8);
+            if (end == i) {
+                // this value is split between two segments
+                super.writeDouble(offset, value);
+                i++;
+                offset += 8;
+            }
+            for (; i < end; i++, pos += 8, offset += 8) {
+                segment.putDouble(pos, value);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected void writeDouble(long offset, double[] values) throws IOException {
+        MappedByteBuffer[] segs = mapped("Write");
+        int i = 0;
+        while (i < values.length) {
+            ByteBuffer segment = segs[segmentIndex(offset)];
+            int pos = segmentPosition(offset);
+            int end = i + Math.min(values.length - i, (segment.limit() - pos) / 8);
+            if (end == i) {
+                // this value is split between two segments
+                super.writeDouble(offset, values[i]);
+                i++;
+                offset += 8;
+            }
+            for (; i < end; i++, pos += 8, offset += 8) {
+                segment.putDouble(pos, values[i]);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected int readInt(long offset) throws IOException {
+        ByteBuffer segment = segment(mapped("Read"), offset, 4);
+        return segment != null ? segment.getInt(segmentPosition(offset)) : super.readInt(offset);
+    }
+
+    /** {@inheritDoc} */
+    protected long readLong(long offset) throws IOException {
+        ByteBuffer segment = segment(mapped("Read"), offset, 8);
+        return segment != null ? segment.getLong(segmentPosition(offset)) : super.readLong(offset);
+    }
+
+    /** {@inheritDoc} */
+    protected double readDouble(long offset) throws IOException {
+        ByteBuffer segment = segment(mapped("Read"), offset, 8);
+        return segment != null ? segment.getDouble(segmentPosition(offset)) : super.readDouble(offset);
+    }
+
+    /** {@inheritDoc} */
+    protected void readDouble(long offset, double[] values) throws IOException {
+        MappedByteBuffer[] segs = mapped("Read");
+        int i = 0;
+        while (i < values.length) {
+            ByteBuffer segment = segs[segmentIndex(offset)];
+            int pos = segmentPosition(offset);
+            int end = i + Math.min(values.length - i, (segment.limit() - pos) / 8);
+            if (end == i) {
+                // this value is split between two segments
+                values[i] = super.readDouble(offset);
+                i++;
+                offset += 8;
+            }
+            for (; i < end; i++, pos += 8, offset += 8) {
+                values[i] = segment.getDouble(pos);
+            }
+        }
+    }
+
+    // a single volatile read, the mapping can't change under the caller
+    private MappedByteBuffer[] mapped(String operation) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        if (segs == null) {
+            throw new IOException(operation + " failed, file " + getPath() + " not mapped for I/O");
+        }
+        return segs;
+    }
+
+    private int segmentIndex(long offset) {
+        return (int) (offset / segmentSize);
+    }
+
+    private int segmentPosition(long offset) {
+        return (int) (offset % segmentSize);
+    }
+
+    // the segment holding [offset, offset + size), or null if the range spans two segments
+    private ByteBuffer segment(MappedByteBuffer[] segs, long offset, int size) {
+        ByteBuffer segment = segs[segmentIndex(offset)];
+        return segmentPosition(offset) + size <= segment.limit() ? segment : null;
+    }
+
+    private int checkCount(String operation, long offset, int count) throws IOException {
+        if (count <= 0) {
+            throw new IOException(operation + " failed, offset " + offset + " beyond the end of file " + getPath());
+        }
+        return count;
+    }
+
     /**
      * Closes the underlying RRD file.
      *
@@ -146,8 +352,11 @@ public class RrdNioBackend extends RrdRandomAccessFileBackend {
      * to be stored in it.
      */
     protected synchronized void sync() {
-        if (byteBuffer != null) {
-            byteBuffer.force();
+        MappedByteBuffer[] segs = segments;
+        if (segs != null) {
+            for (MappedByteBuffer segment : segs) {
+                segment.force();
+            }
         }
     }
 }
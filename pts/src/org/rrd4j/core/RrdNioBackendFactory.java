@@ -31,6 +31,13 @@ public class RrdNioBackendFactory extends RrdFileBackendFactory {
 
     private static int syncPoolSize = DEFAULT_SYNC_CORE_POOL_SIZE;
 
+    /**
+     * Default size in bytes of a mapped file segment, 1 GB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private static int segmentSize = DEFAULT_SEGMENT_SIZE;
+
     /**
      * The thread pool to pass to newly-created RrdNioBackend instances.
      */
@@ -77,6 +84,30 @@ public class RrdNioBackendFactory extends RrdFileBackendFactory {
         RrdNioBackendFactory.syncPoolSize = syncPoolSize;
     }
 
+    /**
+     * Returns the maximum size of a single memory mapped segment of a RRD file. If not changed via
+     * {@link #setSegmentSize(int)} method call, defaults to {@link #DEFAULT_SEGMENT_SIZE}.
+     *
+     * @return Segment size in bytes.
+     */
+    public static int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Sets the maximum size of a single memory mapped segment of a RRD file. Files larger than
+     * this size are mapped in several segments, which lifts the 2 GB limit of a single mapping.
+     * It only applies to backends opened afterward.
+     *
+     * @param segmentSize Segment size in bytes, must be positive.
+     */
+    public static void setSegmentSize(int segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        RrdNioBackendFactory.segmentSize = segmentSize;
+    }
+
     /**
      * Creates a new RrdNioBackendFactory. One should call {@link #setSyncThreadPool(RrdSyncThreadPool syncThreadPool)}
      * or {@link #setSyncThreadPool(RrdSyncThreadPool syncThreadPool)} before the first call to
@@ -114,9 +145,9 @@ public class RrdNioBackendFactory extends RrdFileBackendFactory {
     protected RrdBackend open(String path, boolean readOnly) throws IOException {
         // Instantiate a thread pool if none was provided
         if(syncThreadPool == null) {
-            syncThreadPool = DefaultSyncThreadPool.INSTANCE;
+            syncThreadPool = getDefaultSyncThreadPool();
         }
-        return new RrdNioBackend(path, readOnly, syncThreadPool, syncPeriod);
+        return new RrdNioBackend(path, readOnly, syncThreadPool, syncPeriod, segmentSize);
     }
 
     /**
@@ -128,6 +159,14 @@ public class RrdNioBackendFactory extends RrdFileBackendFactory {
         return "NIO";
     }
 
+    /**
+     * Returns the lazily created thread pool shared by the factories of this package which are not
+     * given their own.
+     */
+    static RrdSyncThreadPool getDefaultSyncThreadPool() {
+        return DefaultSyncThreadPool.INSTANCE;
+    }
+
     /**
      * This is a holder class as per the "initialisation on demand" Java idiom. The only purpose of this holder class is
      * to ensure that the thread pool is created lazily the first time that it is needed, and not before.
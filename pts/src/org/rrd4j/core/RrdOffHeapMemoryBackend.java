@@ -0,0 +1,209 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Backend which stores all RRD bytes in a direct (off-heap) buffer. The buffer is
+ * released as soon as the last {@link org.rrd4j.core.RrdDb} using it is closed.
+ * <p>
+ * Reads and writes use absolute indexes on the buffer and take no lock, with the same
+ * visibility contract as {@link org.rrd4j.core.RrdNioBackend}: consistent snapshots
+ * need a higher level lock, as the one provided by {@link org.rrd4j.core.RrdDb}.
+ *
+ */
+public class RrdOffHeapMemoryBackend extends RrdBackend {
+    private final RrdOffHeapMemoryBackendFactory factory;
+    private volatile ByteBuffer buffer;
+    private int references = 0;
+
+    /**
+     * <p>Constructor for RrdOffHeapMemoryBackend.</p>
+     *
+     * @param path    a {@link java.lang.String} object.
+     * @param factory the factory accounting for the memory used by this backend.
+     */
+    protected RrdOffHeapMemoryBackend(String path, RrdOffHeapMemoryBackendFactory factory) {
+        super(path);
+        this.factory = factory;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reserves an off-heap memory section as a RRD storage.
+     */
+    protected synchronized void setLength(long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Illegal length: " + length);
+        }
+        ByteBuffer bb = buffer;
+        buffer = ByteBuffer.allocateDirect((int) length);
+        factory.allocated(length);
+        if (bb != null) {
+            factory.allocated(-bb.capacity());
+            // another RrdDb might still read the former buffer, the garbage collector will free it
+            if (references <= 1) {
+                RrdNioBackend.clean(bb);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of RRD bytes held in off-heap memory.
+     *
+     * @return Number of all RRD bytes.
+     */
+    public long getLength() {
+        ByteBuffer bb = buffer;
+        return bb != null ? bb.capacity() : 0;
+    }
+
+    /** {@inheritDoc} */
+    protected void write(long offset, byte[] b) throws IOException {
+        write(offset, ByteBuffer.wrap(b));
+    }
+
+    /** {@inheritDoc} */
+    protected void read(long offset, byte[] b) throws IOException {
+        read(offset, ByteBuffer.wrap(b));
+    }
+
+    /** {@inheritDoc} */
+    protected void write(long offset, ByteBuffer src) throws IOException {
+        ByteBuffer dst = allocated("Write").duplicate();
+        dst.position(checkRange(dst, offset, src.remaining()));
+        dst.put(src);
+    }
+
+    /** {@inheritDoc} */
+    protected void read(long offset, ByteBuffer dst) throws IOException {
+        ByteBuffer src = allocated("Read").duplicate();
+        int pos = checkRange(src, offset, dst.remaining());
+        src.position(pos);
+        src.limit(pos + dst.remaining());
+        dst.put(src);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeInt(long offset, int value) throws IOException {
+        ByteBuffer bb = allocated("Write");
+        bb.putInt(checkRange(bb, offset, 4), value);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeLong(long offset, long value) throws IOException {
+        ByteBuffer bb = allocated("Write");
+        bb.putLong(checkRange(bb, offset, 8), value);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeDouble(long offset, double value) throws IOException {
+        ByteBuffer bb = allocated("Write");
+        bb.putDouble(checkRange(bb, offset, 8), value);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeDouble(long offset, double value, int count) throws IOException {
+        ByteBuffer bb = allocated("Write");
+        int pos = checkRange(bb, offset, 8 * count);
+        for (int i = 0; i < count; i++, pos += 8) {
+            bb.putDouble(pos, value);
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected void writeDouble(long offset, double[] values) throws IOException {
+        ByteBuffer bb = allocated("Write");
+        int pos = checkRange(bb, offset, 8 * values.length);
+        for (int i = 0; i < values.length; i++, pos += 8) {
+            bb.putDouble(pos, values[i]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected int readInt(long offset) throws IOException {
+        ByteBuffer bb = allocated("Read");
+        return bb.getInt(checkRange(bb, offset, 4));
+    }
+
+    /** {@inheritDoc} */
+    protected long readLong(long offset) throws IOException {
+        ByteBuffer bb = allocated("Read");
+        return bb.getLong(checkRange(bb, offset, 8));
+    }
+
+    /** {@inheritDoc} */
+    protected double readDouble(long offset) throws IOException {
+        ByteBuffer bb = allocated("Read");
+        return bb.getDouble(checkRange(bb, offset, 8));
+    }
+
+    /** {@inheritDoc} */
+    protected void readDouble(long offset, double[] values) throws IOException {
+        ByteBuffer bb = allocated("Read");
+        int pos = checkRange(bb, offset, 8 * values.length);
+        for (int i = 0; i < values.length; i++, pos += 8) {
+            values[i] = bb.getDouble(pos);
+        }
+    }
+
+    // a single volatile read, the buffer can't change under the caller
+    private ByteBuffer allocated(String operation) throws IOException {
+        ByteBuffer bb = buffer;
+        if (bb == null) {
+            throw new IOException(operation + " failed, RRD " + getPath() + " has been released");
+        }
+        return bb;
+    }
+
+    private int checkRange(ByteBuffer bb, long offset, int length) throws IOException {
+        if (offset < 0 || offset + length > bb.capacity()) {
+            throw new IOException("Not enough bytes available in memory; RRD " + getPath());
+        }
+        return (int) offset;
+    }
+
+    synchronized void acquire() {
+        references++;
+    }
+
+    /**
+     * Closes this backend. The off-heap memory is released and the storage is forgotten by
+     * the factory once every {@link org.rrd4j.core.RrdDb} opened on it has been closed.
+     *
+     * @throws java.io.IOException if any.
+     */
+    public void close() throws IOException {
+        boolean release;
+        synchronized (this) {
+            release = references > 0 && --references == 0;
+        }
+        if (release) {
+            factory.release(this);
+        }
+    }
+
+    synchronized void free() {
+        ByteBuffer bb = buffer;
+        if (bb != null) {
+            buffer = null;
+            factory.allocated(-bb.capacity());
+            RrdNioBackend.clean(bb);
+        }
+    }
+
+    synchronized boolean isReferenced() {
+        return references > 0;
+    }
+
+    /**
+     * This method is overridden to disable high-level caching in frontend RRD4J classes.
+     *
+     * @return Always returns <code>false</code>. There is no need to cache anything in high-level classes
+     *         since all RRD bytes are already in memory.
+     */
+    protected boolean isCachingAllowed() {
+        return false;
+    }
+}
@@ -0,0 +1,89 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Factory class which creates actual {@link org.rrd4j.core.RrdOffHeapMemoryBackend} objects.
+ * Like the "MEMORY" factory, all RRD data is kept in memory, but outside of the Java heap, so a
+ * large number of in-memory RRDs doesn't weigh on the garbage collector.
+ * <p>
+ * Unlike the "MEMORY" factory, the memory is released deterministically: once every
+ * {@link org.rrd4j.core.RrdDb} opened on a storage has been closed, its memory is freed and the
+ * storage no longer exists. The total off-heap memory in use is reported by {@link #getMemoryUsage()}.
+ *
+ */
+public class RrdOffHeapMemoryBackendFactory extends RrdBackendFactory {
+    protected final Map<String, RrdOffHeapMemoryBackend> backends = new ConcurrentHashMap<String, RrdOffHeapMemoryBackend>();
+    private final AtomicLong memoryUsage = new AtomicLong();
+
+    /**
+     * {@inheritDoc}
+     *
+     * Creates RrdOffHeapMemoryBackend object.
+     */
+    protected synchronized RrdBackend open(String id, boolean readOnly) throws IOException {
+        RrdOffHeapMemoryBackend backend = backends.get(id);
+        if (backend == null) {
+            backend = new RrdOffHeapMemoryBackend(id, this);
+            backends.put(id, backend);
+        }
+        backend.acquire();
+        return backend;
+    }
+
+    synchronized void release(RrdOffHeapMemoryBackend backend) {
+        // it might have been opened again in the meantime
+        if (!backend.isReferenced()) {
+            backends.remove(backend.getPath());
+            backend.free();
+        }
+    }
+
+    void allocated(long bytes) {
+        memoryUsage.addAndGet(bytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Method to determine if a memory storage with the given ID already exists.
+     */
+    protected boolean exists(String id) {
+        return backends.containsKey(id);
+    }
+
+    /** {@inheritDoc} */
+    protected boolean shouldValidateHeader(String path) throws IOException {
+        return false;
+    }
+
+    /**
+     * Returns the number of off-heap bytes currently used by the storages of this factory.
+     *
+     * @return Off-heap memory usage in bytes.
+     */
+    public long getMemoryUsage() {
+        return memoryUsage.get();
+    }
+
+    /**
+     * Returns the number of storages currently held by this factory.
+     *
+     * @return Number of storages.
+     */
+    public int getStorageCount() {
+        return backends.size();
+    }
+
+    /**
+     * Returns the name of this factory.
+     *
+     * @return Factory name (equals to "OFFHEAP").
+     */
+    public String getName() {
+        return "OFFHEAP";
+    }
+}
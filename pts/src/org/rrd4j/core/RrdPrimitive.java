@@ -8,7 +8,7 @@ abstract class RrdPrimitive {
     static final int[] RRD_PRIM_SIZES = {4, 8, 8, 2 * STRING_LENGTH};
 
     private RrdBackend backend;
-    private int byteCount;
+    private long byteCount;
     private final long pointer;
     private final boolean cachingAllowed;
 
@@ -16,7 +16,7 @@ abstract class RrdPrimitive {
         this(updater, type, 1, isConstant);
     }
 
-    RrdPrimitive(RrdUpdater updater, int type, int count, boolean isConstant) throws IOException {
+    RrdPrimitive(RrdUpdater updater, int type, long count, boolean isConstant) throws IOException {
         this.backend = updater.getRrdBackend();
         this.byteCount = RRD_PRIM_SIZES[type] * count;
         this.pointer = updater.getRrdAllocator().allocate(byteCount);
@@ -24,71 +24,77 @@ abstract class RrdPrimitive {
     }
 
     final byte[] readBytes() throws IOException {
-        byte[] b = new byte[byteCount];
-        backend.read(pointer, b);
+        byte[] b = new byte[(int) byteCount];
+        backend().read(pointer, b);
         return b;
     }
 
     final void writeBytes(byte[] b) throws IOException {
         assert b.length == byteCount : "Invalid number of bytes supplied to RrdPrimitive.write method";
-        backend.write(pointer, b);
+        backend().write(pointer, b);
     }
 
     final int readInt() throws IOException {
-        return backend.readInt(pointer);
+        return backend().readInt(pointer);
     }
 
     final void writeInt(int value) throws IOException {
-        backend.writeInt(pointer, value);
+        backend().writeInt(pointer, value);
     }
 
     final long readLong() throws IOException {
-        return backend.readLong(pointer);
+        return backend().readLong(pointer);
     }
 
     final void writeLong(long value) throws IOException {
-        backend.writeLong(pointer, value);
+        backend().writeLong(pointer, value);
     }
 
     final double readDouble() throws IOException {
-        return backend.readDouble(pointer);
+        return backend().readDouble(pointer);
     }
 
-    final double readDouble(int index) throws IOException {
+    final double readDouble(long index) throws IOException {
         long offset = pointer + index * RRD_PRIM_SIZES[RRD_DOUBLE];
-        return backend.readDouble(offset);
+        return backend().readDouble(offset);
     }
 
-    final double[] readDouble(int index, int count) throws IOException {
+    final double[] readDouble(long index, int count) throws IOException {
         long offset = pointer + index * RRD_PRIM_SIZES[RRD_DOUBLE];
-        return backend.readDouble(offset, count);
+        return backend().readDouble(offset, count);
     }
 
     final void writeDouble(double value) throws IOException {
-        backend.writeDouble(pointer, value);
+        backend().writeDouble(pointer, value);
     }
 
-    final void writeDouble(int index,  double value) throws IOException {
+    final void writeDouble(long index, double value) throws IOException {
         long offset = pointer + index * RRD_PRIM_SIZES[RRD_DOUBLE];
-        backend.writeDouble(offset, value);
+        backend().writeDouble(offset, value);
     }
 
-    final void writeDouble(int index, double value, int count) throws IOException {
+    final void writeDouble(long index, double value, int count) throws IOException {
         long offset = pointer + index * RRD_PRIM_SIZES[RRD_DOUBLE];
-        backend.writeDouble(offset, value, count);
+        backend().writeDouble(offset, value, count);
     }
 
-    final void writeDouble(int index, double[] values) throws IOException {
+    final void writeDouble(long index, double[] values) throws IOException {
         long offset = pointer + index * RRD_PRIM_SIZES[RRD_DOUBLE];
-        backend.writeDouble(offset, values);
+        backend().writeDouble(offset, values);
     }
 
     final String readString() throws IOException {
-        return backend.readString(pointer);
+        return backend().readString(pointer);
     }
 
     final void writeString(String value) throws IOException {
-        backend.writeString(pointer, value);
+        backend().writeString(pointer, value);
+    }
+
+    // the mirror of the RRD while the current thread updates it, the backend otherwise
+    private RrdBackend backend() {
+        RrdMirror mirror = backend.mirror;
+        return mirror != null && mirror.isActive() ? mirror : backend;
     }
 
     final boolean isCachingAllowed() {
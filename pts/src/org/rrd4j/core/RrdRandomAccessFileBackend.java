@@ -43,8 +43,11 @@ public class RrdRandomAccessFileBackend extends  RrdFileBackend {
      * @throws java.io.IOException Thrown in case of I/O error
      */
     protected void write(long offset, byte[] b) throws IOException {
-        rafile.seek(offset);
-        rafile.write(b);
+        // the file pointer is shared by concurrent readers
+        synchronized (rafile) {
+            rafile.seek(offset);
+            rafile.write(b);
+        }
     }
 
     /**
@@ -55,12 +58,25 @@ public class RrdRandomAccessFileBackend extends  RrdFileBackend {
      * @throws java.io.IOException Thrown in case of I/O error.
      */
     protected void read(long offset, byte[] b) throws IOException {
-        rafile.seek(offset);
-        if (rafile.read(b) != b.length) {
+        int count;
+        synchronized (rafile) {
+            rafile.seek(offset);
+            count = rafile.read(b);
+        }
+        if (count != b.length) {
             throw new IOException("Not enough bytes available in file " + getPath());
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Forces the file content to the disk.
+     */
+    protected void sync() throws IOException {
+        rafile.getFD().sync();
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -21,6 +21,7 @@ import java.util.List;
  * <li>add archive to a RRD file.
  * <li>remove datasource from a RRD file.
  * <li>remove archive from a RRD file.
+ * <li>convert a RRD file to another file layout version.
  * </ul>
  *
  * All these operations can be performed on the copy of the original RRD file, or on the
@@ -564,6 +565,60 @@ public class RrdToolkit {
         copyFile(destPath, sourcePath, saveBackup);
     }
 
+    /**
+     * Creates a new RRD file based on the existing one, but using a different file layout
+     * version (see {@link org.rrd4j.core.RrdDef#setVersion(int)}). All data from the original
+     * RRD file is copied to the new one. Use it to convert version 1 or 2 files to the
+     * version 3 layout.
+     *
+     * @param sourcePath Path to the source RRD file (will not be modified)
+     * @param destPath   Path to the new RRD file (will be created)
+     * @param version    New RRD file version
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    public static void convertVersion(String sourcePath, String destPath, int version) throws IOException {
+        if (Util.sameFilePath(sourcePath, destPath)) {
+            throw new IllegalArgumentException(SOURCE_AND_DESTINATION_PATHS_ARE_THE_SAME);
+        }
+
+        RrdDb rrdSource = new RrdDb(sourcePath);
+        try {
+            RrdDef rrdDef = rrdSource.getRrdDef();
+            rrdDef.setVersion(version);
+            rrdDef.setPath(destPath);
+            RrdDb rrdDest = new RrdDb(rrdDef);
+            try {
+                rrdSource.copyStateTo(rrdDest);
+            } finally {
+                rrdDest.close();
+            }
+        } finally {
+            rrdSource.close();
+        }
+    }
+
+    /**
+     * <p>Converts existing RRD file to another file layout version.</p>
+     * <p>WARNING: This method is potentially dangerous! It will modify your RRD file.
+     * It is highly recommended to preserve the original RRD file (<i>saveBackup</i>
+     * should be set to <code>true</code>). The backup file will be created in the same
+     * directory as the original one with <code>.bak</code> extension added to the
+     * original name.</p>
+     * <p>Before applying this method, be sure that the specified RRD file is not in use
+     * (not open)</p>
+     *
+     * @param sourcePath Path to the RRD file (will be modified)
+     * @param version    New RRD file version
+     * @param saveBackup true, if backup of the original file should be created;
+     *                   false, otherwise
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    public static void convertVersion(String sourcePath, int version, boolean saveBackup) throws IOException {
+        String destPath = Util.getTmpFilename();
+        convertVersion(sourcePath, destPath, version);
+        copyFile(destPath, sourcePath, saveBackup);
+    }
+
     private static void deleteFile(File file) throws IOException {
         if (file.exists() && !file.delete()) {
             throw new IOException("Could not delete file: " + file.getCanonicalPath());
@@ -0,0 +1,592 @@
+package org.rrd4j.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous update engine in front of a {@link org.rrd4j.core.RrdDbPool}.
+ * <p>
+ * Instead of requesting a RrdDb from the pool, updating it and releasing it, producers submit
+ * (URI, timestamp, values) updates which are queued and applied later. Updates are spread over
+ * partitions by URI hash, each with its own bounded queue and a single writer thread. The writer
+ * drains its queue, keeps the RRDs it updates open and applies the updates of each RRD as one
+ * {@link org.rrd4j.core.RrdDb#storeBatch(long[], double[][])} call. As all the updates of a RRD go
+ * through the same writer, they are applied in submission order and never contend for the RrdDb lock.
+ * <p>
+ * When a queue is full, the behavior depends on the {@link OverflowPolicy} of the engine. An update
+ * which can't be applied (unknown RRD, time not after the last update, wrong number of values, I/O
+ * error) is counted as failed and dropped, see {@link #getFailedCount(int)} and {@link #getLastFailure()}.
+ * <p>
+ * {@link #flush()} waits for the updates submitted before the call to be processed, {@link #close()}
+ * also waits for the queues to drain, stops the writers and releases the RRDs to the pool.
+ *
+ */
+public class RrdUpdateEngine implements Closeable {
+    /**
+     * What to do with a new update when the queue of its partition is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The submitting thread waits for room in the queue.
+         */
+        BLOCK,
+        /**
+         * The oldest update of the queue is dropped to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * The new update is refused, {@link #submit(URI, long, double...)} returns false.
+         */
+        REJECT
+    }
+
+    /**
+     * Default capacity of the queue of a partition, 10000 updates.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private static final class Update {
+        final URI uri;
+        final long time;
+        final double[] values;
+        final long submitTime;
+        long sequence;
+
+        Update(URI uri, long time, double[] values) {
+            this.uri = uri;
+            this.time = time;
+            this.values = values;
+            this.submitTime = System.nanoTime();
+        }
+    }
+
+    private final RrdDbPool pool;
+    private final OverflowPolicy policy;
+    private final int queueCapacity;
+    private final int maxOpenFiles;
+    private final Partition[] partitions;
+    private volatile boolean closed = false;
+    private volatile Exception lastFailure;
+
+    /**
+     * Creates an engine with one partition per available processor, queues of
+     * {@link #DEFAULT_QUEUE_CAPACITY} updates and the {@link OverflowPolicy#BLOCK} policy, keeping
+     * at most half the capacity of the pool open.
+     *
+     * @param pool the pool the RRDs are requested from.
+     */
+    public RrdUpdateEngine(RrdDbPool pool) {
+        this(pool, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK,
+                Math.max(1, pool.getCapacity() / 2));
+    }
+
+    /**
+     * Creates an engine and starts its writer threads.
+     *
+     * @param pool           the pool the RRDs are requested from.
+     * @param partitionCount number of partitions, i.e. of writer threads.
+     * @param queueCapacity  maximum number of updates waiting in the queue of a partition.
+     * @param policy         what to do when a queue is full.
+     * @param maxOpenFiles   maximum number of RRDs kept open by the engine, shared between the partitions.
+     *                       It should stay below the capacity of the pool, or writers could wait for each other.
+     */
+    public RrdUpdateEngine(RrdDbPool pool, int partitionCount, int queueCapacity, OverflowPolicy policy, int maxOpenFiles) {
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        if (partitionCount <= 0) {
+            throw new IllegalArgumentException("Invalid partition count: " + partitionCount);
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid queue capacity: " + queueCapacity);
+        }
+        if (maxOpenFiles < partitionCount) {
+            throw new IllegalArgumentException("At least one open file per partition is needed, got " + maxOpenFiles);
+        }
+        this.pool = pool;
+        this.policy = policy;
+        this.queueCapacity = queueCapacity;
+        this.maxOpenFiles = maxOpenFiles;
+        this.partitions = new Partition[partitionCount];
+        RrdSyncThreadPool.DaemonThreadFactory threadFactory = new RrdSyncThreadPool.DaemonThreadFactory("RRD4J Update-Engine for " + this);
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(maxOpenFiles / partitionCount);
+            partitions[i].writer = threadFactory.newThread(partitions[i]);
+        }
+        for (Partition partition : partitions) {
+            partition.writer.start();
+        }
+    }
+
+    /**
+     * Submits an update of the RRD with the given path, which is transformed to URI using the default factory.
+     *
+     * @param path   path of an existing RRD.
+     * @param time   timestamp of the update, in seconds.
+     * @param values one value per datasource of the RRD.
+     * @return true if the update was queued, false if it was rejected.
+     * @throws java.lang.IllegalStateException Thrown if the engine is closed.
+     */
+    public boolean submit(String path, long time, double... values) {
+        return submit(RrdBackendFactory.getDefaultFactory().getUri(path), time, values);
+    }
+
+    /**
+     * Submits an update of the RRD with the given URI. The values are copied.
+     *
+     * @param uri    URI of an existing RRD, as used by {@link org.rrd4j.core.RrdDbPool#requestRrdDb(URI)}.
+     * @param time   timestamp of the update, in seconds.
+     * @param values one value per datasource of the RRD.
+     * @return true if the update was queued, false if it was rejected because of the
+     *         {@link OverflowPolicy#REJECT} policy.
+     * @throws java.lang.IllegalStateException Thrown if the engine is closed.
+     */
+    public boolean submit(URI uri, long time, double... values) {
+        if (uri == null) {
+            throw new NullPointerException("uri");
+        }
+        try {
+            return partitions[getPartition(uri)].offer(new Update(uri, time, values.clone()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("submit interrupted for " + uri, e);
+        }
+    }
+
+    /**
+     * Waits for all the updates submitted before this call to be applied, dropped or failed.
+     */
+    public void flush() {
+        try {
+            for (Partition partition : partitions) {
+                partition.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("flush interrupted", e);
+        }
+    }
+
+    /**
+     * Stops accepting updates, waits for the queued ones to be processed and releases the RRDs
+     * kept open. Has no effect if the engine is already closed.
+     *
+     * @throws java.io.IOException Thrown if a RRD couldn't be released, see {@link #getLastFailure()}.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Partition partition : partitions) {
+            partition.stop();
+        }
+        try {
+            for (Partition partition : partitions) {
+                partition.writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("close interrupted", e);
+        }
+        boolean releaseFailed = false;
+        for (Partition partition : partitions) {
+            releaseFailed |= partition.releaseFailed;
+        }
+        if (releaseFailed) {
+            throw new IOException("Could not release all the RRDs", lastFailure);
+        }
+    }
+
+    /**
+     * Checks if the engine was closed.
+     *
+     * @return true if {@link #close()} was called.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the overflow policy of this engine.
+     *
+     * @return the policy applied when a queue is full.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the capacity of the queue of a partition.
+     *
+     * @return maximum number of updates waiting in a partition.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Returns the maximum number of RRDs kept open by this engine.
+     *
+     * @return maximum number of open RRDs, for all partitions.
+     */
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    /**
+     * Returns the number of partitions, each one having its writer thread.
+     *
+     * @return Number of partitions.
+     */
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * Returns the partition the updates of a RRD go to.
+     *
+     * @param uri URI of the RRD.
+     * @return index of the partition.
+     */
+    public int getPartition(URI uri) {
+        return (uri.hashCode() & Integer.MAX_VALUE) % partitions.length;
+    }
+
+    /**
+     * Returns the number of updates currently waiting in the queue of a partition.
+     *
+     * @param partition index of the partition.
+     * @return Queue depth.
+     */
+    public int getQueueDepth(int partition) {
+        return partitions[partition].depth();
+    }
+
+    /**
+     * Returns the number of updates accepted by a partition.
+     *
+     * @param partition index of the partition.
+     * @return Number of updates queued.
+     */
+    public long getSubmittedCount(int partition) {
+        return partitions[partition].submitted.get();
+    }
+
+    /**
+     * Returns the number of updates applied by a partition.
+     *
+     * @param partition index of the partition.
+     * @return Number of updates stored in their RRD.
+     */
+    public long getAppliedCount(int partition) {
+        return partitions[partition].applied.get();
+    }
+
+    /**
+     * Returns the number of updates a partition dropped to make room, with the
+     * {@link OverflowPolicy#DROP_OLDEST} policy.
+     *
+     * @param partition index of the partition.
+     * @return Number of updates dropped.
+     */
+    public long getDroppedCount(int partition) {
+        return partitions[partition].dropped.get();
+    }
+
+    /**
+     * Returns the number of updates a partition refused, with the {@link OverflowPolicy#REJECT} policy.
+     *
+     * @param partition index of the partition.
+     * @return Number of updates rejected.
+     */
+    public long getRejectedCount(int partition) {
+        return partitions[partition].rejected.get();
+    }
+
+    /**
+     * Returns the number of updates of a partition which couldn't be applied.
+     *
+     * @param partition index of the partition.
+     * @return Number of updates failed.
+     */
+    public long getFailedCount(int partition) {
+        return partitions[partition].failed.get();
+    }
+
+    /**
+     * Returns the cumulated time between the submission and the storage of the updates applied by a
+     * partition, divide it by {@link #getAppliedCount(int)} for the mean latency.
+     *
+     * @param partition index of the partition.
+     * @return Time in nanoseconds.
+     */
+    public long getLatencyTime(int partition) {
+        return partitions[partition].latencyTime.get();
+    }
+
+    /**
+     * Returns the longest time between the submission and the storage of an update applied by a partition.
+     *
+     * @param partition index of the partition.
+     * @return Time in nanoseconds.
+     */
+    public long getMaxLatency(int partition) {
+        return partitions[partition].maxLatency.get();
+    }
+
+    /**
+     * Returns the last exception which made updates fail, if any.
+     *
+     * @return the last failure, or null.
+     */
+    public Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * A queue and its writer. The updates are numbered in the order they are queued; an update
+     * is processed once it has left the queue and isn't part of the batch being applied.
+     */
+    private final class Partition implements Runnable {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final Condition processed = lock.newCondition();
+        private final ArrayDeque<Update> queue = new ArrayDeque<Update>();
+        // sequence of the first update of the batch being applied
+        private long batchStart = Long.MAX_VALUE;
+        private boolean stopping = false;
+
+        // only used by the writer thread
+        private final Map<URI, RrdDb> openRrds = new LinkedHashMap<URI, RrdDb>(16, 0.75f, true);
+        private final int maxOpenRrds;
+        private boolean releaseFailed = false;
+        private Thread writer;
+
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong applied = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong latencyTime = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+
+        Partition(int maxOpenRrds) {
+            this.maxOpenRrds = maxOpenRrds;
+        }
+
+        boolean offer(Update update) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (true) {
+                    if (stopping) {
+                        throw new IllegalStateException("Update engine closed, cannot accept updates");
+                    }
+                    if (queue.size() < queueCapacity) {
+                        break;
+                    }
+                    switch (policy) {
+                    case BLOCK:
+                        notFull.await();
+                        break;
+                    case DROP_OLDEST:
+                        queue.pollFirst();
+                        dropped.incrementAndGet();
+                        processed.signalAll();
+                        break;
+                    case REJECT:
+                        rejected.incrementAndGet();
+                        return false;
+                    }
+                }
+                update.sequence = submitted.incrementAndGet();
+                queue.addLast(update);
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void await() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                long target = submitted.get();
+                while (batchStart <= target || (!queue.isEmpty() && queue.peekFirst().sequence <= target)) {
+                    processed.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void stop() {
+            lock.lock();
+            try {
+                stopping = true;
+                notEmpty.signal();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int depth() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void run() {
+            List<Update> batch = new ArrayList<Update>();
+            boolean running = true;
+            while (running) {
+                lock.lock();
+                try {
+                    while (queue.isEmpty() && !stopping) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    if (queue.isEmpty()) {
+                        running = false;
+                    }
+                    else {
+                        batchStart = queue.peekFirst().sequence;
+                        batch.addAll(queue);
+                        queue.clear();
+                        notFull.signalAll();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (running) {
+                    apply(batch);
+                    batch.clear();
+                    lock.lock();
+                    try {
+                        batchStart = Long.MAX_VALUE;
+                        processed.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+            for (RrdDb rrdDb : openRrds.values()) {
+                release(rrdDb);
+            }
+            openRrds.clear();
+        }
+
+        private void apply(List<Update> batch) {
+            // group the updates by RRD, keeping their order
+            Map<URI, List<Update>> updatesByRrd = new LinkedHashMap<URI, List<Update>>();
+            for (Update update : batch) {
+                List<Update> updates = updatesByRrd.get(update.uri);
+                if (updates == null) {
+                    updates = new ArrayList<Update>();
+                    updatesByRrd.put(update.uri, updates);
+                }
+                updates.add(update);
+            }
+            for (Map.Entry<URI, List<Update>> e : updatesByRrd.entrySet()) {
+                apply(e.getKey(), e.getValue());
+            }
+        }
+
+        private void apply(URI uri, List<Update> updates) {
+            RrdDb rrdDb = null;
+            int invalid = 0;
+            int count = 0;
+            long[] times = new long[updates.size()];
+            double[][] values = new double[updates.size()][];
+            long[] submitTimes = new long[updates.size()];
+            try {
+                rrdDb = open(uri);
+                long lastTime = rrdDb.getLastUpdateTime();
+                int dsCount = rrdDb.getDsCount();
+                for (Update update : updates) {
+                    if (update.time <= lastTime || update.values.length != dsCount) {
+                        invalid++;
+                        lastFailure = new IllegalArgumentException("Invalid update of " + uri + " at " + update.time);
+                        continue;
+                    }
+                    times[count] = update.time;
+                    values[count] = update.values;
+                    submitTimes[count] = update.submitTime;
+                    lastTime = update.time;
+                    count++;
+                }
+                if (count < times.length) {
+                    long[] validTimes = new long[count];
+                    double[][] validValues = new double[count][];
+                    System.arraycopy(times, 0, validTimes, 0, count);
+                    System.arraycopy(values, 0, validValues, 0, count);
+                    times = validTimes;
+                    values = validValues;
+                }
+                rrdDb.storeBatch(times, values);
+            } catch (Exception e) {
+                // the RRD might be in a bad state, it will be opened again
+                failed.addAndGet(updates.size());
+                lastFailure = e;
+                if (rrdDb != null) {
+                    openRrds.remove(uri);
+                    release(rrdDb);
+                }
+                return;
+            }
+            failed.addAndGet(invalid);
+            applied.addAndGet(count);
+            long now = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                long latency = now - submitTimes[i];
+                latencyTime.addAndGet(latency);
+                long max;
+                while (latency > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latency)) {
+                    // retry
+                }
+            }
+        }
+
+        private RrdDb open(URI uri) throws IOException {
+            RrdDb rrdDb = openRrds.get(uri);
+            if (rrdDb == null) {
+                // make room first, the pool might be full
+                if (openRrds.size() >= maxOpenRrds) {
+                    Iterator<RrdDb> eldest = openRrds.values().iterator();
+                    RrdDb evicted = eldest.next();
+                    eldest.remove();
+                    release(evicted);
+                }
+                rrdDb = pool.requestRrdDb(uri);
+                openRrds.put(uri, rrdDb);
+            }
+            return rrdDb;
+        }
+
+        private void release(RrdDb rrdDb) {
+            try {
+                pool.release(rrdDb);
+            } catch (Exception e) {
+                releaseFailed = true;
+                lastFailure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backend which keeps the writes to another backend in an in-memory page cache and writes them
+ * back later, see {@link org.rrd4j.core.RrdWriteBackBackendFactory}.
+ * <p>
+ * Only dirty pages are cached, and only their dirty range is written back, so a write never needs
+ * to read the underlying storage first, unless it leaves a hole in the dirty range of a page. Reads
+ * are served from the underlying storage, overlaid with the dirty pages.
+ *
+ */
+public class RrdWriteBackBackend extends RrdBackend {
+    // a run of dirty pages is split in writes of about this size
+    private static final int MAX_RUN_LENGTH = 1 << 20;
+
+    private final RrdBackend backend;
+    private final RrdWriteBackBackendFactory factory;
+    private final boolean readOnly;
+    private final int pageSize;
+    private final TreeMap<Long, Page> dirtyPages = new TreeMap<Long, Page>();
+    private long length;
+
+    private final Runnable flushRunnable = new Runnable() {
+        public void run() {
+            try {
+                flush();
+            }
+            catch (IOException e) {
+                // pages stay dirty, the next flush will try again
+            }
+        }
+    };
+
+    private ScheduledFuture<?> flushRunnableHandle = null;
+
+    /**
+     * A page of the underlying storage, only the bytes in [lo, hi) are meaningful.
+     */
+    private static final class Page {
+        final byte[] data;
+        int lo;
+        int hi;
+
+        Page(int size) {
+            this.data = new byte[size];
+        }
+    }
+
+    /**
+     * Creates a write-back backend on top of the given backend.
+     *
+     * @param backend     the backend actually storing the RRD.
+     * @param readOnly    True, if the RRD is open in a read-only mode, no page is then cached.
+     * @param factory     the factory accounting for the dirty pages of this backend.
+     * @param threadPool  a {@link org.rrd4j.core.RrdSyncThreadPool} object.
+     * @param flushPeriod See {@link org.rrd4j.core.RrdWriteBackBackendFactory#setFlushPeriod(int)} for explanation
+     * @param pageSize    See {@link org.rrd4j.core.RrdWriteBackBackendFactory#setPageSize(int)} for explanation
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    protected RrdWriteBackBackend(RrdBackend backend, boolean readOnly, RrdWriteBackBackendFactory factory,
+            RrdSyncThreadPool threadPool, int flushPeriod, int pageSize) throws IOException {
+        super(backend.getPath());
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+        this.backend = backend;
+        this.readOnly = readOnly;
+        this.factory = factory;
+        this.pageSize = pageSize;
+        this.length = backend.getLength();
+        if (!readOnly) {
+            flushRunnableHandle = threadPool.scheduleWithFixedDelay(flushRunnable, flushPeriod, flushPeriod, TimeUnit.SECONDS);
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected void write(long offset, byte[] b) throws IOException {
+        write(offset, ByteBuffer.wrap(b));
+    }
+
+    /** {@inheritDoc} */
+    protected void read(long offset, byte[] b) throws IOException {
+        read(offset, ByteBuffer.wrap(b));
+    }
+
+    /** {@inheritDoc} */
+    protected void write(long offset, ByteBuffer src) throws IOException {
+        if (readOnly) {
+            backend.write(offset, src);
+            return;
+        }
+        boolean overBound;
+        synchronized (this) {
+            while (src.hasRemaining()) {
+                long index = offset / pageSize;
+                int lo = (int) (offset - index * pageSize);
+                int hi = lo + Math.min(src.remaining(), pageSize - lo);
+                Page page = dirtyPage(index, lo, hi);
+                src.get(page.data, lo, hi - lo);
+                offset += hi - lo;
+            }
+            overBound = factory.isOverDirtyBound();
+        }
+        if (overBound) {
+            flush();
+        }
+    }
+
+    // Returns the page, extended to cover [lo, hi). A hole between the old dirty range and the
+    // new one is filled from the underlying storage.
+    private Page dirtyPage(long index, int lo, int hi) throws IOException {
+        long pageOffset = index * pageSize;
+        Page page = dirtyPages.get(index);
+        if (page == null) {
+            page = new Page(pageSize);
+            page.lo = lo;
+            page.hi = hi;
+            dirtyPages.put(index, page);
+            factory.dirtied(pageSize);
+            return page;
+        }
+        if (hi < page.lo) {
+            backend.read(pageOffset + hi, ByteBuffer.wrap(page.data, hi, page.lo - hi));
+        }
+        else if (lo > page.hi) {
+            backend.read(pageOffset + page.hi, ByteBuffer.wrap(page.data, page.hi, lo - page.hi));
+        }
+        page.lo = Math.min(page.lo, lo);
+        page.hi = Math.max(page.hi, hi);
+        return page;
+    }
+
+    /** {@inheritDoc} */
+    protected synchronized void read(long offset, ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        int count = dst.remaining();
+        if (dirtyPages.isEmpty() || !isCovered(offset, count)) {
+            backend.read(offset, dst.duplicate());
+        }
+        long end = offset + count;
+        for (long index = offset / pageSize; index * pageSize < end; index++) {
+            Page page = dirtyPages.get(index);
+            if (page != null) {
+                long pageOffset = index * pageSize;
+                long from = Math.max(offset, pageOffset + page.lo);
+                long to = Math.min(end, pageOffset + page.hi);
+                if (from < to) {
+                    ByteBuffer bb = dst.duplicate();
+                    bb.position(start + (int) (from - offset));
+                    bb.put(page.data, (int) (from - pageOffset), (int) (to - from));
+                }
+            }
+        }
+        dst.position(start + count);
+    }
+
+    private boolean isCovered(long offset, int count) {
+        long end = offset + count;
+        for (long index = offset / pageSize; index * pageSize < end; index++) {
+            Page page = dirtyPages.get(index);
+            long pageOffset = index * pageSize;
+            if (page == null || pageOffset + page.lo > Math.max(offset, pageOffset) || pageOffset + page.hi < Math.min(end, pageOffset + pageSize)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the dirty pages back to the underlying storage. Consecutive pages whose dirty ranges
+     * touch are written with a single write.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error, the pages not written yet stay dirty.
+     */
+    public synchronized void flush() throws IOException {
+        if (dirtyPages.isEmpty()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        long writes = 0;
+        long bytes = 0;
+        try {
+            while (!dirtyPages.isEmpty()) {
+                long firstIndex = dirtyPages.firstKey();
+                Page first = dirtyPages.get(firstIndex);
+                // extend the run while the next page follows without a gap
+                int pages = 1;
+                int runLength = first.hi - first.lo;
+                Page last = first;
+                Page following;
+                while (last.hi == pageSize && runLength < MAX_RUN_LENGTH && (following = dirtyPages.get(firstIndex + pages)) != null && following.lo == 0) {
+                    last = following;
+                    runLength += last.hi;
+                    pages++;
+                }
+                ByteBuffer run;
+                if (pages == 1) {
+                    run = ByteBuffer.wrap(first.data, first.lo, runLength);
+                }
+                else {
+                    run = ByteBuffer.allocate(runLength);
+                    for (long index = firstIndex; index < firstIndex + pages; index++) {
+                        Page page = dirtyPages.get(index);
+                        run.put(page.data, page.lo, page.hi - page.lo);
+                    }
+                    run.flip();
+                }
+                backend.write(firstIndex * pageSize + first.lo, run);
+                for (long index = firstIndex; index < firstIndex + pages; index++) {
+                    dirtyPages.remove(index);
+                }
+                factory.dirtied(-(long) pages * pageSize);
+                writes++;
+                bytes += runLength;
+            }
+        }
+        finally {
+            if (writes > 0) {
+                factory.flushed(writes, bytes, System.nanoTime() - startTime);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Writes the dirty pages back, then syncs the underlying backend.
+     */
+    protected synchronized void sync() throws IOException {
+        flush();
+        backend.sync();
+    }
+
+    /**
+     * Returns the number of RRD bytes in the underlying storage.
+     *
+     * @return Number of RRD bytes in the storage.
+     * @throws java.io.IOException Thrown in case of I/O error.
+     */
+    public synchronized long getLength() throws IOException {
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Sets the length of the underlying storage, the dirty pages are written back first.
+     */
+    protected synchronized void setLength(long length) throws IOException {
+        flush();
+        backend.setLength(length);
+        this.length = length;
+    }
+
+    /**
+     * Writes the dirty pages back and closes the underlying backend.
+     *
+     * @throws java.io.IOException Thrown in case of I/O error.
+     */
+    public synchronized void close() throws IOException {
+        try {
+            if (!readOnly) {
+                flushRunnableHandle.cancel(false);
+                flush();
+            }
+        }
+        finally {
+            backend.close();
+        }
+    }
+
+    /**
+     * Follows the caching policy of the underlying backend.
+     *
+     * @return the value returned by the underlying backend.
+     */
+    protected boolean isCachingAllowed() {
+        return backend.isCachingAllowed();
+    }
+}
@@ -0,0 +1,324 @@
+package org.rrd4j.core;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Factory class which creates actual {@link org.rrd4j.core.RrdWriteBackBackend} objects. It decorates
+ * another factory, by default the "FILE" factory, and keeps the writes in an in-memory page cache
+ * instead of sending each of them to the underlying storage.
+ * <p>
+ * Dirty pages are written back, adjacent pages being coalesced in a single write, when:
+ * <ul>
+ * <li>the flush period elapses, see {@link #setFlushPeriod(int)};
+ * <li>the RRD is closed;
+ * <li>the memory used by dirty pages of this factory exceeds {@link #setMaxDirtyBytes(long)}; the writer
+ * then flushes its own RRD before returning.
+ * </ul>
+ * Writes done since the last flush are lost if the JVM crashes, so the flush period is also the
+ * durability interval. It's the model of rrdcached, without the daemon.
+ * <h3>Managing the thread pool</h3>
+ * As {@link org.rrd4j.core.RrdNioBackendFactory}, the periodic flushes run on a
+ * {@link org.rrd4j.core.RrdSyncThreadPool}, which should be provided with
+ * {@link #setSyncThreadPool(RrdSyncThreadPool)} and shut down by the application.
+ *
+ */
+public class RrdWriteBackBackendFactory extends RrdBackendFactory {
+    /**
+     * Default period in seconds between two flushes of the dirty pages of a RRD, 60 seconds.
+     */
+    public static final int DEFAULT_FLUSH_PERIOD = 60;
+
+    /**
+     * Default bound of the memory used by dirty pages, 64 MB.
+     */
+    public static final long DEFAULT_MAX_DIRTY_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Default size in bytes of a cached page, 4 KB.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    private final RrdBackendFactory delegate;
+    private int flushPeriod = DEFAULT_FLUSH_PERIOD;
+    private long maxDirtyBytes = DEFAULT_MAX_DIRTY_BYTES;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private RrdSyncThreadPool syncThreadPool;
+
+    private final AtomicLong dirtyBytes = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushWriteCount = new AtomicLong();
+    private final AtomicLong flushedBytes = new AtomicLong();
+    private final AtomicLong flushTime = new AtomicLong();
+    private final AtomicLong maxFlushTime = new AtomicLong();
+
+    /**
+     * Creates a write-back factory on top of a new "FILE" factory.
+     */
+    public RrdWriteBackBackendFactory() {
+        this(new RrdRandomAccessFileBackendFactory());
+    }
+
+    /**
+     * Creates a write-back factory on top of the given factory.
+     *
+     * @param delegate the factory creating the backends actually storing the RRD.
+     */
+    public RrdWriteBackBackendFactory(RrdBackendFactory delegate) {
+        if (delegate == null) {
+            throw new NullPointerException("delegate");
+        }
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the decorated factory.
+     *
+     * @return the factory creating the backends actually storing the RRD.
+     */
+    public RrdBackendFactory getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns the time between two flushes of a RRD. If not changed via {@link #setFlushPeriod(int)}
+     * method call, defaults to {@link #DEFAULT_FLUSH_PERIOD}.
+     *
+     * @return Time in seconds between two flushes.
+     */
+    public int getFlushPeriod() {
+        return flushPeriod;
+    }
+
+    /**
+     * Sets the time between two flushes of a RRD, which bounds the updates lost on a crash. It only
+     * applies to backends opened afterward.
+     *
+     * @param flushPeriod Time in seconds between two flushes, must be positive.
+     */
+    public void setFlushPeriod(int flushPeriod) {
+        if (flushPeriod <= 0) {
+            throw new IllegalArgumentException("Invalid flush period: " + flushPeriod);
+        }
+        this.flushPeriod = flushPeriod;
+    }
+
+    /**
+     * Returns the bound of the memory used by dirty pages. If not changed via
+     * {@link #setMaxDirtyBytes(long)} method call, defaults to {@link #DEFAULT_MAX_DIRTY_BYTES}.
+     *
+     * @return Maximum number of bytes held in dirty pages.
+     */
+    public long getMaxDirtyBytes() {
+        return maxDirtyBytes;
+    }
+
+    /**
+     * Sets the bound of the memory used by the dirty pages of all the RRD opened by this factory.
+     * A write exceeding it flushes the RRD written to before returning.
+     *
+     * @param maxDirtyBytes Maximum number of bytes held in dirty pages, must be positive.
+     */
+    public void setMaxDirtyBytes(long maxDirtyBytes) {
+        if (maxDirtyBytes <= 0) {
+            throw new IllegalArgumentException("Invalid dirty bytes bound: " + maxDirtyBytes);
+        }
+        this.maxDirtyBytes = maxDirtyBytes;
+    }
+
+    /**
+     * Returns the size of a cached page. If not changed via {@link #setPageSize(int)} method call,
+     * defaults to {@link #DEFAULT_PAGE_SIZE}.
+     *
+     * @return Page size in bytes.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets the size of a cached page. It only applies to backends opened afterward.
+     *
+     * @param pageSize Page size in bytes, must be positive.
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * <p>Setter for the field <code>syncThreadPool</code>.</p>
+     *
+     * @param syncThreadPool the RrdSyncThreadPool to use to flush the dirty pages.
+     */
+    public void setSyncThreadPool(RrdSyncThreadPool syncThreadPool) {
+        this.syncThreadPool = syncThreadPool;
+    }
+
+    /**
+     * <p>Setter for the field <code>syncThreadPool</code>.</p>
+     *
+     * @param syncThreadPool the ScheduledExecutorService that will back the RrdSyncThreadPool used to flush the dirty pages.
+     */
+    public void setSyncThreadPool(ScheduledExecutorService syncThreadPool) {
+        this.syncThreadPool = new RrdSyncThreadPool(syncThreadPool);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Creates RrdWriteBackBackend object on top of a backend of the decorated factory.
+     */
+    protected RrdBackend open(String path, boolean readOnly) throws IOException {
+        return decorate(delegate.open(path, readOnly), readOnly);
+    }
+
+    /** {@inheritDoc} */
+    protected RrdBackend open(URI uri, boolean readOnly) throws IOException {
+        return decorate(delegate.open(uri, readOnly), readOnly);
+    }
+
+    private RrdBackend decorate(RrdBackend backend, boolean readOnly) throws IOException {
+        backend.setFactory(delegate);
+        if (syncThreadPool == null) {
+            syncThreadPool = RrdNioBackendFactory.getDefaultSyncThreadPool();
+        }
+        try {
+            return new RrdWriteBackBackend(backend, readOnly, this, syncThreadPool, flushPeriod, pageSize);
+        }
+        catch (IOException ioe) {
+            backend.close();
+            throw ioe;
+        }
+        catch (RuntimeException rte) {
+            backend.close();
+            throw rte;
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected boolean exists(String path) throws IOException {
+        return delegate.exists(path);
+    }
+
+    /** {@inheritDoc} */
+    protected boolean exists(URI uri) throws IOException {
+        return delegate.exists(uri);
+    }
+
+    /** {@inheritDoc} */
+    protected boolean shouldValidateHeader(String path) throws IOException {
+        return delegate.shouldValidateHeader(path);
+    }
+
+    /** {@inheritDoc} */
+    protected boolean shouldValidateHeader(URI uri) throws IOException {
+        return delegate.shouldValidateHeader(uri);
+    }
+
+    /** {@inheritDoc} */
+    public boolean canStore(URI uri) {
+        return delegate.canStore(uri);
+    }
+
+    /** {@inheritDoc} */
+    public URI getCanonicalUri(URI uri) {
+        return delegate.getCanonicalUri(uri);
+    }
+
+    /** {@inheritDoc} */
+    public URI getUri(String path) {
+        return delegate.getUri(path);
+    }
+
+    /** {@inheritDoc} */
+    public String getPath(URI uri) {
+        return delegate.getPath(uri);
+    }
+
+    void dirtied(long bytes) {
+        dirtyBytes.addAndGet(bytes);
+    }
+
+    boolean isOverDirtyBound() {
+        return dirtyBytes.get() > maxDirtyBytes;
+    }
+
+    void flushed(long writes, long bytes, long nanos) {
+        flushCount.incrementAndGet();
+        flushWriteCount.addAndGet(writes);
+        flushedBytes.addAndGet(bytes);
+        flushTime.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxFlushTime.get()) && !maxFlushTime.compareAndSet(max, nanos)) {
+            // retry
+        }
+    }
+
+    /**
+     * Returns the memory currently used by dirty pages, for all the RRD of this factory.
+     *
+     * @return Number of bytes held in dirty pages.
+     */
+    public long getDirtyBytes() {
+        return dirtyBytes.get();
+    }
+
+    /**
+     * Returns the number of flushes which wrote something to the underlying storage.
+     *
+     * @return Number of flushes.
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * Returns the number of writes sent to the underlying storage by flushes, after coalescing.
+     *
+     * @return Number of writes.
+     */
+    public long getFlushWriteCount() {
+        return flushWriteCount.get();
+    }
+
+    /**
+     * Returns the number of bytes written to the underlying storage by flushes.
+     *
+     * @return Number of bytes.
+     */
+    public long getFlushedBytes() {
+        return flushedBytes.get();
+    }
+
+    /**
+     * Returns the cumulated time spent in flushes.
+     *
+     * @return Time in nanoseconds.
+     */
+    public long getFlushTime() {
+        return flushTime.get();
+    }
+
+    /**
+     * Returns the longest time spent in a single flush.
+     *
+     * @return Time in nanoseconds.
+     */
+    public long getMaxFlushTime() {
+        return maxFlushTime.get();
+    }
+
+    /**
+     * Returns the name of this factory.
+     *
+     * @return Factory name (equals to "WRITEBACK").
+     */
+    public String getName() {
+        return "WRITEBACK";
+    }
+}
@@ -0,0 +1,151 @@
+package org.rrd4j.core;
+
+/**
+ * Equidistant timestamps, from a first timestamp with a step, like the rows of a {@link FetchData} or the
+ * timestamps of a {@link org.rrd4j.data.DataProcessor}. The timestamps are computed from their index, and the
+ * index of a timestamp from the timestamp, without holding them in an array.
+ * <p>
+ * Each timestamp ends a step, the value at a timestamp being the one of the period from the previous
+ * timestamp, excluded, to this one, included. The array of the timestamps is only created when it's asked
+ * for, once, and shared by the callers, so it should not be modified.
+ */
+public final class Timeline {
+    private final long start;
+    private final long step;
+    private final int count;
+    private volatile long[] timestamps = null;
+
+    /**
+     * Creates a timeline.
+     *
+     * @param start the first timestamp.
+     * @param step  the step between two timestamps, in seconds.
+     * @param count the number of timestamps.
+     */
+    public Timeline(long start, long step, int count) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("Invalid step: " + step);
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid timestamp count: " + count);
+        }
+        this.start = start;
+        this.step = step;
+        this.count = count;
+    }
+
+    /**
+     * Returns the first timestamp.
+     *
+     * @return the first timestamp.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the last timestamp.
+     *
+     * @return the last timestamp.
+     */
+    public long getEnd() {
+        return start + (count - 1) * step;
+    }
+
+    /**
+     * Returns the step between two timestamps.
+     *
+     * @return the step, in seconds.
+     */
+    public long getStep() {
+        return step;
+    }
+
+    /**
+     * Returns the number of timestamps.
+     *
+     * @return the number of timestamps.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns a timestamp.
+     *
+     * @param index the index of the timestamp, from zero.
+     * @return the timestamp.
+     */
+    public long getTimestamp(int index) {
+        return start + index * step;
+    }
+
+    /**
+     * Finds the step holding a time, the one of the first timestamp at or after it.
+     *
+     * @param time the time, in seconds.
+     * @return the index of the timestamp ending the step, which may be out of the timeline.
+     */
+    public long getIndex(long time) {
+        long delta = time - start;
+        if (((time ^ start) & (time ^ delta)) < 0) {
+            // too far from the timeline to be computed
+            return time > start ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+        long index = delta / step;
+        return delta % step > 0 ? index + 1 : index;
+    }
+
+    /**
+     * Returns the timestamps in an array, created once.
+     *
+     * @return the timestamps, not to be modified.
+     */
+    public long[] getTimestamps() {
+        long[] timestamps = this.timestamps;
+        if (timestamps == null) {
+            timestamps = copyTimestamps(0, count);
+            this.timestamps = timestamps;
+        }
+        return timestamps;
+    }
+
+    /**
+     * Copies timestamps in a new array.
+     *
+     * @param from   the index of the first timestamp.
+     * @param length the number of timestamps.
+     * @return the timestamps.
+     */
+    public long[] copyTimestamps(int from, int length) {
+        long[] timestamps = new long[length];
+        long timestamp = getTimestamp(from);
+        for (int i = 0; i < length; i++) {
+            timestamps[i] = timestamp;
+            timestamp += step;
+        }
+        return timestamps;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Timeline)) {
+            return false;
+        }
+        Timeline timeline = (Timeline) o;
+        return start == timeline.start && step == timeline.step && count == timeline.count;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (start ^ (start >>> 32)) * 31 * 31 + (int) (step ^ (step >>> 32)) * 31 + count;
+    }
+
+    @Override
+    public String toString() {
+        return "Timeline[start=" + start + ", step=" + step + ", count=" + count + "]";
+    }
+}
@@ -112,7 +112,7 @@ public class Archive {
         dataOffset = file.getFilePointer();
 
         // Skip over the data to position ourselves at the start of the next archive
-        file.skipBytes(Constants.SIZE_OF_DOUBLE * rowCount * dsCount);
+        file.skipBytes((long) Constants.SIZE_OF_DOUBLE * rowCount * dsCount);
     }
 
     void loadData(DataChunk chunk)
@@ -234,7 +234,7 @@ public class Archive {
             int counter = 0;
             int row = currentRow;
 
-            db.rrdFile.seek(dataOffset + (row + 1) * db.header.dsCount * Constants.SIZE_OF_DOUBLE);
+            db.rrdFile.seek(dataOffset + (row + 1L) * db.header.dsCount * Constants.SIZE_OF_DOUBLE);
 
             long lastUpdate = db.lastUpdate.getTime() / 1000;
             int pdpStep = db.header.pdpStep;
@@ -302,7 +302,7 @@ public class Archive {
         }
         values = new double[db.header.dsCount][rowCount];
         int row = currentRow;
-        db.rrdFile.seek(dataOffset + (row + 1) * db.header.dsCount * Constants.SIZE_OF_DOUBLE);
+        db.rrdFile.seek(dataOffset + (row + 1L) * db.header.dsCount * Constants.SIZE_OF_DOUBLE);
         for (int counter = 0; counter < rowCount; counter++) {
             row++;
             if (row == rowCount) {
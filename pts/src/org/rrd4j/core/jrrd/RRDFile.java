@@ -12,6 +12,10 @@ import java.nio.channels.FileChannel;
  * This class is used read information from an RRD file. Writing
  * to RRD files is not currently supported. It uses NIO's RandomAccessFile to read the file
  * <p/>
+ * The file is mapped in segments of at most {@link #DEFAULT_SEGMENT_SIZE} bytes (or the size
+ * given to the constructor), so files larger than 2 GB can be read. Values spanning two
+ * segments are reassembled transparently.
+ * <p/>
  * Currently this can read RRD files that were generated on Solaris (Sparc)
  * and Linux (x86).
  *
@@ -19,11 +23,17 @@ import java.nio.channels.FileChannel;
  * @version $Revision: 1.1 $
  */
 class RRDFile implements Constants {
+    /** Default size of a mapped segment, 1 GB. */
+    static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
     private int alignment;
     private int longSize = 4;
 
     private final FileInputStream underlying;
-    private final MappedByteBuffer mappedByteBuffer;
+    private final MappedByteBuffer[] segments;
+    private final int segmentSize;
+    private final long length;
+    private long position = 0;
 
     private ByteOrder order;
 
@@ -32,22 +42,34 @@ class RRDFile implements Constants {
     }
 
     RRDFile(File file) throws IOException {
-        long len = file.length();
-        if (len > Integer.MAX_VALUE) {
-            throw new IllegalArgumentException(
-                    "RRDFile cannot read files larger than 2**31 because of limitations of java.nio.ByteBuffer");
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    RRDFile(File file, int segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
         }
+        this.segmentSize = segmentSize;
+        this.length = file.length();
 
         boolean ok = false;
+        FileInputStream in = null;
         try {
-            underlying = new FileInputStream(file);
-            mappedByteBuffer = underlying.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, len);
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            int count = (int) ((length + segmentSize - 1) / segmentSize);
+            segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, length - start));
+            }
+            underlying = in;
             initDataLayout(file);
             ok = true;
         } finally {
-            if (!ok) {
+            if (!ok && in != null) {
                 try {
-                    close();
+                    in.close();
                 } catch (Throwable ignored) {
                 }
                 // and then rethrow
@@ -59,7 +81,7 @@ class RRDFile implements Constants {
 
         if (file.exists()) {    // Load the data formats from the file
             byte[] buffer = new byte[32];
-            mappedByteBuffer.get(buffer);
+            read(ByteBuffer.wrap(buffer));
             ByteBuffer bbuffer = ByteBuffer.wrap(buffer);
 
             int index;
@@ -74,7 +96,9 @@ class RRDFile implements Constants {
             else {
                 throw new IOException("Invalid RRD file");
             }
-            mappedByteBuffer.order(order);
+            for (MappedByteBuffer segment : segments) {
+                segment.order(order);
+            }
             bbuffer.order(order);
 
             switch (index) {
@@ -103,7 +127,7 @@ class RRDFile implements Constants {
         else {                // Default to data formats for this hardware architecture
         }
         // Reset file pointer to start of file
-        mappedByteBuffer.rewind();
+        position = 0;
     }
 
     private int indexOf(byte[] pattern, byte[] array) {
@@ -118,40 +142,79 @@ class RRDFile implements Constants {
         return alignment;
     }
 
+    /**
+     * Returns the segment holding the current position if the next <code>size</code> bytes
+     * are all inside it, null if they span two segments.
+     */
+    private ByteBuffer currentSegment(int size) throws IOException {
+        if (position + size > length) {
+            throw new IOException("Read past end of file at position " + position);
+        }
+        ByteBuffer segment = segments[(int) (position / segmentSize)];
+        return (position % segmentSize) + size <= segment.limit() ? segment : null;
+    }
+
+    // reads a value spanning two segments
+    private ByteBuffer readSpanning(int size) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(size);
+        bb.order(order);
+        read(bb);
+        bb.flip();
+        return bb;
+    }
+
     double readDouble() throws IOException {
-        return mappedByteBuffer.getDouble();
+        ByteBuffer segment = currentSegment(SIZE_OF_DOUBLE);
+        if (segment == null) {
+            return readSpanning(SIZE_OF_DOUBLE).getDouble();
+        }
+        double value = segment.getDouble((int) (position % segmentSize));
+        position += SIZE_OF_DOUBLE;
+        return value;
     }
 
     int readInt() throws IOException {
-        return mappedByteBuffer.getInt();
+        ByteBuffer segment = currentSegment(4);
+        if (segment == null) {
+            return readSpanning(4).getInt();
+        }
+        int value = segment.getInt((int) (position % segmentSize));
+        position += 4;
+        return value;
     }
 
     int readLong() throws IOException {
         if(longSize == 4) {
-            return mappedByteBuffer.getInt();
+            return readInt();
         }
         else {
-            return (int) mappedByteBuffer.getLong();
+            ByteBuffer segment = currentSegment(8);
+            if (segment == null) {
+                return (int) readSpanning(8).getLong();
+            }
+            long value = segment.getLong((int) (position % segmentSize));
+            position += 8;
+            return (int) value;
         }
     }
 
     String readString(int maxLength) throws IOException {
         byte[] array = new byte[maxLength];
-        mappedByteBuffer.get(array);
+        read(ByteBuffer.wrap(array));
 
         return new String(array, 0, maxLength).trim();
     }
 
-    void skipBytes(int n) throws IOException {
-        mappedByteBuffer.position(mappedByteBuffer.position() + n);
+    void skipBytes(long n) throws IOException {
+        position += n;
     }
 
     int align(int boundary) throws IOException {
 
-        int skip = (int) (boundary - (mappedByteBuffer.position() % boundary)) % boundary;
+        int skip = (int) (boundary - (position % boundary)) % boundary;
 
         if (skip != 0) {
-            mappedByteBuffer.position(mappedByteBuffer.position() + skip);
+            position += skip;
         }
 
         return skip;
@@ -162,11 +225,11 @@ class RRDFile implements Constants {
     }
 
     long info() throws IOException {
-        return mappedByteBuffer.position();
+        return position;
     }
 
     long getFilePointer() throws IOException {
-        return mappedByteBuffer.position();
+        return position;
     }
 
     void close() throws IOException {
@@ -176,9 +239,18 @@ class RRDFile implements Constants {
     }
 
     void read(ByteBuffer bb) throws IOException{
-        int count = bb.remaining();
-        bb.put((ByteBuffer) mappedByteBuffer.duplicate().limit(mappedByteBuffer.position() + count));
-        mappedByteBuffer.position(mappedByteBuffer.position() + count);
+        if (position + bb.remaining() > length) {
+            throw new IOException("Read past end of file at position " + position);
+        }
+        while (bb.hasRemaining()) {
+            ByteBuffer segment = segments[(int) (position / segmentSize)].duplicate();
+            int start = (int) (position % segmentSize);
+            int count = Math.min(bb.remaining(), segment.limit() - start);
+            segment.position(start);
+            segment.limit(start + count);
+            bb.put(segment);
+            position += count;
+        }
     }
 
     UnivalArray getUnivalArray(int size) throws IOException {
@@ -193,10 +265,10 @@ class RRDFile implements Constants {
     }
 
     public void seek(long position) {
-        mappedByteBuffer.position((int) position);
+        this.position = position;
     }
 
     public void seekToEndOfFile() {
-        mappedByteBuffer.position(mappedByteBuffer.limit());
+        position = length;
     }
 }
@@ -53,12 +53,23 @@ public class RRDatabase implements Closeable {
      * @throws java.io.IOException if an I/O error occurs.
      */
     public RRDatabase(File file) throws IOException {
+        this(file, RRDFile.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a database to read from, mapping the file in segments of the given size.
+     *
+     * @param file        the file to read from.
+     * @param segmentSize the size in bytes of each mapped segment of the file.
+     * @throws java.io.IOException if an I/O error occurs.
+     */
+    public RRDatabase(File file, int segmentSize) throws IOException {
         /*
          * read the raw data according to the c-structure rrd_t (from rrd source
          * distribution file rrd_format.h)
          */
         name = file.getName();
-        rrdFile = new RRDFile(file);
+        rrdFile = new RRDFile(file, segmentSize);
         header = new Header(rrdFile);
 
         nameindex = new HashMap<String, Integer>(header.dsCount);
@@ -1,92 +1,66 @@
 package org.rrd4j.data;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+
+import org.rrd4j.core.Timeline;
 
 class Aggregator {
-    private final long timestamps[], step;
+    private final Timeline timeline;
     private final double[] values;
 
-    Aggregator(long[] timestamps, double[] values) {
-        assert timestamps.length == values.length : "Incompatible timestamps/values arrays (unequal lengths)";
-        assert timestamps.length >= 2 : "At least two timestamps must be supplied";
-        this.timestamps = timestamps;
+    Aggregator(Timeline timeline, double[] values) {
+        assert timeline.getCount() == values.length : "Incompatible timestamps/values arrays (unequal lengths)";
+        this.timeline = timeline;
         this.values = values;
-        this.step = timestamps[1] - timestamps[0];
     }
 
     Aggregates getAggregates(long tStart, long tEnd) {
-        Aggregates agg = new Aggregates();
-        long totalSeconds = 0;
-        int cnt = 0;
-
-        for (int i = 0; i < timestamps.length; i++) {
-            long left = Math.max(timestamps[i] - step, tStart);
-            long right = Math.min(timestamps[i], tEnd);
-            long delta = right - left;
-
-            // delta is only > 0 when the time stamp for a given buck is within the range of tStart and tEnd
-            if (delta > 0) {
-                double value = values[i];
-
-                if (!Double.isNaN(value)) {
-                    totalSeconds += delta;
-                    cnt++;
-
-                    if (cnt == 1) {
-                        agg.last = agg.first = agg.total = agg.min = agg.max = value;
-                    }
-                    else {
-                        if (delta >= step) {  // an entire bucket is included in this range
-                            agg.last = value;
-                        }
-
-                        agg.min = Math.min(agg.min, value);
-                        agg.max = Math.max(agg.max, value);
-                        agg.total += value;
-
-                    }
-                }
-            }
+        int[] range = Variable.getRange(timeline, tStart, tEnd);
+        if (range == null) {
+            return new Aggregates();
         }
-
-        if(cnt > 0) {
-            agg.average = agg.total / totalSeconds;
-        }
-
-        return agg;
+        return Statistics.calculate(timeline, values, range[0], range[1], tStart, tEnd, Statistics.AGGREGATES).aggregates;
     }
 
     double getPercentile(long tStart, long tEnd, double percentile) {
-        List<Double> valueList = new ArrayList<Double>();
-        // create a list of included datasource values (different from NaN)
-        for (int i = 0; i < timestamps.length; i++) {
-            long left = Math.max(timestamps[i] - step, tStart);
-            long right = Math.min(timestamps[i], tEnd);
-            if (right > left && !Double.isNaN(values[i])) {
-                valueList.add(new Double(values[i]));
+        return getPercentiles(tStart, tEnd, new double[] {percentile})[0];
+    }
+
+    double[] getPercentiles(long tStart, long tEnd, double[] percentiles) {
+        double[] results = new double[percentiles.length];
+        Arrays.fill(results, Double.NaN);
+        int[] range = Variable.getRange(timeline, tStart, tEnd);
+        if (range == null) {
+            return results;
+        }
+        // create arrays of included datasource values (different from NaN)
+        long[] includedTimestamps = new long[range[1] - range[0] + 1];
+        double[] includedValues = new double[includedTimestamps.length];
+        int count = 0;
+        for (int i = range[0]; i <= range[1]; i++) {
+            if (!Double.isNaN(values[i])) {
+                includedTimestamps[count] = timeline.getTimestamp(i);
+                includedValues[count++] = values[i];
             }
         }
-        // create an array to work with
-        int count = valueList.size();
         if (count > 1) {
-            double[] valuesCopy = new double[count];
-            for (int i = 0; i < count; i++) {
-                valuesCopy[i] = valueList.get(i).doubleValue();
-            }
-            // sort array
-            Arrays.sort(valuesCopy);
             // skip top (100% - percentile) values
-            double topPercentile = (100.0 - percentile) / 100.0;
-            count -= (int) Math.ceil(count * topPercentile);
-            // if we have anything left...
-            if (count > 0) {
-                return valuesCopy[count - 1];
+            int[] positions = new int[percentiles.length];
+            for (int i = 0; i < percentiles.length; i++) {
+                double topPercentile = (100.0 - percentiles[i]) / 100.0;
+                positions[i] = count - (int) Math.ceil(count * topPercentile) - 1;
+            }
+            int[] ranks = positions.clone();
+            Arrays.sort(ranks);
+            Percentiles.select(includedTimestamps, includedValues, count, ranks);
+            for (int i = 0; i < percentiles.length; i++) {
+                // if we have anything left...
+                if (positions[i] >= 0 && positions[i] < count) {
+                    results[i] = includedValues[positions[i]];
+                }
             }
         }
-        // not enough data available
-        return Double.NaN;
+        // NaN when not enough data available
+        return results;
     }
 }
-
@@ -6,19 +6,33 @@ import org.rrd4j.core.FetchRequest;
 import org.rrd4j.core.RrdBackendFactory;
 import org.rrd4j.core.RrdDb;
 import org.rrd4j.core.RrdDbPool;
+import org.rrd4j.core.RrdFetchCache;
+import org.rrd4j.core.Timeline;
 import org.rrd4j.core.Util;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * <p>Class which should be used for all calculations based on the data fetched from RRD files. This class
@@ -59,10 +73,19 @@ public class DataProcessor {
      * (i.e. the pool will not be used to fetch data from RRD files)
      */
     public static final boolean DEFAULT_POOL_USAGE_POLICY = false;
+    // the number of values calculated below which the sources are calculated one after the other
+    private static final int MIN_PARALLEL_VALUES = 1 << 16;
     private boolean poolUsed = DEFAULT_POOL_USAGE_POLICY;
+    private Executor fetchExecutor = null;
+    private ForkJoinPool calculationPool = null;
+    private RrdFetchCache fetchCache = null;
+    private Set<String> requiredSources = null;
+    // the sub-expressions shared by the RPN expressions, while they are calculated
+    private RpnCalculator.Expressions expressions = null;
 
     private final long tStart;
-    private long tEnd, timestamps[];
+    private long tEnd;
+    private Timeline timeline;
     private long lastRrdArchiveUpdateTime = 0;
     // this will be adjusted later
     private long step = 0;
@@ -139,6 +162,96 @@ public class DataProcessor {
         this.poolUsed = poolUsed;
     }
 
+    /**
+     * Returns the executor used to fetch data from RRD files.
+     *
+     * @return the executor, or null if RRD files are fetched one after the other by {@link #processData()}.
+     */
+    public Executor getFetchExecutor() {
+        return fetchExecutor;
+    }
+
+    /**
+     * Sets the executor used to fetch data from several RRD files concurrently. Each RRD file is opened
+     * and fetched by a single task, with one fetch per consolidation function, so each task holds one
+     * RRD file open, or one {@link org.rrd4j.core.RrdDbPool RrdDbPool} reference, at a time.
+     * By default, or if set to null, RRD files are fetched one after the other by the thread calling
+     * {@link #processData()}. The results are the same either way.
+     *
+     * @param fetchExecutor the executor running the fetches, or null.
+     */
+    public void setFetchExecutor(Executor fetchExecutor) {
+        this.fetchExecutor = fetchExecutor;
+    }
+
+    /**
+     * Returns the pool used to calculate the CDEF and VDEF sources.
+     *
+     * @return the pool, or null if the sources are calculated one after the other by {@link #processData()}.
+     */
+    public ForkJoinPool getCalculationPool() {
+        return calculationPool;
+    }
+
+    /**
+     * Sets the pool used to calculate the CDEF and VDEF sources concurrently. The sources are ordered by
+     * the sources they read, and the sources not reading each other are calculated in parallel, a source
+     * being calculated when all the sources it reads are. The PDEF sources are calculated first by the
+     * thread calling {@link #processData()}, as a {@link Plottable} may not be thread safe.
+     * The sources are still calculated one after the other when there are few values to calculate, or when
+     * a source reads a source defined after it. The results, and the exception thrown for an invalid
+     * source, are the same either way.
+     * By default, or if set to null, the sources are calculated one after the other in the order they were
+     * defined.
+     *
+     * @param calculationPool the pool calculating the sources, like {@link ForkJoinPool#commonPool()}, or null.
+     */
+    public void setCalculationPool(ForkJoinPool calculationPool) {
+        this.calculationPool = calculationPool;
+    }
+
+    /**
+     * Returns the cache used to fetch data from RRD files.
+     *
+     * @return the fetch cache, or null if the data is always fetched from the RRD files.
+     */
+    public RrdFetchCache getFetchCache() {
+        return fetchCache;
+    }
+
+    /**
+     * Sets the cache used to fetch data from RRD files, usually shared with other data processors
+     * fetching the same data, like graphs refreshed by many clients.
+     * By default, or if set to null, the data is always fetched from the RRD files.
+     *
+     * @param fetchCache the fetch cache, or null.
+     */
+    public void setFetchCache(RrdFetchCache fetchCache) {
+        this.fetchCache = fetchCache;
+    }
+
+    /**
+     * Returns the sources calculated by {@link #processData()}, with the sources they depend on.
+     *
+     * @return the names of the sources required, or null if all the sources are calculated.
+     */
+    public Set<String> getRequiredSources() {
+        return requiredSources;
+    }
+
+    /**
+     * Restricts the sources calculated by {@link #processData()} to the given ones and to the sources they
+     * depend on: the RRD files of the other DEF sources are not fetched, and the other CDEF, VDEF and PDEF
+     * sources are not calculated, their values being then unavailable. The step and, when it's not set, the
+     * ending timestamp are chosen from the RRD files fetched only.
+     * By default, or if set to null, all the sources are calculated.
+     *
+     * @param sourceNames the names of the sources required, or null.
+     */
+    public void setRequiredSources(Collection<String> sourceNames) {
+        this.requiredSources = sourceNames == null ? null : new LinkedHashSet<String>(sourceNames);
+    }
+
     /**
      * <p>Sets the number of pixels (target graph width). This number is used only to calculate pixel coordinates
      * for Rrd4j graphs (methods {@link #getValuesPerPixel(String)} and {@link #getTimestampsPerPixel()}),
@@ -246,11 +359,21 @@ public class DataProcessor {
      * @return array of timestamps in seconds
      */
     public long[] getTimestamps() {
-        if (timestamps == null) {
+        return getTimeline().getTimestamps();
+    }
+
+    /**
+     * Returns consolidated timestamps created with the {@link #processData()} method, without creating
+     * an array of them.
+     *
+     * @return the timeline of the values
+     */
+    public Timeline getTimeline() {
+        if (timeline == null) {
             throw new IllegalArgumentException("Timestamps not calculated yet");
         }
         else {
-            return timestamps;
+            return timeline;
         }
     }
 
@@ -400,6 +523,25 @@ public class DataProcessor {
         return source.getPercentile(tStart, tEnd, percentile);
     }
 
+    /**
+     * Calculates many percentiles of a source in the same pass, each one equal to
+     * {@link #getPercentile(String, double)} with the same boundary, instead of sorting the source values again
+     * for each.
+     *
+     * @param sourceName Datasource name.
+     * @param percentiles Boundary percentiles, between zero and 100.
+     * @return Requested percentiles of fetched source values, in the same order.
+     */
+    public double[] getPercentiles(String sourceName, double... percentiles) {
+        for (double percentile : percentiles) {
+            if (percentile <= 0.0 || percentile > 100.0) {
+                throw new IllegalArgumentException("Invalid percentile [" + percentile + "], should be between 0 and 100");
+            }
+        }
+        Source source = getSource(sourceName);
+        return source.getPercentiles(tStart, tEnd, percentiles);
+    }
+
     /**
      * Returns array of datasource names defined in this DataProcessor.
      *
@@ -607,14 +749,15 @@ public class DataProcessor {
      * @throws java.io.IOException Thrown in case of I/O error (while fetching data from RRD files)
      */
     public void processData() throws IOException {
-        extractDefs();
+        Set<String> liveSources = findLiveSources();
+        extractDefs(liveSources);
         fetchRrdData();
         fixZeroEndingTimestamp();
         chooseOptimalStep();
         createTimestamps();
         assignTimestampsToSources();
         normalizeRrdValues();
-        calculateNonRrdSources();
+        calculateNonRrdSources(liveSources);
     }
 
     /**
@@ -650,23 +793,19 @@ public class DataProcessor {
         double[] pixelValues = new double[pixelCount];
         Arrays.fill(pixelValues, Double.NaN);
         long span = tEnd - tStart;
-        // this is the ugliest nested loop I have ever made
-        for (int pix = 0, ref = 0; pix < pixelCount; pix++) {
+        int count = timeline.getCount();
+        for (int pix = 0; pix < pixelCount; pix++) {
             double t = tStart + (double) (span * pix) / (double) (pixelCount - 1);
-            while (ref < timestamps.length) {
-                if (t <= timestamps[ref] - step) {
-                    // too left, nothing to do, already NaN
-                    break;
-                }
-                else if (t <= timestamps[ref]) {
-                    // in brackets, get this value
-                    pixelValues[pix] = values[ref];
-                    break;
-                }
-                else {
-                    // too right
-                    ref++;
-                }
+            // the first timestamp at or after the time, if the time is not before the first step
+            long ref = Math.max((long) Math.ceil((t - timeline.getStart()) / step), 0);
+            while (ref > 0 && t <= timeline.getTimestamp((int) (ref - 1))) {
+                ref--;
+            }
+            while (ref < count && t > timeline.getTimestamp((int) ref)) {
+                ref++;
+            }
+            if (ref < count && t > timeline.getTimestamp((int) ref) - step) {
+                pixelValues[pix] = values[(int) ref];
             }
         }
         return pixelValues;
@@ -712,8 +851,8 @@ public class DataProcessor {
             buffer.append(format(name, 20));
         }
         buffer.append("\n");
-        for (int i = 0; i < timestamps.length; i++) {
-            buffer.append(format(Long.toString(timestamps[i]), 12));
+        for (int i = 0; i < timeline.getCount(); i++) {
+            buffer.append(format(Long.toString(timeline.getTimestamp(i)), 12));
             for (int j = 0; j < names.length; j++) {
                 buffer.append(format(Util.formatDouble(values[j][i]), 20));
             }
@@ -733,10 +872,32 @@ public class DataProcessor {
 
     // PRIVATE METHODS
 
-    private void extractDefs() {
+    // the sources required, and the sources they depend on
+    private Set<String> findLiveSources() {
+        if (requiredSources == null) {
+            return sources.keySet();
+        }
+        Set<String> liveSources = new HashSet<String>();
+        List<String> pending = new ArrayList<String>(requiredSources);
+        while (!pending.isEmpty()) {
+            String name = pending.remove(pending.size() - 1);
+            if (liveSources.add(name)) {
+                Source source = getSource(name);
+                if (source instanceof CDef) {
+                    pending.addAll(RpnCalculator.getSourceNames(((CDef) source).getRpnExpression(), sources.keySet()));
+                }
+                else if (source instanceof VDef) {
+                    pending.add(((VDef) source).getDefName());
+                }
+            }
+        }
+        return liveSources;
+    }
+
+    private void extractDefs(Set<String> liveSources) {
         List<Def> defList = new ArrayList<Def>();
         for (Source source : sources.values()) {
-            if (source instanceof Def) {
+            if (source instanceof Def && liveSources.contains(source.getName())) {
                 defList.add((Def) source);
             }
         }
@@ -745,37 +906,123 @@ public class DataProcessor {
 
     private void fetchRrdData() throws IOException {
         long tEndFixed = (tEnd == 0) ? Util.getTime() : tEnd;
-        for (int i = 0; i < defSources.length; i++) {
-            if (!defSources[i].isLoaded()) {
-                // not fetched yet
-                Set<String> dsNames = new HashSet<String>();
-                dsNames.add(defSources[i].getDsName());
-                // look for all other datasources with the same path and the same consolidation function
-                for (int j = i + 1; j < defSources.length; j++) {
-                    if (defSources[i].isCompatibleWith(defSources[j])) {
-                        dsNames.add(defSources[j].getDsName());
+        // group the defs by RRD file and backend, then by consolidation function,
+        // each path being resolved only once
+        Map<String, String> canonicalPaths = new HashMap<String, String>();
+        Map<List<String>, Map<ConsolFun, List<Def>>> rrdGroups = new LinkedHashMap<List<String>, Map<ConsolFun, List<Def>>>();
+        for (Def def : defSources) {
+            String canonicalPath = canonicalPaths.get(def.getPath());
+            if (canonicalPath == null) {
+                canonicalPath = def.getCanonicalPath();
+                canonicalPaths.put(def.getPath(), canonicalPath);
+            }
+            List<String> rrdKey = Arrays.asList(canonicalPath, def.getBackend());
+            Map<ConsolFun, List<Def>> consolFunGroups = rrdGroups.get(rrdKey);
+            if (consolFunGroups == null) {
+                consolFunGroups = new LinkedHashMap<ConsolFun, List<Def>>();
+                rrdGroups.put(rrdKey, consolFunGroups);
+            }
+            List<Def> defs = consolFunGroups.get(def.getConsolFun());
+            if (defs == null) {
+                defs = new ArrayList<Def>();
+                consolFunGroups.put(def.getConsolFun(), defs);
+            }
+            defs.add(def);
+        }
+        // a def not fetched yet is fetched with all the following defs of its group
+        List<FetchTask> tasks = new ArrayList<FetchTask>();
+        for (Map<ConsolFun, List<Def>> consolFunGroups : rrdGroups.values()) {
+            List<List<Def>> fetches = new ArrayList<List<Def>>();
+            for (List<Def> defs : consolFunGroups.values()) {
+                for (int i = 0; i < defs.size(); i++) {
+                    if (!defs.get(i).isLoaded()) {
+                        fetches.add(defs.subList(i, defs.size()));
+                        break;
                     }
                 }
-                // now we have everything
-                RrdDb rrd = null;
-                try {
-                    rrd = getRrd(defSources[i]);
-                    lastRrdArchiveUpdateTime = Math.max(lastRrdArchiveUpdateTime, rrd.getLastArchiveUpdateTime());
-                    FetchRequest req = rrd.createFetchRequest(defSources[i].getConsolFun(),
+            }
+            if (!fetches.isEmpty()) {
+                tasks.add(new FetchTask(fetches, tEndFixed));
+            }
+        }
+        if (fetchExecutor == null || tasks.size() < 2) {
+            for (FetchTask task : tasks) {
+                lastRrdArchiveUpdateTime = Math.max(lastRrdArchiveUpdateTime, task.call());
+            }
+            return;
+        }
+        List<FutureTask<Long>> futures = new ArrayList<FutureTask<Long>>(tasks.size());
+        for (FetchTask task : tasks) {
+            FutureTask<Long> future = new FutureTask<Long>(task);
+            fetchExecutor.execute(future);
+            futures.add(future);
+        }
+        // wait for all the fetches, so that none is still running on failure
+        Throwable failure = null;
+        for (FutureTask<Long> future : futures) {
+            try {
+                lastRrdArchiveUpdateTime = Math.max(lastRrdArchiveUpdateTime, future.get());
+            }
+            catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("fetch interrupted", e);
+            }
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    /**
+     * Fetches the data of a RRD file, one fetch per consolidation function.
+     */
+    private class FetchTask implements Callable<Long> {
+        private final List<List<Def>> fetches;
+        private final long tEndFixed;
+
+        FetchTask(List<List<Def>> fetches, long tEndFixed) {
+            this.fetches = fetches;
+            this.tEndFixed = tEndFixed;
+        }
+
+        // returns the last archive update time of the RRD
+        public Long call() throws IOException {
+            Def first = fetches.get(0).get(0);
+            RrdDb rrd = null;
+            try {
+                rrd = getRrd(first);
+                for (List<Def> defs : fetches) {
+                    Set<String> dsNames = new HashSet<String>();
+                    for (Def def : defs) {
+                        dsNames.add(def.getDsName());
+                    }
+                    FetchRequest req = rrd.createFetchRequest(defs.get(0).getConsolFun(),
                             tStart, tEndFixed, fetchRequestResolution);
                     req.setFilter(dsNames);
-                    FetchData data = req.fetchData();
-                    defSources[i].setFetchData(data);
-                    for (int j = i + 1; j < defSources.length; j++) {
-                        if (defSources[i].isCompatibleWith(defSources[j])) {
-                            defSources[j].setFetchData(data);
-                        }
+                    FetchData data = fetchCache != null ? fetchCache.fetchData(req) : req.fetchData();
+                    for (Def def : defs) {
+                        def.setFetchData(data);
                     }
                 }
-                finally {
-                    if (rrd != null) {
-                        releaseRrd(rrd, defSources[i]);
-                    }
+                return rrd.getLastArchiveUpdateTime();
+            }
+            finally {
+                if (rrd != null) {
+                    releaseRrd(rrd, first);
                 }
             }
         }
@@ -823,36 +1070,223 @@ public class DataProcessor {
             t2 += step;
         }
         int count = (int) (((t2 - t1) / step) + 1);
-        timestamps = new long[count];
-        for (int i = 0; i < count; i++) {
-            timestamps[i] = t1;
-            t1 += step;
-        }
+        timeline = new Timeline(t1, step, count);
     }
 
     private void assignTimestampsToSources() {
         for (Source src : sources.values()) {
-            src.setTimestamps(timestamps);
+            src.setTimeline(timeline);
         }
     }
 
     private void normalizeRrdValues() {
-        Normalizer normalizer = new Normalizer(timestamps);
+        Normalizer normalizer = new Normalizer(timeline);
+        // the values fetched and not normalized, each used by one source at most
+        Set<double[]> usedValues = Collections.newSetFromMap(new IdentityHashMap<double[], Boolean>());
         for (Def def : defSources) {
-            long[] rrdTimestamps = def.getRrdTimestamps();
+            Timeline rrdTimeline = def.getRrdTimeline();
             double[] rrdValues = def.getRrdValues();
-            def.setValues(normalizer.normalize(rrdTimestamps, rrdValues));
+            if (def.isFetched() && normalizer.isNormalized(rrdTimeline) && usedValues.add(rrdValues)) {
+                def.setValues(rrdValues);
+            }
+            else {
+                def.setValues(normalizer.normalize(rrdTimeline, rrdValues));
+            }
+        }
+    }
+
+    private void calculateNonRrdSources(Set<String> liveSources) {
+        List<Source> calculatedSources = new ArrayList<Source>();
+        // the statistics needed by the variables of each source, calculated in one pass for all of them
+        Map<String, Integer> needs = new HashMap<String, Integer>();
+        // the first variable of each source calculating its statistics, the next ones reading them
+        Map<String, VDef> fusedVariables = new HashMap<String, VDef>();
+        // the sub-expressions of the RPN expressions, evaluated once
+        expressions = new RpnCalculator.Expressions();
+        for (Source source : sources.values()) {
+            if (!liveSources.contains(source.getName()) || !(source instanceof NonRrdSource)) {
+                continue;
+            }
+            calculatedSources.add(source);
+            if (source instanceof VDef) {
+                VDef vdef = (VDef) source;
+                int statistics = vdef.getVariable().getFusedStatistics();
+                if (statistics != Statistics.NONE && !(getSource(vdef.getDefName()) instanceof VDef)) {
+                    Integer previous = needs.get(vdef.getDefName());
+                    needs.put(vdef.getDefName(), previous == null ? statistics : previous | statistics);
+                    if (previous == null) {
+                        fusedVariables.put(vdef.getDefName(), vdef);
+                    }
+                }
+            }
+            else if (source instanceof CDef) {
+                expressions.count(((CDef) source).getRpnExpression(), source.getName(), this);
+            }
+        }
+        try {
+            Map<String, Statistics> calculated = new ConcurrentHashMap<String, Statistics>();
+            if (!calculateInParallel(calculatedSources, needs, fusedVariables, calculated)) {
+                for (Source source : calculatedSources) {
+                    calculate(source, needs, calculated);
+                }
+            }
+        }
+        finally {
+            expressions = null;
+        }
+    }
+
+    private void calculate(Source source, Map<String, Integer> needs, Map<String, Statistics> calculated) {
+        if (source instanceof VDef && ((VDef) source).getVariable().getFusedStatistics() != Statistics.NONE
+                && needs.containsKey(((VDef) source).getDefName())) {
+            String defName = ((VDef) source).getDefName();
+            Statistics statistics = calculated.get(defName);
+            if (statistics == null) {
+                statistics = Statistics.calculate(getSource(defName), tStart, tEnd, needs.get(defName));
+                calculated.put(defName, statistics);
+            }
+            ((VDef) source).calculate(statistics);
+        }
+        else {
+            ((NonRrdSource) source).calculate(tStart, tEnd, this);
         }
     }
 
-    private void calculateNonRrdSources() {
+    // calculates the sources by stages, each stage reading the sources of the previous ones only
+    private boolean calculateInParallel(List<Source> calculatedSources, Map<String, Integer> needs,
+            Map<String, VDef> fusedVariables, Map<String, Statistics> calculated) {
+        if (calculationPool == null || (long) calculatedSources.size() * timeline.getCount() < MIN_PARALLEL_VALUES) {
+            return false;
+        }
+        Map<String, Integer> sourceStages = new HashMap<String, Integer>();
         for (Source source : sources.values()) {
-            if (source instanceof NonRrdSource) {
-                ((NonRrdSource)source).calculate(tStart, tEnd, this);
+            if (!(source instanceof NonRrdSource)) {
+                sourceStages.put(source.getName(), -1);
+            }
+        }
+        List<Source> plottedSources = new ArrayList<Source>();
+        List<List<CalculationTask>> stages = new ArrayList<List<CalculationTask>>();
+        for (Source source : calculatedSources) {
+            int stage = 0;
+            if (source instanceof PDef) {
+                plottedSources.add(source);
+                stage = -1;
+            }
+            else {
+                List<String> readSources = new ArrayList<String>();
+                if (source instanceof CDef) {
+                    readSources.addAll(RpnCalculator.getSourceNames(((CDef) source).getRpnExpression(), sources.keySet()));
+                }
+                else {
+                    String defName = ((VDef) source).getDefName();
+                    readSources.add(defName);
+                    VDef fusedVariable = fusedVariables.get(defName);
+                    if (fusedVariable != null && fusedVariable != source
+                            && ((VDef) source).getVariable().getFusedStatistics() != Statistics.NONE) {
+                        readSources.add(fusedVariable.getName());
+                    }
+                }
+                for (String readSource : readSources) {
+                    Integer readStage = sourceStages.get(readSource);
+                    if (readStage == null) {
+                        // a source defined later, or not calculated, is reported as when calculated in order
+                        return false;
+                    }
+                    stage = Math.max(stage, readStage + 1);
+                }
+                while (stages.size() <= stage) {
+                    stages.add(new ArrayList<CalculationTask>());
+                }
+                stages.get(stage).add(new CalculationTask(source, needs, calculated));
+            }
+            sourceStages.put(source.getName(), stage);
+        }
+        if (stages.size() == calculatedSources.size() - plottedSources.size()) {
+            // no source calculated in parallel
+            return false;
+        }
+        for (Source source : plottedSources) {
+            calculate(source, needs, calculated);
+        }
+        calculationPool.invoke(new StagesTask(stages));
+        for (List<CalculationTask> stage : stages) {
+            Throwable failure = null;
+            for (CalculationTask task : stage) {
+                if (failure == null) {
+                    failure = task.failure;
+                }
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            else if (failure != null) {
+                throw new RuntimeException(failure);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calculates the stages one after the other, the sources of each stage in parallel. The stages after
+     * a failure are not calculated.
+     */
+    private static class StagesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<List<CalculationTask>> stages;
+
+        StagesTask(List<List<CalculationTask>> stages) {
+            this.stages = stages;
+        }
+
+        @Override
+        protected void compute() {
+            for (List<CalculationTask> stage : stages) {
+                invokeAll(stage);
+                for (CalculationTask task : stage) {
+                    if (task.failure != null) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates a source, keeping the failure to report it in the order of the sources.
+     */
+    private class CalculationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Source source;
+        private final Map<String, Integer> needs;
+        private final Map<String, Statistics> calculated;
+        private Throwable failure = null;
+
+        CalculationTask(Source source, Map<String, Integer> needs, Map<String, Statistics> calculated) {
+            this.source = source;
+            this.needs = needs;
+            this.calculated = calculated;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                calculate(source, needs, calculated);
+            }
+            catch (Throwable e) {
+                failure = e;
             }
         }
     }
 
+    RpnCalculator.Expressions getExpressions() {
+        return expressions;
+    }
+
     private RrdDb getRrd(Def def) throws IOException {
         String path = def.getPath(), backend = def.getBackend();
         if (poolUsed && backend == null) {
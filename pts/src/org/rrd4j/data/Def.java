@@ -2,6 +2,7 @@ package org.rrd4j.data;
 
 import org.rrd4j.ConsolFun;
 import org.rrd4j.core.FetchData;
+import org.rrd4j.core.Timeline;
 import org.rrd4j.core.Util;
 
 import java.io.IOException;
@@ -10,6 +11,7 @@ class Def extends Source {
     private final String path, dsName, backend;
     private final ConsolFun consolFun;
     private FetchData fetchData;
+    private boolean fetched = false;
 
     Def(String name, FetchData fetchData) {
         this(name, name, fetchData);
@@ -56,19 +58,23 @@ class Def extends Source {
         return backend;
     }
 
-    boolean isCompatibleWith(Def def) throws IOException {
-        return getCanonicalPath().equals(def.getCanonicalPath()) &&
-                getConsolFun() == def.consolFun &&
-                ((backend == null && def.backend == null) ||
-                        (backend != null && def.backend != null && backend.equals(def.backend)));
-    }
-
     void setFetchData(FetchData fetchData) {
         this.fetchData = fetchData;
+        this.fetched = true;
+    }
+
+    /**
+     * Checks if the data was fetched by the data processor, rather than given to it, so its values
+     * are not used outside of it.
+     *
+     * @return true if the data was fetched by the data processor.
+     */
+    boolean isFetched() {
+        return fetched;
     }
 
-    long[] getRrdTimestamps() {
-        return fetchData.getTimestamps();
+    Timeline getRrdTimeline() {
+        return fetchData.getTimeline();
     }
 
     double[] getRrdValues() {
@@ -84,15 +90,15 @@ class Def extends Source {
     }
 
     Aggregates getAggregates(long tStart, long tEnd) {
-        long[] t = getRrdTimestamps();
-        double[] v = getRrdValues();
-        return new Aggregator(t, v).getAggregates(tStart, tEnd);
+        return new Aggregator(getRrdTimeline(), getRrdValues()).getAggregates(tStart, tEnd);
     }
 
     double getPercentile(long tStart, long tEnd, double percentile) {
-        long[] t = getRrdTimestamps();
-        double[] v = getRrdValues();
-        return new Aggregator(t, v).getPercentile(tStart, tEnd, percentile);
+        return new Aggregator(getRrdTimeline(), getRrdValues()).getPercentile(tStart, tEnd, percentile);
+    }
+
+    double[] getPercentiles(long tStart, long tEnd, double[] percentiles) {
+        return new Aggregator(getRrdTimeline(), getRrdValues()).getPercentiles(tStart, tEnd, percentiles);
     }
 
     boolean isLoaded() {
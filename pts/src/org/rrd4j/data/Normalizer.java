@@ -1,67 +1,134 @@
 package org.rrd4j.data;
 
+import org.rrd4j.core.Timeline;
 import org.rrd4j.core.Util;
 
-import java.util.Arrays;
-
+/**
+ * Resamples fetched values on the timestamps of a data processor. Each normalized value is the average of
+ * the fetched values overlapping its step, weighted by the overlapping time, NaN values being ignored.
+ * <p>
+ * The values are resampled in one pass, without allocating more than the normalized values, the fetched
+ * steps overlapping each step being found from their timelines. When one step is a multiple of the other
+ * and the timestamps are aligned on the smaller one, which is the usual case, the overlaps are whole steps.
+ */
 class Normalizer {
-    private final long[] timestamps;
+    private final Timeline timeline;
     final int count;
     final long step;
 
-    Normalizer(long[] timestamps) {
-        this.timestamps = timestamps;
-        this.step = timestamps[1] - timestamps[0];
-        this.count = timestamps.length;
+    Normalizer(Timeline timeline) {
+        this.timeline = timeline;
+        this.step = timeline.getStep();
+        this.count = timeline.getCount();
+    }
+
+    /**
+     * Checks if fetched values are on the same timestamps, so they need no resampling.
+     *
+     * @param rawTimeline the timestamps of the fetched values.
+     * @return true if the timestamps are the normalized ones.
+     */
+    boolean isNormalized(Timeline rawTimeline) {
+        return rawTimeline.equals(timeline);
     }
 
-    double[] normalize(long[] rawTimestamps, double[] rawValues) {
-        int rawCount = rawTimestamps.length;
-        long rawStep = rawTimestamps[1] - rawTimestamps[0];
-        // check if we have a simple match
-        if (rawCount == count && rawStep == step && rawTimestamps[0] == timestamps[0]) {
-            return getCopyOf(rawValues);
+    double[] normalize(Timeline rawTimeline, double[] rawValues) {
+        return normalize(rawTimeline, rawValues, null);
+    }
+
+    /**
+     * Resamples fetched values.
+     *
+     * @param rawTimeline the timestamps of the fetched values.
+     * @param rawValues   the fetched values.
+     * @param values      the array receiving the normalized values, of {@link #count} values, or null to
+     *                    allocate it.
+     * @return the normalized values.
+     */
+    double[] normalize(Timeline rawTimeline, double[] rawValues, double[] values) {
+        if (values == null) {
+            values = new double[count];
         }
-        // reset all normalized values to NaN
-        double[] values = new double[count];
-        Arrays.fill(values, Double.NaN);
-        double[] weights = new double[count];
-        Arrays.fill(weights, Double.NaN);
-        for (int rawSeg = 0, seg = 0; rawSeg < rawCount && seg < count; rawSeg++) {
-            double rawValue = rawValues[rawSeg];
-            if (!Double.isNaN(rawValue)) {
-                long rawLeft = rawTimestamps[rawSeg] - rawStep;
-                while (seg < count && rawLeft >= timestamps[seg]) {
-                    seg++;
-                }
-                boolean overlap = true;
-                for (int fillSeg = seg; overlap && fillSeg < count; fillSeg++) {
-                    long left = timestamps[fillSeg] - step;
-                    long t1 = Math.max(rawLeft, left);
-                    long t2 = Math.min(rawTimestamps[rawSeg], timestamps[fillSeg]);
-                    if (t1 < t2) {
-                        values[fillSeg] = Util.sum(values[fillSeg], (t2 - t1) * rawValues[rawSeg]);
-                        weights[fillSeg] = Util.sum(weights[fillSeg], t2 - t1);
-                    }
-                    else {
-                        overlap = false;
-                    }
+        else if (values.length != count) {
+            throw new IllegalArgumentException("Invalid normalized values length: " + values.length + ", should be " + count);
+        }
+        long rawStep = rawTimeline.getStep();
+        long offset = timeline.getStart() - rawTimeline.getStart();
+        if (isNormalized(rawTimeline)) {
+            System.arraycopy(rawValues, 0, values, 0, count);
+        }
+        else if (rawStep % step == 0 && offset % step == 0) {
+            normalizeFromMultiple(rawTimeline, rawValues, values);
+        }
+        else if (step % rawStep == 0 && offset % rawStep == 0) {
+            normalizeFromDivisor(rawTimeline, rawValues, values);
+        }
+        else {
+            normalizeFromOverlaps(rawTimeline, rawValues, values);
+        }
+        return values;
+    }
+
+    // each step is within a fetched step
+    private void normalizeFromMultiple(Timeline rawTimeline, double[] rawValues, double[] values) {
+        int rawCount = rawTimeline.getCount();
+        for (int seg = 0; seg < count; seg++) {
+            // the fetched step ending at or after the timestamp
+            long rawSeg = rawTimeline.getIndex(timeline.getTimestamp(seg));
+            double value = Double.NaN;
+            if (rawSeg >= 0 && rawSeg < rawCount) {
+                double rawValue = rawValues[(int) rawSeg];
+                if (!Double.isNaN(rawValue)) {
+                    value = (step * rawValue) / step;
                 }
             }
+            values[seg] = value;
         }
+    }
+
+    // each step holds whole fetched steps
+    private void normalizeFromDivisor(Timeline rawTimeline, double[] rawValues, double[] values) {
+        int rawCount = rawTimeline.getCount();
+        long rawStep = rawTimeline.getStep();
+        long ratio = step / rawStep;
         for (int seg = 0; seg < count; seg++) {
-            if (!Double.isNaN(weights[seg])) {
-                values[seg] /= weights[seg];
+            // the fetched steps ending after the start of the step, up to its timestamp
+            long last = rawTimeline.getIndex(timeline.getTimestamp(seg));
+            long first = Math.max(last - ratio + 1, 0);
+            last = Math.min(last, rawCount - 1);
+            double sum = Double.NaN;
+            double weight = Double.NaN;
+            for (long rawSeg = first; rawSeg <= last; rawSeg++) {
+                double rawValue = rawValues[(int) rawSeg];
+                if (!Double.isNaN(rawValue)) {
+                    sum = Util.sum(sum, rawStep * rawValue);
+                    weight = Util.sum(weight, rawStep);
+                }
             }
+            values[seg] = Double.isNaN(weight) ? Double.NaN : sum / weight;
         }
-        return values;
     }
 
-    private static double[] getCopyOf(double[] rawValues) {
-        int n = rawValues.length;
-        double[] values = new double[n];
-        System.arraycopy(rawValues, 0, values, 0, n);
-        return values;
+    // any steps, the fetched steps overlapping each step following the first one ending after its start
+    private void normalizeFromOverlaps(Timeline rawTimeline, double[] rawValues, double[] values) {
+        int rawCount = rawTimeline.getCount();
+        long rawStep = rawTimeline.getStep();
+        for (int seg = 0; seg < count; seg++) {
+            long right = timeline.getTimestamp(seg);
+            long left = right - step;
+            int first = (int) Math.min(Math.max(rawTimeline.getIndex(left + 1), 0), rawCount);
+            double sum = Double.NaN;
+            double weight = Double.NaN;
+            for (int i = first; i < rawCount && rawTimeline.getTimestamp(i) - rawStep < right; i++) {
+                double rawValue = rawValues[i];
+                if (!Double.isNaN(rawValue)) {
+                    long rawTimestamp = rawTimeline.getTimestamp(i);
+                    long overlap = Math.min(rawTimestamp, right) - Math.max(rawTimestamp - rawStep, left);
+                    sum = Util.sum(sum, overlap * rawValue);
+                    weight = Util.sum(weight, overlap);
+                }
+            }
+            values[seg] = Double.isNaN(weight) ? Double.NaN : sum / weight;
+        }
     }
 }
-
@@ -1,5 +1,7 @@
 package org.rrd4j.data;
 
+import org.rrd4j.core.Timeline;
+
 class PDef extends Source implements NonRrdSource  {
     private final Plottable plottable;
 
@@ -10,10 +12,10 @@ class PDef extends Source implements NonRrdSource  {
 
     /** {@inheritDoc} */
     public void calculate(long tStart, long tEnd, DataProcessor dataProcessor) {
-        long[] times = getTimestamps();
-        double[] vals = new double[times.length];
-        for (int i = 0; i < times.length; i++) {
-            vals[i] = plottable.getValue(times[i]);
+        Timeline timeline = getTimeline();
+        double[] vals = new double[timeline.getCount()];
+        for (int i = 0; i < vals.length; i++) {
+            vals[i] = plottable.getValue(timeline.getTimestamp(i));
         }
         setValues(vals);
     }
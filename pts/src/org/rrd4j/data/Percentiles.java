@@ -0,0 +1,163 @@
+package org.rrd4j.data;
+
+/**
+ * Selects the values of given ranks, in the order used by rrdtool for percentiles, where
+ * NaN &lt; -INF &lt; finite values &lt; INF, and equal values are ordered by timestamp.
+ * <p>
+ * The values and their timestamps are reordered in place, without allocating, by an introselect:
+ * a quickselect partitioning around medians of three, which sorts the remaining range by a heapsort
+ * when the partitions keep being unbalanced, so it runs in linear time on average and never worse
+ * than in O(n log n). Many ranks are selected in the same pass, each partition being only searched
+ * for the ranks it holds.
+ */
+final class Percentiles {
+    // ranges up to this size are sorted by insertions
+    private static final int INSERTION_SORT_SIZE = 16;
+
+    private Percentiles() {
+    }
+
+    /**
+     * Compares two timestamped values in the rrdtool percentile order.
+     *
+     * @param value1     the first value.
+     * @param timestamp1 the timestamp of the first value.
+     * @param value2     the second value.
+     * @param timestamp2 the timestamp of the second value.
+     * @return a negative number, zero or a positive number as the first value is lower, equal or greater.
+     */
+    static int compare(double value1, long timestamp1, double value2, long timestamp2) {
+        boolean nan1 = Double.isNaN(value1);
+        boolean nan2 = Double.isNaN(value2);
+        int compared;
+        if (nan1 || nan2) {
+            compared = nan1 == nan2 ? 0 : nan1 ? -1 : 1;
+        }
+        else {
+            compared = Double.compare(value1, value2);
+        }
+        return compared != 0 ? compared : Long.compare(timestamp1, timestamp2);
+    }
+
+    /**
+     * Moves the values of the given ranks, with their timestamps, to the places they would have if the
+     * values were sorted, the lower values being before and the greater ones after each of them.
+     *
+     * @param timestamps the timestamps of the values, reordered with them.
+     * @param values     the values.
+     * @param count      the number of values, from the first one.
+     * @param ranks      the ranks, in increasing order, the ones out of the values being ignored.
+     */
+    static void select(long[] timestamps, double[] values, int count, int[] ranks) {
+        int rlo = 0;
+        int rhi = ranks.length;
+        while (rlo < rhi && ranks[rlo] < 0) {
+            rlo++;
+        }
+        while (rhi > rlo && ranks[rhi - 1] >= count) {
+            rhi--;
+        }
+        int depth = 2 * (32 - Integer.numberOfLeadingZeros(count));
+        select(timestamps, values, 0, count, ranks, rlo, rhi, depth);
+    }
+
+    private static void select(long[] timestamps, double[] values, int lo, int hi, int[] ranks, int rlo, int rhi, int depth) {
+        while (rlo < rhi && hi - lo > 1) {
+            if (hi - lo <= INSERTION_SORT_SIZE) {
+                insertionSort(timestamps, values, lo, hi);
+                return;
+            }
+            if (depth-- == 0) {
+                heapSort(timestamps, values, lo, hi);
+                return;
+            }
+            int pivot = partition(timestamps, values, lo, hi);
+            int left = rlo;
+            while (left < rhi && ranks[left] < pivot) {
+                left++;
+            }
+            int right = left;
+            while (right < rhi && ranks[right] <= pivot) {
+                right++;
+            }
+            select(timestamps, values, lo, pivot, ranks, rlo, left, depth);
+            lo = pivot + 1;
+            rlo = right;
+        }
+    }
+
+    // partitions around the median of the first, middle and last values, returns the place of the pivot
+    private static int partition(long[] timestamps, double[] values, int lo, int hi) {
+        int last = hi - 1;
+        int mid = (lo + hi) >>> 1;
+        if (compare(values[mid], timestamps[mid], values[lo], timestamps[lo]) < 0) {
+            swap(timestamps, values, mid, lo);
+        }
+        if (compare(values[last], timestamps[last], values[mid], timestamps[mid]) < 0) {
+            swap(timestamps, values, last, mid);
+            if (compare(values[mid], timestamps[mid], values[lo], timestamps[lo]) < 0) {
+                swap(timestamps, values, mid, lo);
+            }
+        }
+        swap(timestamps, values, mid, last);
+        double pivotValue = values[last];
+        long pivotTimestamp = timestamps[last];
+        int store = lo;
+        for (int i = lo; i < last; i++) {
+            if (compare(values[i], timestamps[i], pivotValue, pivotTimestamp) < 0) {
+                swap(timestamps, values, i, store++);
+            }
+        }
+        swap(timestamps, values, store, last);
+        return store;
+    }
+
+    private static void insertionSort(long[] timestamps, double[] values, int lo, int hi) {
+        for (int i = lo + 1; i < hi; i++) {
+            double value = values[i];
+            long timestamp = timestamps[i];
+            int j = i;
+            while (j > lo && compare(value, timestamp, values[j - 1], timestamps[j - 1]) < 0) {
+                values[j] = values[j - 1];
+                timestamps[j] = timestamps[j - 1];
+                j--;
+            }
+            values[j] = value;
+            timestamps[j] = timestamp;
+        }
+    }
+
+    private static void heapSort(long[] timestamps, double[] values, int lo, int hi) {
+        int n = hi - lo;
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(timestamps, values, lo, i, n);
+        }
+        for (int i = n - 1; i > 0; i--) {
+            swap(timestamps, values, lo, lo + i);
+            siftDown(timestamps, values, lo, 0, i);
+        }
+    }
+
+    private static void siftDown(long[] timestamps, double[] values, int lo, int i, int n) {
+        while (2 * i + 1 < n) {
+            int child = lo + 2 * i + 1;
+            if (2 * i + 2 < n && compare(values[child + 1], timestamps[child + 1], values[child], timestamps[child]) > 0) {
+                child++;
+            }
+            if (compare(values[lo + i], timestamps[lo + i], values[child], timestamps[child]) >= 0) {
+                return;
+            }
+            swap(timestamps, values, lo + i, child);
+            i = child - lo;
+        }
+    }
+
+    private static void swap(long[] timestamps, double[] values, int i, int j) {
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+        long timestamp = timestamps[i];
+        timestamps[i] = timestamps[j];
+        timestamps[j] = timestamp;
+    }
+}
@@ -0,0 +1,309 @@
+package org.rrd4j.data;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.rrd4j.core.FetchData;
+import org.rrd4j.core.Robin;
+
+/**
+ * Mergeable sketch of the distribution of values, to calculate approximate percentiles of more values
+ * than could be kept, like the values of many RRDs over a long period.
+ * <p>
+ * It's a KLL sketch: the values are added to a first level of buffers; a full level is sorted and
+ * every other value is kept in the next level, counting twice, and the capacity of the levels
+ * decreases by 2/3 from the top level down. It keeps about 3 * k values, whatever the count of values
+ * added, and a percentile is the value at the rank asked with an error of about 1.7% of the values
+ * for k = 200, the error decreasing as k grows. The minimum and maximum are exact. NaN values are
+ * ignored, like with {@link Variable.PERCENTILENAN}.
+ * <p>
+ * A sketch is not thread safe. To sketch many RRDs in parallel, each thread fills its own sketch,
+ * and the sketches are then merged with {@link #merge(QuantileSketch)}. The values are compacted with
+ * a deterministic sequence, so the same values added in the same order give the same percentiles.
+ */
+public class QuantileSketch {
+    /**
+     * Default accuracy parameter: 200.
+     */
+    public static final int DEFAULT_K = 200;
+
+    private static final int MIN_K = 8;
+    private static final double DECAY = 2.0 / 3.0;
+
+    private final int k;
+    private double[][] levels = new double[1][];
+    private int[] sizes = new int[1];
+    private long count = 0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    // state of the xorshift generator choosing the values kept by compactions
+    private long random = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Creates an empty sketch, with an accuracy parameter of {@link #DEFAULT_K}.
+     */
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param k the accuracy parameter, the rank error being about 3.3 / k of the values.
+     */
+    public QuantileSketch(int k) {
+        if (k < MIN_K) {
+            throw new IllegalArgumentException("Invalid sketch accuracy: " + k + ", should be at least " + MIN_K);
+        }
+        this.k = k;
+        levels[0] = new double[k];
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value the value, ignored if NaN.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (count++ == 0) {
+            min = max = value;
+        }
+        else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        append(0, value);
+        if (sizes[0] >= capacity(0)) {
+            compress();
+        }
+    }
+
+    /**
+     * Adds values.
+     *
+     * @param values the values, the NaN ones being ignored.
+     */
+    public void add(double[] values) {
+        for (double value : values) {
+            add(value);
+        }
+    }
+
+    /**
+     * Adds the values of a datasource fetched.
+     *
+     * @param fetchData the data fetched.
+     * @param dsName    the datasource name.
+     */
+    public void add(FetchData fetchData, String dsName) {
+        add(fetchData.getValues(dsName));
+    }
+
+    /**
+     * Adds all the values stored by an archive for a datasource, without fetching them.
+     *
+     * @param robin the archived values of the datasource, from {@link org.rrd4j.core.Archive#getRobin(int)}.
+     * @throws java.io.IOException Thrown in case of I/O error.
+     */
+    public void add(Robin robin) throws IOException {
+        add(robin.getValues());
+    }
+
+    /**
+     * Adds the values of another sketch to this one. The other sketch is left unchanged, unless it's this
+     * one, whose values then count twice.
+     *
+     * @param other the sketch merged.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        }
+        else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        count += other.count;
+        // the other sketch may be this one, growing while its values are appended
+        double[][] otherLevels = other.levels.clone();
+        int[] otherSizes = other.sizes.clone();
+        while (levels.length < otherLevels.length) {
+            addLevel();
+        }
+        for (int level = 0; level < otherLevels.length; level++) {
+            for (int i = 0; i < otherSizes[level]; i++) {
+                append(level, otherLevels[level][i]);
+            }
+        }
+        compress();
+    }
+
+    /**
+     * Returns the number of values added, NaN excluded.
+     *
+     * @return the number of values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the smallest value added.
+     *
+     * @return the minimum, NaN if no value was added.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the greatest value added.
+     *
+     * @return the maximum, NaN if no value was added.
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the number of values kept by the sketch.
+     *
+     * @return the number of values kept.
+     */
+    public int getRetainedCount() {
+        int retained = 0;
+        for (int size : sizes) {
+            retained += size;
+        }
+        return retained;
+    }
+
+    /**
+     * Returns the approximate value at a percentile, the value at the same rank than
+     * {@link Variable.PERCENTILENAN} would choose.
+     *
+     * @param percentile the percentile, between zero and 100.
+     * @return the value, NaN if no value was added.
+     */
+    public double getPercentile(double percentile) {
+        return getPercentiles(percentile)[0];
+    }
+
+    /**
+     * Returns the approximate values at many percentiles, in the same pass.
+     *
+     * @param percentiles the percentiles, between zero and 100.
+     * @return the values, NaN if no value was added.
+     */
+    public double[] getPercentiles(double... percentiles) {
+        long[] ranks = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            if (!(percentiles[i] >= 0.0 && percentiles[i] <= 100.0)) {
+                throw new IllegalArgumentException("Invalid percentile [" + percentiles[i] + "], should be between 0 and 100");
+            }
+            ranks[i] = Math.round(percentiles[i] * (count - 1) / 100.0);
+        }
+        double[] results = new double[percentiles.length];
+        Arrays.fill(results, Double.NaN);
+        if (count == 0) {
+            return results;
+        }
+        // the levels sorted, merged in increasing order, each value counting 2^level
+        double[][] sorted = new double[levels.length][];
+        for (int level = 0; level < levels.length; level++) {
+            sorted[level] = Arrays.copyOf(levels[level], sizes[level]);
+            Arrays.sort(sorted[level]);
+        }
+        int[] heads = new int[levels.length];
+        long weight = 0;
+        while (true) {
+            int next = -1;
+            for (int level = 0; level < levels.length; level++) {
+                if (heads[level] < sorted[level].length
+                        && (next < 0 || sorted[level][heads[level]] < sorted[next][heads[next]])) {
+                    next = level;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            double value = sorted[next][heads[next]++];
+            weight += 1L << next;
+            for (int i = 0; i < ranks.length; i++) {
+                if (Double.isNaN(results[i]) && ranks[i] < weight) {
+                    results[i] = value;
+                }
+            }
+        }
+        // the extremes are exact
+        for (int i = 0; i < ranks.length; i++) {
+            if (ranks[i] <= 0) {
+                results[i] = min;
+            }
+            else if (ranks[i] >= count - 1) {
+                results[i] = max;
+            }
+        }
+        return results;
+    }
+
+    private int capacity(int level) {
+        int depth = levels.length - 1 - level;
+        return Math.max(2, (int) Math.ceil(k * Math.pow(DECAY, depth)));
+    }
+
+    private void addLevel() {
+        int level = levels.length;
+        levels = Arrays.copyOf(levels, level + 1);
+        sizes = Arrays.copyOf(sizes, level + 1);
+        levels[level] = new double[MIN_K];
+    }
+
+    private void append(int level, double value) {
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], 2 * sizes[level]);
+        }
+        levels[level][sizes[level]++] = value;
+    }
+
+    // compacts the levels over their capacity, from the bottom up as each compaction fills the next level
+    private void compress() {
+        for (int level = 0; level < levels.length; level++) {
+            if (sizes[level] >= capacity(level)) {
+                if (level + 1 == levels.length) {
+                    addLevel();
+                }
+                compact(level);
+            }
+        }
+    }
+
+    // keeps every other value of the level sorted in the next level, an odd one staying
+    private void compact(int level) {
+        double[] items = levels[level];
+        int size = sizes[level];
+        Arrays.sort(items, 0, size);
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        int offset = (int) (random & 1);
+        int even = size & ~1;
+        for (int i = offset; i < even; i += 2) {
+            append(level + 1, items[i]);
+        }
+        if (size != even) {
+            items[0] = items[size - 1];
+            sizes[level] = 1;
+        }
+        else {
+            sizes[level] = 0;
+        }
+    }
+}
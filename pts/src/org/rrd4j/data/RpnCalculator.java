@@ -3,9 +3,16 @@ package org.rrd4j.data;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
+import org.rrd4j.core.Timeline;
 import org.rrd4j.core.Util;
 
 import com.tomgibara.crinch.hashing.PerfectStringHash;
@@ -389,14 +396,15 @@ class RpnCalculator {
         TKN_TIME("TIME") {
             @Override
             void do_method(RpnCalculator c, State s) {
-                c.push(c.timestamps[s.slot]);
+                c.push(c.timeline.getTimestamp(s.slot));
             }
         },
         TKN_LTIME("LTIME") {
             @Override
             void do_method(RpnCalculator c, State s) {
                 TimeZone tz = s.getTimeZone();
-                c.push(c.timestamps[s.slot] + (long) (tz.getOffset(c.timestamps[s.slot]) / 1000L));
+                long timestamp = c.timeline.getTimestamp(s.slot);
+                c.push(timestamp + (long) (tz.getOffset(timestamp) / 1000L));
             }
         },
         TKN_YEAR("YEAR") {
@@ -520,23 +528,20 @@ class RpnCalculator {
                 } else {
                     double[] vals = c.dataProcessor.getValues(c.tokens[s.token_rpi].variable);
                     boolean ignorenan = s.token.id == TKN_TRENDNAN;
-                    double accum = 0.0;
-                    int count = 0;
-
-                    int start = (int) (Math.ceil(dur / c.timeStep));
-                    int row = 2;
-                    while ((s.slot + row) > vals.length) {
-                        row --;
+                    int width = (int) (Math.ceil(dur / c.timeStep));
+                    Token token = s.token;
+                    // all the slots are calculated at once, as long as the window doesn't change
+                    if (token.window == null) {
+                        token.window = trends(vals, c.timeline.getCount(), width, ignorenan);
+                        token.windowSource = vals;
+                        token.windowWidth = width;
                     }
-
-                    for(; start > 0; start--) {
-                        double val = vals[s.slot + row - start];
-                        if (ignorenan || !Double.isNaN(val)) {
-                            accum = Util.sum(accum, val);
-                            ++count;
-                        }
+                    if (token.windowSource == vals && token.windowWidth == width) {
+                        c.push(token.window[s.slot]);
+                    }
+                    else {
+                        c.push(trend(vals, s.slot, width, ignorenan));
                     }
-                    c.push((count == 0) ? Double.NaN : (accum / count));
                 }
             }
         },
@@ -568,21 +573,14 @@ class RpnCalculator {
                     }
                 }
 
-                /* the real calculation */
-                double val = Double.NaN;
-
                 /* the info on the datasource */
                 double[] vals = c.dataProcessor.getValues(c.tokens[s.rpi-1].variable);
 
                 int locstep = (int) Math.ceil((float) locstepsize / (float) c.timeStep);
 
-                /* the sums */
-                double sum = 0;
-                double sum2 = 0;
-                int count = 0;
-
-                /* now loop for each position */
+                /* the shift steps */
                 int doshifts = Math.abs(num_shifts);
+                int[] shiftsteps = new int[doshifts];
                 for (int loop = 0; loop < doshifts; loop++) {
                     /* calculate shift step */
                     int shiftstep;
@@ -594,39 +592,9 @@ class RpnCalculator {
                     if (shiftstep < 0) {
                         throw new RuntimeException("negative shift step not allowed: " + shiftstep);
                     }
-                    shiftstep = (int) Math.ceil((float) shiftstep / (float) c.timeStep);
-                    /* loop all local shifts */
-                    for (int i = 0; i <= locstep; i++) {
-                        int offset = shiftstep + i;
-                        if ((offset >= 0) && (offset < s.slot)) {
-                            /* get the value */
-                            val = vals[s.slot - offset];
-
-                            /* and handle the non NAN case only*/
-                            if (!Double.isNaN(val)) {
-                                sum = Util.sum(sum, val);
-                                sum2 = Util.sum(sum2, val * val);
-                                count++;
-                            }
-                        }
-                    }
-                }
-                /* do the final calculations */
-                val = Double.NaN;
-                if (s.token.id == TKN_PREDICT) {  /* the average */
-                    if (count > 0) {
-                        val = sum / (double) count;
-                    }
-                } else {
-                    if (count > 1) { /* the sigma case */
-                        val = count * sum2 - sum * sum;
-                        if (val < 0) {
-                            val = Double.NaN;
-                        } else {
-                            val = Math.sqrt(val / ((float) count * ((float) count - 1.0)));
-                        }
-                    }
+                    shiftsteps[loop] = (int) Math.ceil((float) shiftstep / (float) c.timeStep);
                 }
+                double val = c.predictFromSums(vals, s.slot, shiftsteps, locstep, s.token.id == TKN_PREDICTSIGMA);
                 c.push(val);
             }
 
@@ -674,17 +642,27 @@ class RpnCalculator {
     private final Token[] tokens;
     private final RpnStack stack = new RpnStack();
     private final double[] calculatedValues;
-    private final long[] timestamps;
+    private final Timeline timeline;
     private final double timeStep;
     private final List<String> sourcesNames;
+    private final Map<double[], PrefixSums> prefixSums = new IdentityHashMap<double[], PrefixSums>();
+    private final Expressions expressions;
+    private final boolean counting;
 
     RpnCalculator(String rpnExpression, String sourceName, DataProcessor dataProcessor) {
+        this(rpnExpression, sourceName, dataProcessor, false);
+    }
+
+    // when counting the sub-expressions, the values of the sources are not read, they may be not calculated yet
+    private RpnCalculator(String rpnExpression, String sourceName, DataProcessor dataProcessor, boolean counting) {
         this.rpnExpression = rpnExpression;
         this.sourceName = sourceName;
         this.dataProcessor = dataProcessor;
-        this.timestamps = dataProcessor.getTimestamps();
-        this.timeStep = this.timestamps[1] - this.timestamps[0];
-        this.calculatedValues = new double[this.timestamps.length];
+        this.expressions = dataProcessor.getExpressions();
+        this.counting = counting;
+        this.timeline = dataProcessor.getTimeline();
+        this.timeStep = this.timeline.getStep();
+        this.calculatedValues = new double[this.timeline.getCount()];
         this.sourcesNames = Arrays.asList(dataProcessor.getSourceNames());
         String[] tokensString = rpnExpression.split(" *, *");
         tokens = new Token[tokensString.length];
@@ -696,21 +674,22 @@ class RpnCalculator {
     private Token createToken(String parsedText) {
         Token token;
         int hash = perfect.hashAsInt(parsedText);
-        if (hash >= 0 ){
-            token = new Token(symbols[hash]);
-        }
-        else if (parsedText.equals("PREV")) {
+        // PREV is also a symbol, it reads the values calculated
+        if (parsedText.equals("PREV")) {
             token = new Token(Token_Symbol.TKN_PREV, sourceName, calculatedValues);
         }
+        else if (hash >= 0 ){
+            token = new Token(symbols[hash]);
+        }
         else if (parsedText.startsWith("PREV(") && parsedText.endsWith(")")) {
             String variable = parsedText.substring(5, parsedText.length() - 1);
-            token = new Token(Token_Symbol.TKN_PREV, variable, dataProcessor.getValues(variable));
+            token = new Token(Token_Symbol.TKN_PREV, variable, counting ? null : dataProcessor.getValues(variable));
         }
         else if (Util.isDouble(parsedText)) {
             token = new Token(Token_Symbol.TKN_NUM, Util.parseDouble(parsedText));
         }
         else if (sourcesNames.contains(parsedText)){
-            token = new Token(Token_Symbol.TKN_VAR, parsedText, dataProcessor.getValues(parsedText));
+            token = new Token(Token_Symbol.TKN_VAR, parsedText, counting ? null : dataProcessor.getValues(parsedText));
         }
         else {
             throw new IllegalArgumentException("Unexpected RPN token encountered: " +  parsedText);
@@ -719,8 +698,18 @@ class RpnCalculator {
     }
 
     double[] calculateValues() {
+        Node root = compile();
+        if (root == null) {
+            return interpretValues();
+        }
+        System.arraycopy(root.getColumn(this), 0, calculatedValues, 0, calculatedValues.length);
+        return calculatedValues;
+    }
+
+    // evaluates the whole expression once per slot
+    double[] interpretValues() {
         State s = new State();
-        for (int slot = 0; slot < timestamps.length; slot++) {
+        for (int slot = 0; slot < timeline.getCount(); slot++) {
             resetStack();
             s.rpi = 0;
             s.token_rpi = -1;
@@ -740,6 +729,496 @@ class RpnCalculator {
         return calculatedValues;
     }
 
+    /**
+     * Compiles the expression into a tree of nodes evaluated a column at a time, one operator per loop
+     * over all the slots, with the same results as the interpreter. The stack errors are the ones the
+     * interpreter reports on the first slot.
+     *
+     * @return the root of the tree, or null if the expression uses a token that depends on the values
+     * already calculated, on the order of evaluation or on a count read from the data, and must be interpreted.
+     */
+    private Node compile() {
+        List<Node> stack = new ArrayList<Node>();
+        for (Token token : tokens) {
+            switch (token.id) {
+            case TKN_VAR:
+                push(stack, new Column(token.variable, token.values));
+                break;
+            case TKN_NUM:
+                push(stack, intern(new Constant(token.number)));
+                break;
+            case TKN_UNKN:
+                push(stack, intern(new Constant(Double.NaN)));
+                break;
+            case TKN_PI:
+                push(stack, intern(new Constant(Math.PI)));
+                break;
+            case TKN_E:
+                push(stack, intern(new Constant(Math.E)));
+                break;
+            case TKN_INF:
+                push(stack, intern(new Constant(Double.POSITIVE_INFINITY)));
+                break;
+            case TKN_NEGINF:
+                push(stack, intern(new Constant(Double.NEGATIVE_INFINITY)));
+                break;
+            case TKN_STEP:
+                push(stack, intern(new Constant(timeStep)));
+                break;
+            case TKN_COUNT:
+            case TKN_TIME:
+            case TKN_LTIME:
+                push(stack, intern(new Slot(token.id)));
+                break;
+            case TKN_PREV:
+                // PREV of the values calculated is interpreted
+                if (token.variable.isEmpty() || token.values == calculatedValues) {
+                    return null;
+                }
+                push(stack, intern(new Previous(token.variable, token.values)));
+                break;
+            case TKN_DUP:
+                if (stack.isEmpty()) {
+                    throw new IllegalArgumentException("PEEK failed, RPN stack is empty");
+                }
+                push(stack, stack.get(stack.size() - 1));
+                break;
+            case TKN_EXC: {
+                Node x2 = pop(stack);
+                Node x1 = pop(stack);
+                push(stack, x2);
+                push(stack, x1);
+                break;
+            }
+            case TKN_POP:
+                pop(stack);
+                break;
+            case TKN_SORT:
+            case TKN_REV:
+            case TKN_AVG: {
+                Node countNode = pop(stack);
+                if (!(countNode instanceof Constant)) {
+                    return null;
+                }
+                int n = (int) ((Constant) countNode).value;
+                if (n < 0 && token.id != Token_Symbol.TKN_AVG) {
+                    return null;
+                }
+                // operands from the top of the stack
+                Node[] operands = new Node[Math.max(n, 0)];
+                for (int i = 0; i < operands.length; i++) {
+                    operands[i] = pop(stack);
+                }
+                if (token.id == Token_Symbol.TKN_AVG) {
+                    push(stack, intern(new Average(operands)));
+                }
+                else if (token.id == Token_Symbol.TKN_REV) {
+                    for (Node operand : operands) {
+                        push(stack, operand);
+                    }
+                }
+                else {
+                    Sort sort = new Sort(operands);
+                    for (int i = 0; i < operands.length; i++) {
+                        push(stack, intern(new Sorted(sort, i)));
+                    }
+                }
+                break;
+            }
+            case TKN_SIN:
+            case TKN_COS:
+            case TKN_LOG:
+            case TKN_EXP:
+            case TKN_SQRT:
+            case TKN_ATAN:
+            case TKN_FLOOR:
+            case TKN_CEIL:
+            case TKN_DEG2RAD:
+            case TKN_RAD2DEG:
+            case TKN_ROUND:
+            case TKN_ABS:
+            case TKN_UN:
+            case TKN_ISINF:
+            case TKN_SIGN:
+            case TKN_YEAR:
+            case TKN_MONTH:
+            case TKN_DATE:
+            case TKN_HOUR:
+            case TKN_MINUTE:
+            case TKN_SECOND:
+            case TKN_WEEK:
+                push(stack, intern(new Unary(token.id, pop(stack))));
+                break;
+            case TKN_PLUS:
+            case TKN_ADDNAN:
+            case TKN_MINUS:
+            case TKN_MULT:
+            case TKN_DIV:
+            case TKN_MOD:
+            case TKN_ATAN2:
+            case TKN_POW:
+            case TKN_LT:
+            case TKN_LE:
+            case TKN_GT:
+            case TKN_GE:
+            case TKN_EQ:
+            case TKN_NE:
+            case TKN_MIN:
+            case TKN_MAX:
+            case TKN_MINNAN:
+            case TKN_MAXNAN:
+            case TKN_AND:
+            case TKN_OR:
+            case TKN_XOR: {
+                Node x2 = pop(stack);
+                Node x1 = pop(stack);
+                push(stack, intern(new Binary(token.id, x1, x2)));
+                break;
+            }
+            case TKN_IF:
+            case TKN_LIMIT: {
+                Node x3 = pop(stack);
+                Node x2 = pop(stack);
+                Node x1 = pop(stack);
+                push(stack, intern(new Ternary(token.id, x1, x2, x3)));
+                break;
+            }
+            default:
+                // PREV, NOW, RANDOM, RND, TREND and PREDICT
+                return null;
+            }
+        }
+        Node root = pop(stack);
+        if (!stack.isEmpty()) {
+            throw new IllegalArgumentException("Stack not empty at the end of calculation. " +
+                    "Probably bad RPN expression [" + rpnExpression + "]");
+        }
+        return root;
+    }
+
+    private static void push(List<Node> stack, Node node) {
+        if (stack.size() >= RpnStack.MAX_STACK_SIZE) {
+            throw new IllegalArgumentException("PUSH failed, RPN stack full [" + RpnStack.MAX_STACK_SIZE + "]");
+        }
+        stack.add(node);
+    }
+
+    private static Node pop(List<Node> stack) {
+        if (stack.isEmpty()) {
+            throw new IllegalArgumentException("POP failed, RPN stack is empty");
+        }
+        return stack.remove(stack.size() - 1);
+    }
+
+    // the node of the same sub-expression in another expression, or in this one
+    private Node intern(Node node) {
+        if (expressions == null) {
+            return node;
+        }
+        return counting ? expressions.count(node) : expressions.share(node);
+    }
+
+    /**
+     * Finds the sources read by an expression, the ones it depends on.
+     *
+     * @param rpnExpression the expression.
+     * @param sourceNames   the names of all the sources.
+     * @return the names of the sources read, the unknown tokens being ignored.
+     */
+    static Set<String> getSourceNames(String rpnExpression, Collection<String> sourceNames) {
+        Set<String> names = new LinkedHashSet<String>();
+        for (String tokenString : rpnExpression.split(" *, *")) {
+            String parsedText = tokenString.trim();
+            if (perfect.hashAsInt(parsedText) >= 0) {
+                continue;
+            }
+            if (parsedText.startsWith("PREV(") && parsedText.endsWith(")")) {
+                names.add(parsedText.substring(5, parsedText.length() - 1));
+            }
+            else if (!Util.isDouble(parsedText) && sourceNames.contains(parsedText)) {
+                names.add(parsedText);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * The sub-expressions of the expressions calculated together by a data processor. The expressions are
+     * first compiled to count the nodes of each sub-expression, without reading their sources; then the
+     * nodes of a sub-expression found more than once, in many expressions or in the same one, are shared
+     * when they are compiled again to be calculated, so that it's evaluated once, and kept until its last use.
+     */
+    static final class Expressions {
+        // the number of nodes of each sub-expression left to compile
+        private final Map<String, Integer> remaining = new HashMap<String, Integer>();
+        private final Map<String, Node> shared = new HashMap<String, Node>();
+
+        /**
+         * Counts the sub-expressions of an expression to calculate later.
+         *
+         * @param rpnExpression the expression.
+         * @param sourceName    the name of its source.
+         * @param dataProcessor the data processor calculating it.
+         */
+        void count(String rpnExpression, String sourceName, DataProcessor dataProcessor) {
+            try {
+                new RpnCalculator(rpnExpression, sourceName, dataProcessor, true).compile();
+            }
+            catch (IllegalArgumentException e) {
+                // reported when calculated
+            }
+        }
+
+        private Node count(Node node) {
+            if (!(node instanceof Column)) {
+                Integer count = remaining.get(node.key);
+                remaining.put(node.key, count == null ? 1 : count + 1);
+            }
+            return node;
+        }
+
+        // the expressions may be calculated in parallel
+        private synchronized Node share(Node node) {
+            Integer count = remaining.get(node.key);
+            if (count == null || node instanceof Column) {
+                return node;
+            }
+            Node sharedNode = shared.get(node.key);
+            if (count > 1) {
+                remaining.put(node.key, count - 1);
+                if (sharedNode == null) {
+                    shared.put(node.key, node);
+                }
+            }
+            else {
+                remaining.remove(node.key);
+                shared.remove(node.key);
+            }
+            return sharedNode != null ? sharedNode : node;
+        }
+    }
+
+    /**
+     * Calculates the TREND of a slot, the average of the <code>width</code> values up to two slots
+     * after it.
+     *
+     * @param vals      the values averaged.
+     * @param slot      the slot.
+     * @param width     the number of values averaged.
+     * @param ignorenan true for TRENDNAN, which divides by the width instead of the number of values
+     *                  not NaN.
+     * @return the average.
+     */
+    static double trend(double[] vals, int slot, int width, boolean ignorenan) {
+        double accum = 0.0;
+        int count = 0;
+
+        int start = width;
+        int row = 2;
+        while ((slot + row) > vals.length) {
+            row --;
+        }
+
+        for(; start > 0; start--) {
+            double val = vals[slot + row - start];
+            if (ignorenan || !Double.isNaN(val)) {
+                accum = Util.sum(accum, val);
+                ++count;
+            }
+        }
+        return (count == 0) ? Double.NaN : (accum / count);
+    }
+
+    /**
+     * Calculates the TREND of all the slots, like {@link #trend(double[], int, int, boolean)} but
+     * with a window sliding from slot to slot. The sum of the window is calculated again once the
+     * window has slid over its width, so that the rounding errors don't add up, and for a window
+     * holding both infinities or overflowing.
+     *
+     * @param vals      the values averaged.
+     * @param slots     the number of slots.
+     * @param width     the number of values averaged.
+     * @param ignorenan true for TRENDNAN.
+     * @return the averages, NaN for the slots before the first complete window.
+     */
+    static double[] trends(double[] vals, int slots, int width, boolean ignorenan) {
+        double[] trends = new double[slots];
+        Arrays.fill(trends, Double.NaN);
+        if (width <= 0) {
+            return trends;
+        }
+        // the finite values of the window are summed, the others are counted
+        double sum = 0.0;
+        int valid = 0, positive = 0, negative = 0;
+        int lo = 0, hi = 0, slid = 0;
+        for (int slot = width - 1; slot < slots; slot++) {
+            int row = 2;
+            while ((slot + row) > vals.length) {
+                row --;
+            }
+            for (; hi < slot + row; hi++) {
+                double val = vals[hi];
+                if (!Double.isNaN(val)) {
+                    valid++;
+                    if (val == Double.POSITIVE_INFINITY) {
+                        positive++;
+                    }
+                    else if (val == Double.NEGATIVE_INFINITY) {
+                        negative++;
+                    }
+                    else {
+                        sum += val;
+                    }
+                }
+            }
+            for (; lo < hi - width; lo++) {
+                double val = vals[lo];
+                if (!Double.isNaN(val)) {
+                    valid--;
+                    if (val == Double.POSITIVE_INFINITY) {
+                        positive--;
+                    }
+                    else if (val == Double.NEGATIVE_INFINITY) {
+                        negative--;
+                    }
+                    else {
+                        sum -= val;
+                    }
+                }
+                slid++;
+            }
+            if (slid >= width) {
+                sum = 0.0;
+                for (int i = lo; i < hi; i++) {
+                    if (!Double.isInfinite(vals[i])) {
+                        sum = Util.sum(sum, vals[i]);
+                    }
+                }
+                slid = 0;
+            }
+            if ((positive > 0 && negative > 0) || Double.isInfinite(sum)) {
+                trends[slot] = trend(vals, slot, width, ignorenan);
+            }
+            else {
+                double accum = positive > 0 ? Double.POSITIVE_INFINITY : negative > 0 ? Double.NEGATIVE_INFINITY : sum;
+                int count = ignorenan ? width : valid;
+                trends[slot] = (count == 0) ? Double.NaN : (accum / count);
+            }
+        }
+        return trends;
+    }
+
+    /**
+     * Calculates the PREDICT or PREDICTSIGMA of a slot, from the values in the windows of
+     * <code>locstep + 1</code> slots shifted by each of the shift steps before it, excluding the
+     * first slot and the slot itself. A value in many windows is counted as many times.
+     *
+     * @param vals       the values.
+     * @param slot       the slot.
+     * @param shiftsteps the shifts of the windows, in slots.
+     * @param locstep    the width of the windows, minus one.
+     * @param sigma      true for PREDICTSIGMA, the standard deviation instead of the average.
+     * @return the average or the standard deviation.
+     */
+    static double predict(double[] vals, int slot, int[] shiftsteps, int locstep, boolean sigma) {
+        double sum = 0;
+        double sum2 = 0;
+        int count = 0;
+        for (int shiftstep : shiftsteps) {
+            /* loop all local shifts */
+            for (int i = 0; i <= locstep; i++) {
+                int offset = shiftstep + i;
+                if ((offset >= 0) && (offset < slot)) {
+                    /* get the value */
+                    double val = vals[slot - offset];
+
+                    /* and handle the non NAN case only*/
+                    if (!Double.isNaN(val)) {
+                        sum = Util.sum(sum, val);
+                        sum2 = Util.sum(sum2, val * val);
+                        count++;
+                    }
+                }
+            }
+        }
+        return predict(sum, sum2, count, sigma);
+    }
+
+    /* do the final calculations */
+    private static double predict(double sum, double sum2, int count, boolean sigma) {
+        double val = Double.NaN;
+        if (!sigma) {  /* the average */
+            if (count > 0) {
+                val = sum / (double) count;
+            }
+        } else {
+            if (count > 1) { /* the sigma case */
+                val = count * sum2 - sum * sum;
+                if (val < 0) {
+                    val = Double.NaN;
+                } else {
+                    val = Math.sqrt(val / ((float) count * ((float) count - 1.0)));
+                }
+            }
+        }
+        return val;
+    }
+
+    /**
+     * Calculates the PREDICT or PREDICTSIGMA of a slot like {@link #predict(double[], int, int[], int, boolean)},
+     * but summing each window from the prefix sums of the values, calculated once by source. The slot is
+     * calculated value by value when a window holds an infinity, or when the rounding errors of the prefix
+     * sums could exceed a billionth of the result.
+     */
+    private double predictFromSums(double[] vals, int slot, int[] shiftsteps, int locstep, boolean sigma) {
+        PrefixSums sums = prefixSums.get(vals);
+        if (sums == null) {
+            sums = new PrefixSums(vals);
+            prefixSums.put(vals, sums);
+        }
+        double sum = 0;
+        double sum2 = 0;
+        double magnitude = 0;
+        double error = 0;
+        double error2 = 0;
+        int count = 0;
+        for (int shiftstep : shiftsteps) {
+            // the window holds the slots slot - shiftstep - locstep to slot - shiftstep, but the first one
+            int hi = slot - shiftstep + 1;
+            int lo = (int) Math.max((long) slot - shiftstep - locstep, 1);
+            if (locstep < 0 || hi <= lo) {
+                continue;
+            }
+            if (sums.infinite[hi] != sums.infinite[lo]) {
+                return predict(vals, slot, shiftsteps, locstep, sigma);
+            }
+            sum += sums.sums[hi] - sums.sums[lo];
+            sum2 += sums.squares[hi] - sums.squares[lo];
+            magnitude += sums.magnitudes[hi] - sums.magnitudes[lo];
+            error += sums.magnitudes[hi];
+            error2 += sums.squares[hi];
+            count += sums.valid[hi] - sums.valid[lo];
+        }
+        if (count <= (sigma ? 1 : 0) || error == 0) {
+            return predict(sum, sum2, count, sigma);
+        }
+        // the bounds of the rounding errors of the sums
+        error *= PrefixSums.ERROR;
+        error2 *= PrefixSums.ERROR;
+        double tolerance;
+        if (!sigma) {
+            tolerance = error / magnitude;
+        }
+        else {
+            double val = count * sum2 - sum * sum;
+            tolerance = (count * error2 + 2 * Math.abs(sum) * error + error * error) / Math.abs(val);
+        }
+        if (!(tolerance <= 1e-9) || Double.isInfinite(sum2)) {
+            return predict(vals, slot, shiftsteps, locstep, sigma);
+        }
+        return predict(sum, sum2, count, sigma);
+    }
+
     private double getCalendarField(double timestamp, int field) {
         Calendar calendar = Util.getCalendar((long) (timestamp));
         return calendar.get(field);
@@ -800,6 +1279,556 @@ class RpnCalculator {
         }
     }
 
+    /**
+     * A node of a compiled expression, its column holds its values for all the slots. A node used more than
+     * once, after a DUP, is evaluated once.
+     */
+    private abstract static class Node {
+        // the structure of the sub-expression, equal for the nodes calculating the same values
+        final String key;
+        private double[] column;
+
+        Node(String key) {
+            this.key = key;
+        }
+
+        // synchronized as a shared node can be evaluated by expressions calculated in parallel
+        final synchronized double[] getColumn(RpnCalculator c) {
+            if (column == null) {
+                column = evaluate(c);
+            }
+            return column;
+        }
+
+        abstract double[] evaluate(RpnCalculator c);
+    }
+
+    // a source name in a key, prefixed by its length as it could be any text
+    private static String name(String prefix, String variable) {
+        return prefix + variable.length() + ":" + variable;
+    }
+
+    private static String key(String operator, Node[] operands) {
+        StringBuilder key = new StringBuilder(operator).append('(');
+        for (int i = 0; i < operands.length; i++) {
+            key.append(i == 0 ? "" : ",").append(operands[i].key);
+        }
+        return key.append(')').toString();
+    }
+
+    private static final class Constant extends Node {
+        private final double value;
+
+        Constant(double value) {
+            super("#" + value);
+            this.value = value;
+        }
+
+        double[] evaluate(RpnCalculator c) {
+            double[] out = new double[c.timeline.getCount()];
+            Arrays.fill(out, value);
+            return out;
+        }
+    }
+
+    private static final class Column extends Node {
+        private final double[] values;
+
+        Column(String variable, double[] values) {
+            super(name("$", variable));
+            this.values = values;
+        }
+
+        double[] evaluate(RpnCalculator c) {
+            // never written, the nodes write to their own columns
+            return values;
+        }
+    }
+
+    private static final class Previous extends Node {
+        private final double[] values;
+
+        Previous(String variable, double[] values) {
+            super(name("PREV", variable));
+            this.values = values;
+        }
+
+        double[] evaluate(RpnCalculator c) {
+            double[] out = new double[c.timeline.getCount()];
+            out[0] = Double.NaN;
+            System.arraycopy(values, 0, out, 1, out.length - 1);
+            return out;
+        }
+    }
+
+    private static final class Slot extends Node {
+        private final Token_Symbol id;
+
+        Slot(Token_Symbol id) {
+            super(id.name());
+            this.id = id;
+        }
+
+        double[] evaluate(RpnCalculator c) {
+            Timeline timeline = c.timeline;
+            double[] out = new double[timeline.getCount()];
+            switch (id) {
+            case TKN_COUNT:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = i + 1;
+                }
+                break;
+            case TKN_TIME:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = timeline.getTimestamp(i);
+                }
+                break;
+            case TKN_LTIME:
+                TimeZone tz = c.dataProcessor.getTimeZone();
+                for (int i = 0; i < out.length; i++) {
+                    long timestamp = timeline.getTimestamp(i);
+                    out[i] = timestamp + tz.getOffset(timestamp) / 1000L;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected token " + id);
+            }
+            return out;
+        }
+    }
+
+    private static final class Unary extends Node {
+        private final Token_Symbol id;
+        private final Node x1;
+
+        Unary(Token_Symbol id, Node x1) {
+            super(id.name() + "(" + x1.key + ")");
+            this.id = id;
+            this.x1 = x1;
+        }
+
+        double[] evaluate(RpnCalculator c) {
+            double[] a = x1.getColumn(c);
+            double[] out = new double[a.length];
+            switch (id) {
+            case TKN_SIN:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.sin(a[i]);
+                }
+                break;
+            case TKN_COS:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.cos(a[i]);
+                }
+                break;
+            case TKN_LOG:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.log(a[i]);
+                }
+                break;
+            case TKN_EXP:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.exp(a[i]);
+                }
+                break;
+            case TKN_SQRT:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.sqrt(a[i]);
+                }
+                break;
+            case TKN_ATAN:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.atan(a[i]);
+                }
+                break;
+            case TKN_FLOOR:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.floor(a[i]);
+                }
+                break;
+            case TKN_CEIL:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.ceil(a[i]);
+                }
+                break;
+            case TKN_DEG2RAD:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.toRadians(a[i]);
+                }
+                break;
+            case TKN_RAD2DEG:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.toDegrees(a[i]);
+                }
+                break;
+            case TKN_ROUND:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.round(a[i]);
+                }
+                break;
+            case TKN_ABS:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.abs(a[i]);
+                }
+                break;
+            case TKN_UN:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Double.isNaN(a[i]) ? 1 : 0;
+                }
+                break;
+            case TKN_ISINF:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Double.isInfinite(a[i]) ? 1 : 0;
+                }
+                break;
+            case TKN_SIGN:
+                for (int i = 0; i < out.length; i++) {
+                    double x = a[i];
+                    out[i] = Double.isNaN(x) ? Double.NaN : x > 0 ? +1 : x < 0 ? -1 : 0;
+                }
+                break;
+            case TKN_YEAR:
+                calendarField(c, a, out, Calendar.YEAR, 0);
+                break;
+            case TKN_MONTH:
+                calendarField(c, a, out, Calendar.MONTH, 1);
+                break;
+            case TKN_DATE:
+                calendarField(c, a, out, Calendar.DAY_OF_MONTH, 0);
+                break;
+            case TKN_HOUR:
+                calendarField(c, a, out, Calendar.HOUR_OF_DAY, 0);
+                break;
+            case TKN_MINUTE:
+                calendarField(c, a, out, Calendar.MINUTE, 0);
+                break;
+            case TKN_SECOND:
+                calendarField(c, a, out, Calendar.SECOND, 0);
+                break;
+            case TKN_WEEK:
+                calendarField(c, a, out, Calendar.WEEK_OF_YEAR, 0);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected token " + id);
+            }
+            return out;
+        }
+
+        private static void calendarField(RpnCalculator c, double[] a, double[] out, int field, int offset) {
+            for (int i = 0; i < out.length; i++) {
+                out[i] = c.getCalendarField(a[i], field) + offset;
+            }
+        }
+    }
+
+    private static final class Binary extends Node {
+        private final Token_Symbol id;
+        private final Node x1;
+        private final Node x2;
+
+        // x2 is the top of the stack
+        Binary(Token_Symbol id, Node x1, Node x2) {
+            super(id.name() + "(" + x1.key + "," + x2.key + ")");
+            this.id = id;
+            this.x1 = x1;
+            this.x2 = x2;
+        }
+
+        // the operands are in the order of the interpreter, which pops the top of the stack first
+        double[] evaluate(RpnCalculator c) {
+            double[] a = x1.getColumn(c);
+            double[] b = x2.getColumn(c);
+            double[] out = new double[a.length];
+            switch (id) {
+            case TKN_PLUS:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = b[i] + a[i];
+                }
+                break;
+            case TKN_ADDNAN:
+                for (int i = 0; i < out.length; i++) {
+                    double top = b[i];
+                    double below = a[i];
+                    out[i] = Double.isNaN(top) ? below : (Double.isNaN(below) ? top : top + below);
+                }
+                break;
+            case TKN_MINUS:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = a[i] - b[i];
+                }
+                break;
+            case TKN_MULT:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = b[i] * a[i];
+                }
+                break;
+            case TKN_DIV:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = a[i] / b[i];
+                }
+                break;
+            case TKN_MOD:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = a[i] % b[i];
+                }
+                break;
+            case TKN_ATAN2:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.atan2(a[i], b[i]);
+                }
+                break;
+            case TKN_POW:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.pow(a[i], b[i]);
+                }
+                break;
+            case TKN_LT:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = a[i] < b[i] ? 1 : 0;
+                }
+                break;
+            case TKN_LE:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = a[i] <= b[i] ? 1 : 0;
+                }
+                break;
+            case TKN_GT:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = a[i] > b[i] ? 1 : 0;
+                }
+                break;
+            case TKN_GE:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = a[i] >= b[i] ? 1 : 0;
+                }
+                break;
+            case TKN_EQ:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = a[i] == b[i] ? 1 : 0;
+                }
+                break;
+            case TKN_NE:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = a[i] != b[i] ? 1 : 0;
+                }
+                break;
+            case TKN_MIN:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.min(b[i], a[i]);
+                }
+                break;
+            case TKN_MAX:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = Math.max(b[i], a[i]);
+                }
+                break;
+            case TKN_MINNAN:
+                for (int i = 0; i < out.length; i++) {
+                    double top = b[i];
+                    double below = a[i];
+                    out[i] = Double.isNaN(top) ? below : (Double.isNaN(below) ? top : Math.min(top, below));
+                }
+                break;
+            case TKN_MAXNAN:
+                for (int i = 0; i < out.length; i++) {
+                    double top = b[i];
+                    double below = a[i];
+                    out[i] = Double.isNaN(top) ? below : (Double.isNaN(below) ? top : Math.max(top, below));
+                }
+                break;
+            case TKN_AND:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = (a[i] != 0 && b[i] != 0) ? 1 : 0;
+                }
+                break;
+            case TKN_OR:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = (a[i] != 0 || b[i] != 0) ? 1 : 0;
+                }
+                break;
+            case TKN_XOR:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = ((a[i] != 0 && b[i] == 0) || (a[i] == 0 && b[i] != 0)) ? 1 : 0;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected token " + id);
+            }
+            return out;
+        }
+    }
+
+    private static final class Ternary extends Node {
+        private final Token_Symbol id;
+        private final Node x1;
+        private final Node x2;
+        private final Node x3;
+
+        // x3 is the top of the stack
+        Ternary(Token_Symbol id, Node x1, Node x2, Node x3) {
+            super(id.name() + "(" + x1.key + "," + x2.key + "," + x3.key + ")");
+            this.id = id;
+            this.x1 = x1;
+            this.x2 = x2;
+            this.x3 = x3;
+        }
+
+        double[] evaluate(RpnCalculator c) {
+            double[] a = x1.getColumn(c);
+            double[] b = x2.getColumn(c);
+            double[] d = x3.getColumn(c);
+            double[] out = new double[a.length];
+            switch (id) {
+            case TKN_IF:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = a[i] != 0 ? b[i] : d[i];
+                }
+                break;
+            case TKN_LIMIT:
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = a[i] < b[i] || a[i] > d[i] ? Double.NaN : a[i];
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected token " + id);
+            }
+            return out;
+        }
+    }
+
+    private static final class Average extends Node {
+        // from the top of the stack
+        private final Node[] operands;
+
+        Average(Node[] operands) {
+            super(key("AVG", operands));
+            this.operands = operands;
+        }
+
+        double[] evaluate(RpnCalculator c) {
+            double[][] columns = new double[operands.length][];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = operands[i].getColumn(c);
+            }
+            double[] out = new double[c.timeline.getCount()];
+            for (int slot = 0; slot < out.length; slot++) {
+                double sum = 0.0;
+                int count = 0;
+                for (double[] column : columns) {
+                    double x1 = column[slot];
+                    if (!Double.isNaN(x1)) {
+                        sum += x1;
+                        count++;
+                    }
+                }
+                out[slot] = count > 0 ? sum / count : Double.NaN;
+            }
+            return out;
+        }
+    }
+
+    /**
+     * The sorted values of the operands of a SORT, read by one {@link Sorted} node per rank.
+     */
+    private static final class Sort {
+        // from the top of the stack
+        private final Node[] operands;
+        private final String key;
+        private double[][] sorted;
+
+        Sort(Node[] operands) {
+            this.operands = operands;
+            this.key = key("SORT", operands);
+        }
+
+        double[] getColumn(RpnCalculator c, int rank) {
+            if (sorted == null) {
+                double[][] columns = new double[operands.length][];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = operands[i].getColumn(c);
+                }
+                sorted = new double[operands.length][c.timeline.getCount()];
+                double[] array = new double[operands.length];
+                for (int slot = 0; slot < c.timeline.getCount(); slot++) {
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = columns[i][slot];
+                    }
+                    Arrays.sort(array);
+                    for (int i = 0; i < array.length; i++) {
+                        sorted[i][slot] = array[i];
+                    }
+                }
+            }
+            return sorted[rank];
+        }
+    }
+
+    private static final class Sorted extends Node {
+        private final Sort sort;
+        private final int rank;
+
+        Sorted(Sort sort, int rank) {
+            super(sort.key + "#" + rank);
+            this.sort = sort;
+            this.rank = rank;
+        }
+
+        double[] evaluate(RpnCalculator c) {
+            return sort.getColumn(c, rank);
+        }
+    }
+
+    /**
+     * The sums of the finite values of a source, of their squares and of their magnitudes, and the
+     * numbers of values not NaN and infinite, up to each slot excluded.
+     */
+    private static final class PrefixSums {
+        // bound of the relative rounding error of a compensated prefix sum and of a difference of two
+        static final double ERROR = 4 * Math.ulp(1.0);
+
+        private final double[] sums;
+        private final double[] squares;
+        private final double[] magnitudes;
+        private final int[] valid;
+        private final int[] infinite;
+
+        PrefixSums(double[] vals) {
+            int n = vals.length;
+            sums = new double[n + 1];
+            squares = new double[n + 1];
+            magnitudes = new double[n + 1];
+            valid = new int[n + 1];
+            infinite = new int[n + 1];
+            // Neumaier summation, the rounding error of each prefix sum stays within an ulp
+            double sum = 0, sumc = 0, square = 0, squarec = 0, magnitude = 0, magnitudec = 0;
+            for (int i = 0; i < n; i++) {
+                double val = vals[i];
+                valid[i + 1] = valid[i];
+                infinite[i + 1] = infinite[i];
+                if (!Double.isNaN(val)) {
+                    valid[i + 1]++;
+                    if (Double.isInfinite(val)) {
+                        infinite[i + 1]++;
+                    }
+                    else {
+                        double t = sum + val;
+                        sumc += Math.abs(sum) >= Math.abs(val) ? (sum - t) + val : (val - t) + sum;
+                        sum = t;
+                        t = square + val * val;
+                        squarec += square >= val * val ? (square - t) + val * val : (val * val - t) + square;
+                        square = t;
+                        t = magnitude + Math.abs(val);
+                        magnitudec += magnitude >= Math.abs(val) ? (magnitude - t) + Math.abs(val) : (Math.abs(val) - t) + magnitude;
+                        magnitude = t;
+                    }
+                }
+                sums[i + 1] = sum + sumc;
+                squares[i + 1] = square + squarec;
+                magnitudes[i + 1] = magnitude + magnitudec;
+            }
+        }
+    }
+
     private final class State {
         public int token_rpi;
         int rpi;
@@ -815,6 +1844,10 @@ class RpnCalculator {
         final double number;
         final String variable;
         final double[] values;
+        // the TREND of all the slots, for the values and width it was calculated with
+        double[] window;
+        double[] windowSource;
+        int windowWidth;
         Token(Token_Symbol id) {
             this.id = id;
             this.values = null;
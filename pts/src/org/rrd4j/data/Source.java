@@ -1,10 +1,12 @@
 package org.rrd4j.data;
 
+import org.rrd4j.core.Timeline;
+
 abstract class Source {
     private final String name;
 
     protected double[] values;
-    protected long[] timestamps;
+    protected Timeline timeline;
 
     Source(String name) {
         this.name = name;
@@ -18,16 +20,16 @@ abstract class Source {
         this.values = values;
     }
 
-    void setTimestamps(long[] timestamps) {
-        this.timestamps = timestamps;
+    void setTimeline(Timeline timeline) {
+        this.timeline = timeline;
     }
 
     double[] getValues() {
         return values;
     }
 
-    long[] getTimestamps() {
-        return timestamps;
+    Timeline getTimeline() {
+        return timeline;
     }
 
     /**
@@ -38,7 +40,7 @@ abstract class Source {
      */
     @Deprecated
     Aggregates getAggregates(long tStart, long tEnd) {
-        Aggregator agg = new Aggregator(timestamps, values);
+        Aggregator agg = new Aggregator(timeline, values);
         return agg.getAggregates(tStart, tEnd);
     }
 
@@ -56,4 +58,25 @@ abstract class Source {
         return vpercent.getValue().value;
     }
 
+    /**
+     * Calculates many percentiles in the same pass, each one as {@link #getPercentile(long, long, double)}.
+     *
+     * @param tStart
+     * @param tEnd
+     * @param percentiles
+     * @return the values at each percentile
+     */
+    double[] getPercentiles(long tStart, long tEnd, double[] percentiles) {
+        float[] boundaries = new float[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            boundaries[i] = (float) percentiles[i];
+        }
+        Variable.Value[] points = Variable.PERCENTILE.calculate(this, tStart, tEnd, boundaries, true);
+        double[] results = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            results[i] = points[i].value;
+        }
+        return results;
+    }
+
 }
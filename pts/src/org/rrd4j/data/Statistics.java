@@ -0,0 +1,180 @@
+package org.rrd4j.data;
+
+import org.rrd4j.core.Timeline;
+import org.rrd4j.core.Util;
+
+/**
+ * The statistics of the values of a source within a period, calculated in one pass over its arrays,
+ * without copying them, for all the variables of the source and its aggregates.
+ * <p>
+ * The first, last, minimum, maximum and total values are always calculated, the others only when
+ * asked for. Each statistic is calculated exactly as the variable using it, the values being summed in
+ * the same order, so the results are the same as the variables filled one by one.
+ */
+final class Statistics {
+    /**
+     * Variables not calculated from statistics, but filled with a copy of the values.
+     */
+    static final int NONE = -1;
+    /**
+     * The first, last, minimum, maximum and total values.
+     */
+    static final int BASIC = 0;
+    static final int AVERAGE = 1;
+    static final int STDDEV = 2;
+    /**
+     * The sums of the least squares line.
+     */
+    static final int LSL = 4;
+    /**
+     * The values of {@link Aggregates}.
+     */
+    static final int AGGREGATES = 8;
+
+    final long step;
+
+    long firstTimestamp = 0;
+    double first = Double.NaN;
+    long lastTimestamp = 0;
+    double last = Double.NaN;
+    long minTimestamp = 0;
+    double min = Double.NaN;
+    long maxTimestamp = 0;
+    double max = Double.NaN;
+    double total = Double.NaN;
+
+    // summed from the last value to the first one
+    double averageSum = 0;
+    int averageCount = 0;
+
+    int stddevCount = 0;
+    double stddevM = 0.0;
+    double stddevS = 0.0;
+
+    int lslCount = 0;
+    double lslSumX = 0.0;
+    double lslSumY = 0.0;
+    double lslSumXY = 0.0;
+    double lslSumXX = 0.0;
+    double lslSumYY = 0.0;
+
+    final Aggregates aggregates = new Aggregates();
+
+    private Statistics(long step) {
+        this.step = step;
+    }
+
+    /**
+     * Calculates the statistics of a source within a period.
+     *
+     * @param s          the source.
+     * @param start      the start of the period.
+     * @param end        the end of the period.
+     * @param statistics the statistics needed, besides the basic ones.
+     * @return the statistics.
+     */
+    static Statistics calculate(Source s, long start, long end, int statistics) {
+        int[] range = Variable.getRange(s, start, end);
+        return calculate(s.timeline, s.getValues(), range[0], range[1], start, end, statistics);
+    }
+
+    /**
+     * Calculates the statistics of values within a period.
+     *
+     * @param timeline   the timestamps of the values.
+     * @param values     the values.
+     * @param from       the first value within the period.
+     * @param to         the last value within the period.
+     * @param start      the start of the period.
+     * @param end        the end of the period.
+     * @param statistics the statistics needed, besides the basic ones.
+     * @return the statistics.
+     */
+    static Statistics calculate(Timeline timeline, double[] values, int from, int to, long start, long end, int statistics) {
+        Statistics st = new Statistics(timeline.getStep());
+        boolean average = (statistics & AVERAGE) != 0;
+        boolean stddev = (statistics & STDDEV) != 0;
+        boolean lsl = (statistics & LSL) != 0;
+        boolean aggregates = (statistics & AGGREGATES) != 0;
+        boolean firstFound = false;
+        long totalSeconds = 0;
+        int aggregatesCount = 0;
+        int lslstep = 0;
+        for (int i = from; i <= to; i++, lslstep++) {
+            if (average) {
+                // the average sums the values from the last one
+                double value = values[to + from - i];
+                if (!Double.isNaN(value)) {
+                    st.averageCount++;
+                    st.averageSum = Double.isNaN(st.averageSum) ? value : value + st.averageSum;
+                }
+            }
+            double value = values[i];
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            long timestamp = timeline.getTimestamp(i);
+            if (!firstFound && timestamp > start && timestamp < end) {
+                st.firstTimestamp = timestamp;
+                st.first = value;
+                firstFound = true;
+            }
+            st.lastTimestamp = timestamp;
+            st.last = value;
+            // the last of the smallest and greatest values
+            if (Double.isNaN(st.min) || value <= st.min) {
+                st.minTimestamp = timestamp;
+                st.min = value;
+            }
+            if (Double.isNaN(st.max) || value >= st.max) {
+                st.maxTimestamp = timestamp;
+                st.max = value;
+            }
+            st.total = Util.sum(st.total, value);
+            if (stddev) {
+                // See Knuth TAOCP vol 2, 3rd edition, page 232 and http://www.johndcook.com/standard_deviation.html
+                st.stddevCount++;
+                if (st.stddevCount == 1) {
+                    st.stddevM = value;
+                    st.stddevS = 0;
+                }
+                else {
+                    double dM = value - st.stddevM;
+                    st.stddevM += dM / st.stddevCount;
+                    st.stddevS += dM * (value - st.stddevM);
+                }
+            }
+            if (lsl) {
+                st.lslCount++;
+                st.lslSumX += lslstep;
+                st.lslSumXX += lslstep * lslstep;
+                st.lslSumY += value;
+                st.lslSumXY += lslstep * value;
+                st.lslSumYY += value * value;
+            }
+            if (aggregates) {
+                long delta = Math.min(timestamp, end) - Math.max(timestamp - st.step, start);
+                if (delta > 0) {
+                    Aggregates agg = st.aggregates;
+                    totalSeconds += delta;
+                    aggregatesCount++;
+                    if (aggregatesCount == 1) {
+                        agg.last = agg.first = agg.total = agg.min = agg.max = value;
+                    }
+                    else {
+                        if (delta >= st.step) {  // an entire bucket is included in this range
+                            agg.last = value;
+                        }
+                        agg.min = Math.min(agg.min, value);
+                        agg.max = Math.max(agg.max, value);
+                        agg.total += value;
+                    }
+                }
+            }
+        }
+        if (aggregatesCount > 0) {
+            st.aggregates.average = st.aggregates.total / totalSeconds;
+        }
+        return st;
+    }
+}
@@ -23,6 +23,17 @@ class VDef extends Source implements NonRrdSource  {
         var.calculate(source, tStart, tEnd);
     }
     
+    /**
+     * Calculates the value from the statistics of the source, calculated once for all its variables.
+     */
+    void calculate(Statistics statistics) {
+        var.calculate(statistics);
+    }
+
+    Variable getVariable() {
+        return var;
+    }
+
     public Variable.Value getValue() {
         return var.getValue();
     }
@@ -32,7 +43,7 @@ class VDef extends Source implements NonRrdSource  {
      */
     @Override
     double[] getValues() {
-        int count = getTimestamps().length;
+        int count = getTimeline().getCount();
         double[] values = new double[count];
         Arrays.fill(values, var.getValue().value);
         return values;
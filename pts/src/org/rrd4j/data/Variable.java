@@ -1,10 +1,8 @@
 package org.rrd4j.data;
 
-import java.io.Serializable;
-import java.util.Comparator;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Arrays;
 
+import org.rrd4j.core.Timeline;
 import org.rrd4j.core.Util;
 
 /**
@@ -39,54 +37,115 @@ public abstract class Variable {
      * @param end
      */
     void calculate(Source s, long start, long end) {
-        long step = s.timestamps[1] - s.timestamps[0];
-        int first = -1;
-        int last = -1;
-        // Iterate over array, stop then end cursor reach start or when both start and end has been found
-        // It also stop if cursor cross other side boundary
-        for(int i = 0, j = s.timestamps.length - 1 ; ( last == -1 && j > first ) || ( first == -1 && ( last == -1 || i < last )  ) ; i++, j--) {
-            if(first == -1) {
-                long leftdown = Math.max(s.timestamps[i] - step, start);
-                long rightdown = Math.min(s.timestamps[i], end);
-                if(rightdown > leftdown) {
-                    first = i;
-                }
-            }
-
-            if(last == -1) {
-                long leftup = Math.max(s.timestamps[j] - step, start);
-                long rightup = Math.min(s.timestamps[j], end);
-                if(rightup > leftup ) {
-                    last = j;
-                }
-            }
+        int[] range = getRange(s, start, end);
+        if(s instanceof VDef) {
+            val = getValue((VDef) s, start, end);
         }
-        if( first == -1 || last == -1) {
+        else if(getFusedStatistics() != Statistics.NONE) {
+            // no copy needed
+            val = fill(Statistics.calculate(s.timeline, s.getValues(), range[0], range[1], start, end, getFusedStatistics()));
+        }
+        else {
+            long[] timestamps = s.timeline.copyTimestamps(range[0], range[1] - range[0] + 1);
+            double[] values = new double[ range[1] - range[0] + 1];
+            System.arraycopy(s.getValues(), range[0], values, 0, values.length);
+            val = fill(timestamps, values, start, end);
+        }
+    }
+
+    /**
+     * Used to calculate the value from statistics already calculated for the source, with the ones
+     * needed by other variables.
+     * @param statistics
+     */
+    void calculate(Statistics statistics) {
+        val = fill(statistics);
+    }
+
+    /**
+     * The statistics needed to calculate this variable in the same pass as the others of its source.
+     * @return the {@link Statistics} needed, or {@link Statistics#NONE} if it must be filled with the values
+     */
+    int getStatistics() {
+        return Statistics.NONE;
+    }
+
+    /**
+     * Describes the variable, with its parameters. Two variables with the same description calculate the same value.
+     *
+     * @return the description
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+
+    // only the variables of this class are known to be calculated as their statistics, not their subclasses
+    final int getFusedStatistics() {
+        return getClass().getDeclaringClass() == Variable.class ? getStatistics() : Statistics.NONE;
+    }
+
+    /**
+     * Calculate the value from the statistics of the source.
+     * @param statistics the statistics, including the ones needed by this variable
+     * @return a filled Value object
+     */
+    Value fill(Statistics statistics) {
+        throw new UnsupportedOperationException("Not calculated from statistics: " + getClass().getName());
+    }
+
+    /**
+     * Find the first and last points of a source within a period.
+     * @param s
+     * @param start
+     * @param end
+     * @return the indexes of the first and last points
+     */
+    static int[] getRange(Source s, long start, long end) {
+        int[] range = getRange(s.timeline, start, end);
+        if(range == null) {
             throw new RuntimeException("Invalid range");
         }
-        if(s instanceof VDef) {
-            // Already a variable, just check if it fits
-            Value v = ((VDef) s).getValue();
-            // No time stamp, or not time stamped value, keep it
-            if(v.timestamp == 0) {
-                val = v;
+        return range;
+    }
+
+    /**
+     * Find the first and last points within a period, the ones whose step overlaps it.
+     * @param timeline
+     * @param start
+     * @param end
+     * @return the indexes of the first and last points, or null if none
+     */
+    static int[] getRange(Timeline timeline, long start, long end) {
+        if (end <= start) {
+            return null;
+        }
+        // the first timestamp after the start, and the step holding the end
+        long first = Math.max(timeline.getIndex(start + 1), 0);
+        long last = Math.min(timeline.getIndex(end), timeline.getCount() - 1);
+        if (first > last) {
+            return null;
+        }
+        return new int[] {(int) first, (int) last};
+    }
+
+    /**
+     * Already a variable, just check if it fits the period
+     */
+    static Value getValue(VDef s, long start, long end) {
+        Value v = s.getValue();
+        // No time stamp, or not time stamped value, keep it
+        if(v.timestamp == 0) {
+            return v;
+        }
+        else {
+            if(v.timestamp < end && v.timestamp > start) {
+                return v;
             }
             else {
-                if(v.timestamp < end && v.timestamp > start) {
-                    val = v;
-                }
-                else {
-                    val = new Value(0, Double.NaN);
-                }
+                return new Value(0, Double.NaN);
             }
         }
-        else {
-            long[] timestamps = new long[ last - first + 1];
-            System.arraycopy(s.timestamps, first, timestamps, 0, timestamps.length);
-            double[] values = new double[ last - first + 1];
-            System.arraycopy(s.getValues(), first, values, 0, values.length);
-            val = fill(timestamps, values, start, end);
-        }
     }
 
     public Value getValue() {
@@ -122,6 +181,16 @@ public abstract class Variable {
             }
             return new Value(0, Double.NaN);
         }
+
+        @Override
+        int getStatistics() {
+            return Statistics.BASIC;
+        }
+
+        @Override
+        Value fill(Statistics statistics) {
+            return new Value(statistics.firstTimestamp, statistics.first);
+        }
     }
 
     /**
@@ -138,6 +207,16 @@ public abstract class Variable {
             }
             return new Value(0, Double.NaN);
         }
+
+        @Override
+        int getStatistics() {
+            return Statistics.BASIC;
+        }
+
+        @Override
+        Value fill(Statistics statistics) {
+            return new Value(statistics.lastTimestamp, statistics.last);
+        }
     }
 
     /**
@@ -160,6 +239,16 @@ public abstract class Variable {
             }
             return new Value(timestamp, value);
         }
+
+        @Override
+        int getStatistics() {
+            return Statistics.BASIC;
+        }
+
+        @Override
+        Value fill(Statistics statistics) {
+            return new Value(statistics.minTimestamp, statistics.min);
+        }
     }
 
     /**
@@ -182,6 +271,16 @@ public abstract class Variable {
             }
             return new Value(timestamp, value);
         }
+
+        @Override
+        int getStatistics() {
+            return Statistics.BASIC;
+        }
+
+        @Override
+        Value fill(Statistics statistics) {
+            return new Value(statistics.maxTimestamp, statistics.max);
+        }
     }
 
     /**
@@ -198,6 +297,16 @@ public abstract class Variable {
             }
             return new Value(0, value * (timestamps[1] - timestamps[0]) );
         }
+
+        @Override
+        int getStatistics() {
+            return Statistics.BASIC;
+        }
+
+        @Override
+        Value fill(Statistics statistics) {
+            return new Value(0, statistics.total * statistics.step);
+        }
     }
 
     /**
@@ -223,6 +332,20 @@ public abstract class Variable {
             }
             return new Value(0, value);
         }
+
+        @Override
+        int getStatistics() {
+            return Statistics.AVERAGE;
+        }
+
+        @Override
+        Value fill(Statistics statistics) {
+            double value = statistics.averageSum;
+            if(! Double.isNaN(value)) {
+                value = value / statistics.averageCount;
+            }
+            return new Value(0, value);
+        }
     }
 
     /**
@@ -256,66 +379,19 @@ public abstract class Variable {
             }
             return new Value(0, value);
         }
-    }
-
-    /**
-     * Store all the informations about a datasource point, for predictive and consistent sorting
-     *
-     */
-    static final class PercentElem {
-        long timestamp;
-        double value;
-
-        PercentElem(int pos, long timestamp, double value) {
-            this.timestamp = timestamp;
-            this.value = value;
-        }
 
         @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            PercentElem other = (PercentElem) obj;
-            if (timestamp != other.timestamp)
-                return false;
-            return true;
+        int getStatistics() {
+            return Statistics.STDDEV;
         }
 
         @Override
-        public int hashCode() {
-            return Long.valueOf(timestamp).hashCode();
-        }
-
-        @Override
-        public String toString() {
-            return String.format("[%d, %f]", timestamp, value);
-        }
-    }
-
-    /**
-     * The sort used by rrdtool for percent, where NaN &lt; -INF &lt; finite values &lt; INF
-     *
-     */
-    static final class ComparPercentElemen implements Comparator<PercentElem>, Serializable {
-        @Override
-        public final int compare(PercentElem arg0, PercentElem arg1) {
-            if(Double.isNaN(arg0.value) && Double.isNaN(arg1.value))
-                return Long.signum(arg0.timestamp - arg1.timestamp);
-            else if(Double.isNaN(arg0.value))
-                return -1;
-            else if (Double.isNaN(arg1.value))
-                return +1;
-            else  {
-                int compared = Double.compare(arg0.value, arg1.value);
-                if (compared == 0) {
-                    compared = Long.signum(arg0.timestamp - arg1.timestamp);
-                }
-                return compared;
+        Value fill(Statistics statistics) {
+            double value = Double.NaN;
+            if(statistics.stddevCount > 1) {
+                value = Math.sqrt( statistics.stddevS/(statistics.stddevCount - 1) );
             }
+            return new Value(0, value);
         }
     }
 
@@ -342,26 +418,70 @@ public abstract class Variable {
 
         @Override
         protected Value fill(long[] timestamps, double[] values, long start, long end) {
-            // valuesSet will be a set with NaN packet at the start
-            SortedSet<PercentElem> valuesSet = new TreeSet<PercentElem>(new ComparPercentElemen());
-            for(int i = 0 ; i < values.length ; i++) {
-                valuesSet.add(new PercentElem(i, timestamps[i], values[i]));
+            return select(timestamps, values, new float[] {percentile}, withNaN)[0];
+        }
+
+        @Override
+        public String toString() {
+            return super.toString() + "(" + percentile + "," + withNaN + ")";
+        }
+
+        /**
+         * Calculate many percentiles of a source in the same pass.
+         * @param s the source
+         * @param start the start of the period
+         * @param end the end of the period
+         * @param percentiles the percentiles
+         * @param withNaN false to drop the NaN values, like {@link PERCENTILENAN}
+         * @return the points at each percentile
+         */
+        static Value[] calculate(Source s, long start, long end, float[] percentiles, boolean withNaN) {
+            int[] range = getRange(s, start, end);
+            if(s instanceof VDef) {
+                Value[] points = new Value[percentiles.length];
+                Arrays.fill(points, getValue((VDef) s, start, end));
+                return points;
             }
+            long[] timestamps = s.timeline.copyTimestamps(range[0], range[1] - range[0] + 1);
+            double[] values = new double[ range[1] - range[0] + 1];
+            System.arraycopy(s.getValues(), range[0], values, 0, values.length);
+            return select(timestamps, values, percentiles, withNaN);
+        }
 
+        // the values are reordered in place, with the sort used by rrdtool for percent, where NaN < -INF < finite values < INF
+        private static Value[] select(long[] timestamps, double[] values, float[] percentiles, boolean withNaN) {
+            int count = values.length;
             //If not with nan, just drop all nan (inferior to min value)
             if( ! withNaN) {
-                valuesSet = valuesSet.tailSet(new PercentElem(0, 0, Double.NEGATIVE_INFINITY ));
+                count = 0;
+                for(int i = 0 ; i < values.length ; i++) {
+                    if( ! Double.isNaN(values[i])) {
+                        timestamps[count] = timestamps[i];
+                        values[count++] = values[i];
+                    }
+                }
             }
 
-            PercentElem[] element = (PercentElem[]) valuesSet.toArray(new PercentElem[valuesSet.size()]);
-            int pos = Math.round(percentile * (element.length - 1) / 100);
-            // if we have anything left...
-            if (pos >= 0) {
-                double value = element[pos].value;
-                long timestamp = element[pos].timestamp;
-                return new Value(timestamp, value);
+            int[] positions = new int[percentiles.length];
+            for(int i = 0 ; i < percentiles.length ; i++) {
+                positions[i] = Math.round(percentiles[i] * (count - 1) / 100);
             }
-            return new Value(0, Double.NaN);
+            int[] ranks = positions.clone();
+            Arrays.sort(ranks);
+            Percentiles.select(timestamps, values, count, ranks);
+
+            Value[] points = new Value[percentiles.length];
+            for(int i = 0 ; i < percentiles.length ; i++) {
+                int pos = positions[i];
+                // if we have anything left...
+                if (pos >= 0 && pos < count) {
+                    points[i] = new Value(timestamps[pos], values[pos]);
+                }
+                else {
+                    points[i] = new Value(0, Double.NaN);
+                }
+            }
+            return points;
         }
     }
 
@@ -376,6 +496,47 @@ public abstract class Variable {
         }
     }
 
+    /**
+     * Find an approximate value at the n-th percentile, with a {@link QuantileSketch}. NaN values are
+     * dropped, like with {@link PERCENTILENAN}, and the value found is not time stamped.
+     *
+     */
+    public static class APPROXPERCENTILE extends Variable {
+        private final double percentile;
+        private final int k;
+
+        public APPROXPERCENTILE(double percentile) {
+            this(percentile, QuantileSketch.DEFAULT_K);
+        }
+
+        public APPROXPERCENTILE(double percentile, int k) {
+            if (!(percentile >= 0.0 && percentile <= 100.0)) {
+                throw new IllegalArgumentException("Invalid percentile [" + percentile + "], should be between 0 and 100");
+            }
+            this.percentile = percentile;
+            this.k = k;
+        }
+
+        @Override
+        protected Value fill(long[] timestamps, double[] values, long start, long end) {
+            QuantileSketch sketch = new QuantileSketch(k);
+            sketch.add(values);
+            return new Value(0, sketch.getPercentile(percentile));
+        }
+
+        @Override
+        public String toString() {
+            return super.toString() + "(" + percentile + "," + k + ")";
+        }
+    }
+
+    /* Bestfit line by linear least squares method */
+    private static double lslslope(Statistics statistics) {
+        int cnt = statistics.lslCount;
+        double SUMx = statistics.lslSumX;
+        return (SUMx * statistics.lslSumY - cnt * statistics.lslSumXY) / (SUMx * SUMx - cnt * statistics.lslSumXX);
+    }
+
     /**
      * Calculate the slop of the least squares line.
      *
@@ -415,6 +576,16 @@ public abstract class Variable {
             return new Value(0, Double.NaN);
         }
 
+
+        @Override
+        int getStatistics() {
+            return Statistics.LSL;
+        }
+
+        @Override
+        Value fill(Statistics statistics) {
+            return new Value(0, statistics.lslCount > 0 ? lslslope(statistics) : Double.NaN);
+        }
     }
 
     /**
@@ -456,6 +627,21 @@ public abstract class Variable {
             return new Value(0, Double.NaN);
         }
 
+
+        @Override
+        int getStatistics() {
+            return Statistics.LSL;
+        }
+
+        @Override
+        Value fill(Statistics statistics) {
+            int cnt = statistics.lslCount;
+            if(cnt > 0) {
+                double lslint = (statistics.lslSumY - lslslope(statistics) * statistics.lslSumX) / cnt;
+                return new Value(0, lslint);
+            }
+            return new Value(0, Double.NaN);
+        }
     }
 
     /**
@@ -499,5 +685,24 @@ public abstract class Variable {
             return new Value(0, Double.NaN);
         }
 
+
+        @Override
+        int getStatistics() {
+            return Statistics.LSL;
+        }
+
+        @Override
+        Value fill(Statistics statistics) {
+            int cnt = statistics.lslCount;
+            if(cnt > 0) {
+                double SUMx = statistics.lslSumX;
+                double SUMy = statistics.lslSumY;
+                double lslcorrel =
+                        (statistics.lslSumXY - (SUMx * SUMy) / cnt) /
+                        Math.sqrt((statistics.lslSumXX - (SUMx * SUMx) / cnt) * (statistics.lslSumYY - (SUMy * SUMy) / cnt));
+                return new Value(0, lslcorrel);
+            }
+            return new Value(0, Double.NaN);
+        }
     }
 }
@@ -0,0 +1,123 @@
+package org.rrd4j.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.rrd4j.ConsolFun;
+import org.rrd4j.DsType;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.Sample;
+
+/**
+ * Compares the RRDs updated one sample at a time with {@link org.rrd4j.core.Sample#update()} and by batches
+ * with {@link org.rrd4j.core.RrdDb#storeBatch(long[], double[][])}, for each RRD version, on the MEMORY and
+ * NIO backends, with every datasource type and consolidation function, gaps longer than the heartbeat,
+ * unknown values and counter wraps. The bytes of the RRDs must be the same.
+ */
+class BatchCheck {
+    private static final long STEP = 60;
+    private static final int SAMPLES = 5000;
+    private static final int RUNS = 20;
+
+    /**
+     * <p>main.</p>
+     *
+     * @param args an array of {@link java.lang.String} objects.
+     * @throws java.io.IOException if any.
+     */
+    public static void main(String[] args) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        System.out.println("version  backend  runs  mismatches  sequential(ms)  batched(ms)");
+        for (int version = 1; version <= 3; version++) {
+            for (String backend : new String[] {"MEMORY", "NIO"}) {
+                RrdBackendFactory factory = RrdBackendFactory.getFactory(backend);
+                Random random = new Random(version);
+                int mismatches = 0;
+                long sequentialTime = 0;
+                long batchedTime = 0;
+                for (int run = 0; run < RUNS; run++) {
+                    long start = 1000000000L - 1000000000L % STEP;
+                    long[] times = new long[SAMPLES];
+                    double[][] values = new double[SAMPLES][DsType.values().length];
+                    long time = start;
+                    for (int i = 0; i < SAMPLES; i++) {
+                        // mostly one sample a step, sometimes several, sometimes a gap over the heartbeat
+                        int kind = random.nextInt(100);
+                        time += kind < 10 ? 1 + random.nextInt((int) STEP - 1)
+                                : kind < 12 ? 3 * STEP + random.nextInt(10 * (int) STEP)
+                                : STEP + random.nextInt(5) - 2;
+                        times[i] = time;
+                        for (int ds = 0; ds < values[i].length; ds++) {
+                            values[i][ds] = random.nextInt(50) == 0 ? Double.NaN : value(random, ds, i);
+                        }
+                    }
+                    File sequentialFile = new File(dir, "batchcheck-sequential.rrd");
+                    File batchedFile = new File(dir, "batchcheck-batched.rrd");
+                    sequentialFile.delete();
+                    batchedFile.delete();
+                    RrdDb sequential = new RrdDb(createDef(sequentialFile.getPath(), start, version), factory);
+                    RrdDb batched = new RrdDb(createDef(batchedFile.getPath(), start, version), factory);
+                    try {
+                        long t = System.nanoTime();
+                        Sample sample = sequential.createSample();
+                        for (int i = 0; i < SAMPLES; i++) {
+                            sample.setTime(times[i]);
+                            sample.setValues(values[i]);
+                            sample.update();
+                        }
+                        sequentialTime += System.nanoTime() - t;
+                        t = System.nanoTime();
+                        // batches of random sizes, down to single samples
+                        for (int from = 0; from < SAMPLES;) {
+                            int to = Math.min(SAMPLES, from + 1 + random.nextInt(500));
+                            batched.storeBatch(Arrays.copyOfRange(times, from, to), Arrays.copyOfRange(values, from, to));
+                            from = to;
+                        }
+                        batchedTime += System.nanoTime() - t;
+                        if (!Arrays.equals(sequential.getBytes(), batched.getBytes())) {
+                            mismatches++;
+                            System.out.println("mismatch: version " + version + ", " + backend + ", run " + run);
+                        }
+                    }
+                    finally {
+                        sequential.close();
+                        batched.close();
+                        sequentialFile.delete();
+                        batchedFile.delete();
+                    }
+                }
+                System.out.println(String.format("%7d  %-7s %5d %11d %15.1f %12.1f", version, backend, RUNS,
+                        mismatches, sequentialTime / 1e6, batchedTime / 1e6));
+            }
+        }
+    }
+
+    private static RrdDef createDef(String path, long start, int version) {
+        RrdDef rrdDef = new RrdDef(path, start - 1, STEP, version);
+        for (DsType type : DsType.values()) {
+            rrdDef.addDatasource(type.name().toLowerCase(), type, 2 * STEP, Double.NaN, Double.NaN);
+        }
+        for (ConsolFun consolFun : ConsolFun.values()) {
+            rrdDef.addArchive(consolFun, 0.5, 1, 600);
+            rrdDef.addArchive(consolFun, 0.5, 7, 300);
+            rrdDef.addArchive(consolFun, 0.2, 60, 100);
+        }
+        return rrdDef;
+    }
+
+    private static double value(Random random, int ds, int i) {
+        switch (DsType.values()[ds]) {
+        case COUNTER:
+            // a 32 bits counter wrapping
+            return (i * 1000L + random.nextInt(1000)) % (1L << 32);
+        case DERIVE:
+            return i * 10.0 + random.nextGaussian() * 100;
+        default:
+            return random.nextGaussian() * 1000;
+        }
+    }
+}
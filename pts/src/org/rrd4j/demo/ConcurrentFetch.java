@@ -0,0 +1,133 @@
+package org.rrd4j.demo;
+
+import static org.rrd4j.ConsolFun.*;
+
+import org.rrd4j.DsType;
+import org.rrd4j.core.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that fetches and last value reads see consistent snapshots of a RRD while it's updated,
+ * and measures how long the updates wait for them. The updater stores the sample time in every
+ * datasource, so a consistent fetch row holds its own timestamp in every datasource, and the last
+ * datasource values are all equal.
+ */
+class ConcurrentFetch {
+    private static final int DS_COUNT = 8;
+    private static final int ROWS = 2000;
+    private static final long STEP = 60;
+    private static final long RUN_MILLIS = 2000;
+    private static final int READERS = 4;
+    private static final String[] FACTORIES = {"NIO", "FILE", "MEMORY"};
+
+    /**
+     * <p>main.</p>
+     *
+     * @param args an array of {@link java.lang.String} objects.
+     * @throws java.io.IOException if any.
+     * @throws java.lang.InterruptedException if any.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.out.println("factory  fetches  last-reads  inconsistent  updates  max-update-wait(ms)");
+        for (String factory : FACTORIES) {
+            run(factory);
+        }
+    }
+
+    private static void run(String factory) throws IOException, InterruptedException {
+        final long start = Util.normalize(Util.getTime(), STEP) - 2 * ROWS * STEP;
+        String rrdFile = Util.getRrd4jDemoPath("concurrent-" + factory.toLowerCase() + ".rrd");
+        RrdDef rrdDef = new RrdDef(rrdFile, start - STEP, STEP);
+        for (int i = 0; i < DS_COUNT; i++) {
+            rrdDef.addDatasource("ds" + i, DsType.GAUGE, 2 * STEP, Double.NaN, Double.NaN);
+        }
+        rrdDef.addArchive(AVERAGE, 0.5, 1, ROWS);
+        final RrdDb rrdDb = new RrdDb(rrdDef, RrdBackendFactory.getFactory(factory));
+        final AtomicLong fetches = new AtomicLong();
+        final AtomicLong lastReads = new AtomicLong();
+        final AtomicLong inconsistent = new AtomicLong();
+        final AtomicLong updates = new AtomicLong();
+        final AtomicLong maxUpdateWait = new AtomicLong();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final long deadline = System.currentTimeMillis() + RUN_MILLIS;
+        try {
+            Thread[] readers = new Thread[READERS];
+            for (int r = 0; r < READERS; r++) {
+                final boolean fetching = r % 2 == 0;
+                readers[r] = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            startLatch.await();
+                            while (System.currentTimeMillis() < deadline) {
+                                if (fetching) {
+                                    long end = rrdDb.getLastUpdateTime();
+                                    FetchData fetchData = rrdDb.createFetchRequest(AVERAGE, end - ROWS * STEP / 2, end).fetchData();
+                                    long[] timestamps = fetchData.getTimestamps();
+                                    double[][] values = fetchData.getValues();
+                                    for (int row = 0; row < timestamps.length; row++) {
+                                        for (int i = 0; i < DS_COUNT; i++) {
+                                            double value = values[i][row];
+                                            if (!Double.isNaN(value) && value != timestamps[row]) {
+                                                inconsistent.incrementAndGet();
+                                            }
+                                        }
+                                    }
+                                    fetches.incrementAndGet();
+                                }
+                                else {
+                                    double[] lastValues = rrdDb.getLastDatasourceValues();
+                                    for (double value : lastValues) {
+                                        if (Double.compare(value, lastValues[0]) != 0) {
+                                            inconsistent.incrementAndGet();
+                                        }
+                                    }
+                                    lastReads.incrementAndGet();
+                                }
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                });
+                readers[r].start();
+            }
+            Thread updater = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        startLatch.await();
+                        Sample sample = rrdDb.createSample();
+                        for (long t = start; System.currentTimeMillis() < deadline; t += STEP) {
+                            sample.setTime(t);
+                            for (int i = 0; i < DS_COUNT; i++) {
+                                sample.setValue(i, t);
+                            }
+                            long updateStart = System.nanoTime();
+                            sample.update();
+                            long wait = System.nanoTime() - updateStart;
+                            if (wait > maxUpdateWait.get()) {
+                                maxUpdateWait.set(wait);
+                            }
+                            updates.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            updater.start();
+            startLatch.countDown();
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            updater.join();
+        }
+        finally {
+            rrdDb.close();
+        }
+        System.out.println(String.format("%-7s %8d %11d %13d %8d %20.1f", factory, fetches.get(), lastReads.get(),
+                inconsistent.get(), updates.get(), maxUpdateWait.get() / 1e6));
+    }
+}
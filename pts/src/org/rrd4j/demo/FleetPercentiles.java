@@ -0,0 +1,116 @@
+package org.rrd4j.demo;
+
+import static org.rrd4j.ConsolFun.*;
+
+import org.rrd4j.DsType;
+import org.rrd4j.core.*;
+import org.rrd4j.data.QuantileSketch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Calculates percentiles of the temperatures of a fleet of sensors over a month, each stored in its own
+ * RRD, with quantile sketches filled in parallel from the archived values and merged, and compares them
+ * with the exact percentiles of all the values, and their ranks.
+ */
+class FleetPercentiles {
+    private static final int SENSORS = 100;
+    private static final long STEP = 300;
+    private static final int ROWS = 30 * 288;
+    private static final int THREADS = 4;
+    private static final double[] PERCENTILES = {1, 50, 90, 99, 99.9};
+
+    /**
+     * <p>main.</p>
+     *
+     * @param args an array of {@link java.lang.String} objects.
+     * @throws java.io.IOException if any.
+     * @throws java.lang.InterruptedException if any.
+     * @throws java.util.concurrent.ExecutionException if any.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        long start = Util.normalize(Util.getTime(), STEP) - ROWS * STEP;
+        final List<RrdDb> rrds = new ArrayList<RrdDb>();
+        Random random = new Random(0);
+        try {
+            for (int sensor = 0; sensor < SENSORS; sensor++) {
+                RrdDef rrdDef = new RrdDef("fleet-" + sensor + ".rrd", start, STEP);
+                rrdDef.addDatasource("temp", DsType.GAUGE, 2 * STEP, Double.NaN, Double.NaN);
+                rrdDef.addArchive(AVERAGE, 0.5, 1, ROWS);
+                RrdDb rrdDb = new RrdDb(rrdDef, RrdBackendFactory.getFactory("MEMORY"));
+                rrds.add(rrdDb);
+                Sample sample = rrdDb.createSample();
+                double base = 20 + random.nextGaussian() * 5;
+                for (int row = 1; row <= ROWS; row++) {
+                    sample.setTime(start + row * STEP);
+                    sample.setValue(0, random.nextInt(100) == 0 ? Double.NaN
+                            : base + 3 * Math.sin(row * 2 * Math.PI / 288) + random.nextGaussian());
+                    sample.update();
+                }
+            }
+
+            // the sketches of each thread, merged
+            long sketchStart = System.nanoTime();
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            List<Future<QuantileSketch>> futures = new ArrayList<Future<QuantileSketch>>();
+            for (int t = 0; t < THREADS; t++) {
+                final int first = t;
+                futures.add(executor.submit(new Callable<QuantileSketch>() {
+                    public QuantileSketch call() throws IOException {
+                        QuantileSketch sketch = new QuantileSketch();
+                        for (int sensor = first; sensor < SENSORS; sensor += THREADS) {
+                            sketch.add(rrds.get(sensor).getArchive(0).getRobin(0));
+                        }
+                        return sketch;
+                    }
+                }));
+            }
+            QuantileSketch fleet = new QuantileSketch();
+            for (Future<QuantileSketch> future : futures) {
+                fleet.merge(future.get());
+            }
+            executor.shutdown();
+            double[] approximate = fleet.getPercentiles(PERCENTILES);
+            long sketchTime = System.nanoTime() - sketchStart;
+
+            // all the values, sorted
+            long exactStart = System.nanoTime();
+            double[] all = new double[SENSORS * ROWS];
+            int count = 0;
+            for (RrdDb rrdDb : rrds) {
+                for (double value : rrdDb.getArchive(0).getRobin(0).getValues()) {
+                    if (!Double.isNaN(value)) {
+                        all[count++] = value;
+                    }
+                }
+            }
+            Arrays.sort(all, 0, count);
+            long exactTime = System.nanoTime() - exactStart;
+
+            System.out.println(String.format("%d values, %d kept by the sketch, sketch %.1fms, exact %.1fms",
+                    fleet.getCount(), fleet.getRetainedCount(), sketchTime / 1e6, exactTime / 1e6));
+            System.out.println("percentile      exact  approximate  rank-error(%)");
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                double exact = all[(int) Math.round(PERCENTILES[i] * (count - 1) / 100)];
+                int rank = Arrays.binarySearch(all, 0, count, approximate[i]);
+                double rankError = 100.0 * (Math.abs(rank) - PERCENTILES[i] * (count - 1) / 100) / count;
+                System.out.println(String.format("%10.1f %10.3f %12.3f %14.3f", PERCENTILES[i], exact,
+                        approximate[i], rankError));
+            }
+        }
+        finally {
+            for (RrdDb rrdDb : rrds) {
+                rrdDb.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.rrd4j.demo;
+
+import static org.rrd4j.ConsolFun.*;
+
+import org.rrd4j.DsType;
+import org.rrd4j.core.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how reads on a single shared NIO backed RRD scale with the number of reader
+ * threads. Each reader repeatedly reads a whole robin directly (bypassing the RrdDb monitor),
+ * while one updater thread keeps storing samples.
+ */
+class NioReadContention {
+    private static final int DS_COUNT = 40;
+    private static final int ROWS = 10000;
+    private static final long STEP = 60;
+    private static final long RUN_MILLIS = 2000;
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32};
+
+    /**
+     * <p>main.</p>
+     *
+     * @param args an array of {@link java.lang.String} objects.
+     * @throws java.io.IOException if any.
+     * @throws java.lang.InterruptedException if any.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long start = Util.getTime() - ROWS * STEP;
+        String rrdFile = Util.getRrd4jDemoPath("contention.rrd");
+        RrdDef rrdDef = new RrdDef(rrdFile, start - 1, STEP);
+        rrdDef.setVersion(3);
+        for (int i = 0; i < DS_COUNT; i++) {
+            rrdDef.addDatasource("ds" + i, DsType.GAUGE, 2 * STEP, Double.NaN, Double.NaN);
+        }
+        rrdDef.addArchive(AVERAGE, 0.5, 1, ROWS);
+        final RrdDb rrdDb = new RrdDb(rrdDef, RrdBackendFactory.getFactory("NIO"));
+        try {
+            Sample sample = rrdDb.createSample();
+            long t = start;
+            for (; t < start + ROWS * STEP; t += STEP) {
+                sample.setTime(t);
+                for (int i = 0; i < DS_COUNT; i++) {
+                    sample.setValue(i, Math.sin(t / 3000.0) * i);
+                }
+                sample.update();
+            }
+            final long updaterStart = t;
+            System.out.println("threads  reads/s  reads/s/thread");
+            for (int threads : THREAD_COUNTS) {
+                long reads = run(rrdDb, threads, updaterStart);
+                double perSecond = reads * 1000.0 / RUN_MILLIS;
+                System.out.println(String.format("%7d %8.0f %15.0f", threads, perSecond, perSecond / threads));
+            }
+        }
+        finally {
+            rrdDb.close();
+        }
+    }
+
+    private static long run(final RrdDb rrdDb, int threads, final long updaterStart) throws InterruptedException {
+        final AtomicLong reads = new AtomicLong();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final long deadline = System.currentTimeMillis() + RUN_MILLIS;
+        Thread[] readers = new Thread[threads];
+        for (int r = 0; r < threads; r++) {
+            final int dsIndex = r % DS_COUNT;
+            readers[r] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        startLatch.await();
+                        Robin robin = rrdDb.getArchive(0).getRobin(dsIndex);
+                        long count = 0;
+                        while (System.currentTimeMillis() < deadline) {
+                            robin.getValues();
+                            count++;
+                        }
+                        reads.addAndGet(count);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        Thread updater = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    startLatch.await();
+                    Sample sample = rrdDb.createSample();
+                    long t = Math.max(updaterStart, rrdDb.getLastUpdateTime() + STEP);
+                    while (System.currentTimeMillis() < deadline) {
+                        sample.setTime(t);
+                        sample.setValue(0, t);
+                        sample.update();
+                        t += STEP;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        updater.start();
+        startLatch.countDown();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        updater.join();
+        return reads.get();
+    }
+}
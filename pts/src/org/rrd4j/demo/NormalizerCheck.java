@@ -0,0 +1,118 @@
+package org.rrd4j.demo;
+
+import static org.rrd4j.ConsolFun.AVERAGE;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.rrd4j.DsType;
+import org.rrd4j.core.FetchData;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.Sample;
+import org.rrd4j.core.Util;
+import org.rrd4j.data.DataProcessor;
+
+/**
+ * Compares the values fetched and normalized by a {@link org.rrd4j.data.DataProcessor} with the former
+ * normalization, filling arrays of values and weights from every overlap of a fetched step and a normalized
+ * one, for random RRD steps, processor steps and periods, with gaps. The values must be the same.
+ */
+class NormalizerCheck {
+    private static final long[] STEPS = {1, 7, 10, 30, 60, 90, 120, 300, 600, 3600};
+    private static final int ROWS = 500;
+    private static final int RUNS = 5000;
+
+    /**
+     * <p>main.</p>
+     *
+     * @param args an array of {@link java.lang.String} objects.
+     * @throws java.io.IOException if any.
+     */
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(0);
+        int mismatches = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long rrdStep = STEPS[random.nextInt(STEPS.length)];
+            long step = random.nextInt(4) == 0 ? rrdStep : STEPS[random.nextInt(STEPS.length)];
+            long start = 1000000000L - 1000000000L % 3600;
+            RrdDef rrdDef = new RrdDef("normalizer" + run, start - rrdStep, rrdStep);
+            rrdDef.addDatasource("value", DsType.GAUGE, 2 * rrdStep, Double.NaN, Double.NaN);
+            rrdDef.addArchive(AVERAGE, 0.5, 1, ROWS);
+            RrdDb rrdDb = new RrdDb(rrdDef, RrdBackendFactory.getFactory("MEMORY"));
+            try {
+                Sample sample = rrdDb.createSample();
+                for (int row = 0; row < ROWS; row++) {
+                    // the rows not updated are gaps
+                    if (random.nextInt(10) > 0) {
+                        sample.setTime(start + row * rrdStep);
+                        sample.setValue(0, random.nextGaussian() * 1000);
+                        sample.update();
+                    }
+                }
+                long end = start + ROWS * rrdStep;
+                long t1 = start + (long) (random.nextDouble() * (end - start) / 2);
+                long t2 = t1 + 2 * step + (long) (random.nextDouble() * (end - t1));
+                FetchData fetchData = rrdDb.createFetchRequest(AVERAGE, t1, t2).fetchData();
+                DataProcessor dp = new DataProcessor(t1, t2);
+                dp.setStep(step);
+                dp.addDatasource("value", "value", fetchData);
+                dp.processData();
+                double[] expected = normalize(dp.getTimestamps(), fetchData.getTimestamps(), fetchData.getValues("value"));
+                if (!Arrays.equals(expected, dp.getValues("value"))) {
+                    mismatches++;
+                    System.out.println("mismatch: rrd step " + rrdStep + ", step " + step + ", " + t1 + " to " + t2);
+                }
+            }
+            finally {
+                rrdDb.close();
+            }
+        }
+        System.out.println(RUNS + " runs, " + mismatches + " mismatches");
+    }
+
+    // the normalization by arrays of values and weights
+    private static double[] normalize(long[] timestamps, long[] rawTimestamps, double[] rawValues) {
+        int count = timestamps.length;
+        long step = timestamps[1] - timestamps[0];
+        int rawCount = rawTimestamps.length;
+        long rawStep = rawTimestamps[1] - rawTimestamps[0];
+        if (rawCount == count && rawStep == step && rawTimestamps[0] == timestamps[0]) {
+            return rawValues.clone();
+        }
+        double[] values = new double[count];
+        Arrays.fill(values, Double.NaN);
+        double[] weights = new double[count];
+        Arrays.fill(weights, Double.NaN);
+        for (int rawSeg = 0, seg = 0; rawSeg < rawCount && seg < count; rawSeg++) {
+            double rawValue = rawValues[rawSeg];
+            if (!Double.isNaN(rawValue)) {
+                long rawLeft = rawTimestamps[rawSeg] - rawStep;
+                while (seg < count && rawLeft >= timestamps[seg]) {
+                    seg++;
+                }
+                boolean overlap = true;
+                for (int fillSeg = seg; overlap && fillSeg < count; fillSeg++) {
+                    long left = timestamps[fillSeg] - step;
+                    long t1 = Math.max(rawLeft, left);
+                    long t2 = Math.min(rawTimestamps[rawSeg], timestamps[fillSeg]);
+                    if (t1 < t2) {
+                        values[fillSeg] = Util.sum(values[fillSeg], (t2 - t1) * rawValue);
+                        weights[fillSeg] = Util.sum(weights[fillSeg], t2 - t1);
+                    }
+                    else {
+                        overlap = false;
+                    }
+                }
+            }
+        }
+        for (int seg = 0; seg < count; seg++) {
+            if (!Double.isNaN(weights[seg])) {
+                values[seg] /= weights[seg];
+            }
+        }
+        return values;
+    }
+}
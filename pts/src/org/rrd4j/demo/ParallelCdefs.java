@@ -0,0 +1,84 @@
+package org.rrd4j.demo;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.rrd4j.data.DataProcessor;
+import org.rrd4j.data.Plottable;
+import org.rrd4j.data.Variable;
+
+/**
+ * Compares the sources of a data processor calculated one after the other and in parallel, like the
+ * per-interface bit rates of a large graph, and measures how long each takes. The values must be the same.
+ */
+class ParallelCdefs {
+    private static final int INTERFACES = 200;
+    private static final long STEP = 60;
+    private static final int ROWS = 30 * 1440;
+    private static final int RUNS = 5;
+
+    /**
+     * <p>main.</p>
+     *
+     * @param args an array of {@link java.lang.String} objects.
+     * @throws java.io.IOException if any.
+     */
+    public static void main(String[] args) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            System.out.println("run  serial(ms)  parallel(ms)  mismatches");
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                DataProcessor serial = calculate(null);
+                long serialTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                DataProcessor parallel = calculate(pool);
+                long parallelTime = System.nanoTime() - start;
+                System.out.println(String.format("%3d %11.1f %13.1f %11d", run, serialTime / 1e6, parallelTime / 1e6,
+                        compare(serial, parallel)));
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private static DataProcessor calculate(ForkJoinPool pool) throws IOException {
+        long end = 1000000000L;
+        DataProcessor dp = new DataProcessor(end - ROWS * STEP, end);
+        dp.setStep(STEP);
+        dp.setPixelCount(ROWS);
+        dp.setCalculationPool(pool);
+        for (int i = 0; i < INTERFACES; i++) {
+            final double period = 3600.0 * (i % 24 + 1);
+            dp.addDatasource("in" + i, new Plottable() {
+                @Override
+                public double getValue(long timestamp) {
+                    return timestamp % 97 == 0 ? Double.NaN : 1000 * (1.5 + Math.sin(timestamp / period));
+                }
+            });
+            dp.addDatasource("bits" + i, "in" + i + ",8,*");
+            dp.addDatasource("trend" + i, "bits" + i + ",3600,TREND");
+            dp.addDatasource("average" + i, "bits" + i, new Variable.AVERAGE());
+            dp.addDatasource("p95_" + i, "bits" + i, new Variable.PERCENTILE(95));
+        }
+        dp.processData();
+        return dp;
+    }
+
+    private static int compare(DataProcessor serial, DataProcessor parallel) {
+        int mismatches = 0;
+        for (int i = 0; i < INTERFACES; i++) {
+            if (!Arrays.equals(serial.getValues("trend" + i), parallel.getValues("trend" + i))) {
+                mismatches++;
+            }
+            for (String name : new String[] {"average" + i, "p95_" + i}) {
+                if (Double.compare(serial.getVariable(name).value, parallel.getVariable(name).value) != 0) {
+                    mismatches++;
+                }
+            }
+        }
+        return mismatches;
+    }
+}
@@ -0,0 +1,119 @@
+package org.rrd4j.demo;
+
+import org.rrd4j.core.Util;
+import org.rrd4j.data.DataProcessor;
+import org.rrd4j.data.Plottable;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the PREDICT and PREDICTSIGMA values calculated by a {@link org.rrd4j.data.DataProcessor} with a
+ * naive calculation, summing all the shifted windows again at each slot, and measures both. The values are a
+ * month of one minute samples with gaps and a few infinities, predicted from the same hour of the previous
+ * days or weeks.
+ */
+class PredictCheck {
+    private static final long STEP = 60;
+    private static final int SLOTS = 30 * 1440;
+    private static final String[] SHIFTS = {"86400,-7,1800", "604800,1209600,1814400,3,3600"};
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * <p>main.</p>
+     *
+     * @param args an array of {@link java.lang.String} objects.
+     * @throws java.io.IOException if any.
+     */
+    public static void main(String[] args) throws IOException {
+        final long start = Util.normalize(Util.getTime(), STEP) - SLOTS * STEP;
+        final double[] samples = new double[SLOTS];
+        Random random = new Random(0);
+        for (int i = 0; i < samples.length; i++) {
+            int kind = random.nextInt(100000);
+            samples[i] = kind < 5000 ? Double.NaN
+                    : kind == 5000 ? Double.POSITIVE_INFINITY
+                    : kind == 5001 ? Double.NEGATIVE_INFINITY
+                    : Math.sin(i / 500.0) * 1000 + random.nextGaussian() * 100;
+        }
+        System.out.println("function      shifts                         slots  mismatches  max-relative-error  naive(ms)  predict(ms)");
+        for (String function : new String[] {"PREDICT", "PREDICTSIGMA"}) {
+            for (String shifts : SHIFTS) {
+                DataProcessor dp = new DataProcessor(start, start + SLOTS * STEP);
+                // without RRD files, the step is the time span of a pixel
+                dp.setPixelCount(SLOTS);
+                dp.addDatasource("x", new Plottable() {
+                    public double getValue(long timestamp) {
+                        return samples[(int) (timestamp / STEP % samples.length)];
+                    }
+                });
+                dp.processData();
+                // the prediction alone
+                dp.addDatasource("p", shifts + ",x," + function);
+                long predictStart = System.nanoTime();
+                dp.processData();
+                long predictTime = System.nanoTime() - predictStart;
+                double[] values = dp.getValues("x");
+                double[] predictions = dp.getValues("p");
+                String[] parameters = shifts.split(",");
+                int locstep = (int) Math.ceil(Double.parseDouble(parameters[parameters.length - 1]) / dp.getStep());
+                int count = Integer.parseInt(parameters[parameters.length - 2]);
+                int[] shiftsteps = new int[Math.abs(count)];
+                for (int i = 0; i < shiftsteps.length; i++) {
+                    long shift = count < 0 ? i * Long.parseLong(parameters[0]) : Long.parseLong(parameters[count - 1 - i]);
+                    shiftsteps[i] = (int) Math.ceil(shift / (double) dp.getStep());
+                }
+                long naiveStart = System.nanoTime();
+                double[] expected = naive(values, shiftsteps, locstep, function.equals("PREDICTSIGMA"));
+                long naiveTime = System.nanoTime() - naiveStart;
+                int mismatches = 0;
+                double maxError = 0;
+                for (int i = 0; i < predictions.length; i++) {
+                    if (Double.isNaN(expected[i]) || Double.isInfinite(expected[i])) {
+                        if (Double.compare(expected[i], predictions[i]) != 0) {
+                            mismatches++;
+                        }
+                        continue;
+                    }
+                    double error = Math.abs(predictions[i] - expected[i]) / Math.max(1, Math.abs(expected[i]));
+                    maxError = Math.max(maxError, error);
+                    if (!(error <= TOLERANCE)) {
+                        mismatches++;
+                    }
+                }
+                System.out.println(String.format("%-13s %-29s %6d %11d %19.3g %10.1f %12.1f", function, shifts,
+                        predictions.length, mismatches, maxError, naiveTime / 1e6, predictTime / 1e6));
+            }
+        }
+    }
+
+    // the rrdtool compatible PREDICT: the windows end at each shift before the slot, excluding the first slot
+    private static double[] naive(double[] vals, int[] shiftsteps, int locstep, boolean sigma) {
+        double[] predictions = new double[vals.length];
+        for (int slot = 0; slot < vals.length; slot++) {
+            double sum = 0;
+            double sum2 = 0;
+            int count = 0;
+            for (int shiftstep : shiftsteps) {
+                for (int i = 0; i <= locstep; i++) {
+                    int offset = shiftstep + i;
+                    if (offset >= 0 && offset < slot && !Double.isNaN(vals[slot - offset])) {
+                        sum = Util.sum(sum, vals[slot - offset]);
+                        sum2 = Util.sum(sum2, vals[slot - offset] * vals[slot - offset]);
+                        count++;
+                    }
+                }
+            }
+            double val = Double.NaN;
+            if (!sigma && count > 0) {
+                val = sum / count;
+            }
+            else if (sigma && count > 1) {
+                val = count * sum2 - sum * sum;
+                val = val < 0 ? Double.NaN : Math.sqrt(val / ((float) count * ((float) count - 1.0)));
+            }
+            predictions[slot] = val;
+        }
+        return predictions;
+    }
+}
@@ -0,0 +1,142 @@
+package org.rrd4j.demo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.rrd4j.data.DataProcessor;
+import org.rrd4j.data.Plottable;
+
+/**
+ * Compares the values of random CDEF expressions calculated by a {@link org.rrd4j.data.DataProcessor}, compiled
+ * a column at a time, with the same expressions interpreted a slot at a time, and measures both. The expressions
+ * are interpreted when they end with PREV,POP, which leaves the stack unchanged. The values and the errors must
+ * be the same, the sources have unknown values, infinities and negative zeros.
+ */
+class RpnCheck {
+    private static final long STEP = 300;
+    private static final int SLOTS = 2000;
+    private static final int EXPRESSIONS = 3000;
+    private static final String[] SOURCES = {"a", "b", "c"};
+    private static final String[] LEAVES = {"a", "b", "c", "1", "0", "-0", "2.5", "UNKN", "PI", "E", "INF", "NEGINF",
+            "STEP", "COUNT", "TIME", "LTIME", "PREV(a)", "PREV(b)"};
+    private static final String[] UNARY = {"SIN", "COS", "LOG", "EXP", "SQRT", "ATAN", "FLOOR", "CEIL", "DEG2RAD",
+            "RAD2DEG", "ROUND", "ABS", "UN", "ISINF", "SIGN", "YEAR", "MONTH", "DATE", "HOUR", "MINUTE", "SECOND",
+            "WEEK", "DUP,POP", "DUP,*"};
+    private static final String[] BINARY = {"+", "ADDNAN", "-", "*", "/", "%", "ATAN2", "POW", "LT", "LE", "GT", "GE",
+            "EQ", "NE", "MIN", "MAX", "MINNAN", "MAXNAN", "AND", "OR", "XOR", "EXC,-", "EXC,/"};
+    // expressions with stack errors, or with counts the compiler can't use
+    private static final String[] INVALID = {"a,+", "a,b", "DUP", "a,b,c,3,SORT", "a,5,SORT", "a,b,EXC,POP,POP",
+            "a,b,2,AVG,c", "a,0,AVG", "a,-1,AVG", "a,b,+,PREV,+", "a,a,2,SORT,-", "a,1,PREV(b),2,REV,/",
+            "a,b,a,1,SORT,POP"};
+
+    /**
+     * <p>main.</p>
+     *
+     * @param args an array of {@link java.lang.String} objects.
+     * @throws java.io.IOException if any.
+     */
+    public static void main(String[] args) throws IOException {
+        long start = 1000000000L - 1000000000L % STEP;
+        Random random = new Random(0);
+        final double[][] samples = new double[SOURCES.length][SLOTS + 1];
+        for (double[] values : samples) {
+            for (int i = 0; i < values.length; i++) {
+                int kind = random.nextInt(20);
+                values[i] = kind == 0 ? Double.NaN
+                        : kind == 1 ? Double.POSITIVE_INFINITY
+                        : kind == 2 ? -0.0
+                        : kind == 3 ? 0
+                        : random.nextInt(100000) / 100.0 - 500;
+            }
+        }
+        List<String> expressions = new ArrayList<String>();
+        for (int i = 0; i < EXPRESSIONS; i++) {
+            expressions.add(generate(random, 1 + random.nextInt(5)));
+        }
+        expressions.addAll(Arrays.asList(INVALID));
+        int mismatches = 0;
+        int errors = 0;
+        long compiledTime = 0;
+        long interpretedTime = 0;
+        for (String expression : expressions) {
+            long t = System.nanoTime();
+            String compiled = calculate(start, samples, expression, "");
+            compiledTime += System.nanoTime() - t;
+            t = System.nanoTime();
+            String interpreted = calculate(start, samples, expression, ",PREV,POP");
+            interpretedTime += System.nanoTime() - t;
+            if (compiled.startsWith("error")) {
+                errors++;
+            }
+            if (!compiled.equals(interpreted)) {
+                mismatches++;
+                System.out.println("mismatch: " + expression);
+            }
+        }
+        System.out.println("expressions  mismatches  errors  compiled(ms)  interpreted(ms)");
+        System.out.println(String.format("%11d %11d %7d %13.1f %16.1f", expressions.size(), mismatches, errors,
+                compiledTime / 1e6, interpretedTime / 1e6));
+    }
+
+    // the bits of the values calculated, with a single NaN, or the error, quoting the expression without its suffix
+    private static String calculate(long start, final double[][] samples, String expression, String suffix)
+            throws IOException {
+        DataProcessor dp = new DataProcessor(start, start + SLOTS * STEP);
+        dp.setStep(STEP);
+        for (int i = 0; i < SOURCES.length; i++) {
+            final double[] values = samples[i];
+            dp.addDatasource(SOURCES[i], new Plottable() {
+                public double getValue(long timestamp) {
+                    return values[(int) (timestamp / STEP % values.length)];
+                }
+            });
+        }
+        dp.addDatasource("x", expression + suffix);
+        try {
+            dp.processData();
+        }
+        catch (IllegalArgumentException e) {
+            return "error: " + e.getMessage().replace(expression + suffix, expression);
+        }
+        double[] values = dp.getValues("x");
+        long[] bits = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bits[i] = Double.doubleToLongBits(values[i]);
+        }
+        return Arrays.toString(bits);
+    }
+
+    private static String generate(Random random, int depth) {
+        switch (depth <= 0 ? 0 : random.nextInt(6)) {
+        case 0:
+            return LEAVES[random.nextInt(LEAVES.length)];
+        case 1:
+            return generate(random, depth - 1) + "," + UNARY[random.nextInt(UNARY.length)];
+        case 2:
+        case 3:
+            return generate(random, depth - 1) + "," + generate(random, depth - 1) + ","
+                    + BINARY[random.nextInt(BINARY.length)];
+        case 4:
+            return generate(random, depth - 1) + "," + generate(random, depth - 1) + "," + generate(random, depth - 1)
+                    + "," + (random.nextBoolean() ? "IF" : "LIMIT");
+        default:
+            // AVG of the operands, or SORT and REV then combined
+            int count = 1 + random.nextInt(4);
+            StringBuilder expression = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                expression.append(generate(random, depth - 1)).append(',');
+            }
+            String operator = new String[] {"AVG", "SORT", "REV"}[random.nextInt(3)];
+            expression.append(count).append(',').append(operator);
+            if (!operator.equals("AVG")) {
+                for (int i = 1; i < count; i++) {
+                    expression.append(',').append(BINARY[random.nextInt(BINARY.length)]);
+                }
+            }
+            return expression.toString();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.rrd4j.demo;
+
+import org.rrd4j.core.Util;
+import org.rrd4j.data.DataProcessor;
+import org.rrd4j.data.Plottable;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the TREND and TRENDNAN values calculated by a {@link org.rrd4j.data.DataProcessor} with a naive
+ * calculation, averaging the whole window again at each slot, and measures both. The values are a month of
+ * one minute samples with gaps and a few infinities, averaged over windows up to a day.
+ */
+class TrendCheck {
+    private static final long STEP = 60;
+    private static final int SLOTS = 30 * 1440;
+    private static final int[] DURATIONS = {300, 3600, 86400};
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * <p>main.</p>
+     *
+     * @param args an array of {@link java.lang.String} objects.
+     * @throws java.io.IOException if any.
+     */
+    public static void main(String[] args) throws IOException {
+        final long start = Util.normalize(Util.getTime(), STEP) - SLOTS * STEP;
+        final double[] samples = new double[SLOTS];
+        Random random = new Random(0);
+        for (int i = 0; i < samples.length; i++) {
+            int kind = random.nextInt(100000);
+            samples[i] = kind < 5000 ? Double.NaN
+                    : kind == 5000 ? Double.POSITIVE_INFINITY
+                    : kind == 5001 ? Double.NEGATIVE_INFINITY
+                    : Math.sin(i / 500.0) * 1000 + random.nextGaussian() * 100;
+        }
+        System.out.println("function  duration  slots  mismatches  max-relative-error  naive(ms)  trend(ms)");
+        for (String function : new String[] {"TREND", "TRENDNAN"}) {
+            for (int duration : DURATIONS) {
+                DataProcessor dp = new DataProcessor(start, start + SLOTS * STEP);
+                // without RRD files, the step is the time span of a pixel
+                dp.setPixelCount(SLOTS);
+                dp.addDatasource("x", new Plottable() {
+                    public double getValue(long timestamp) {
+                        return samples[(int) (timestamp / STEP % samples.length)];
+                    }
+                });
+                dp.processData();
+                // the trend alone
+                dp.addDatasource("t", "x," + duration + "," + function);
+                long trendStart = System.nanoTime();
+                dp.processData();
+                long trendTime = System.nanoTime() - trendStart;
+                double[] values = dp.getValues("x");
+                double[] trends = dp.getValues("t");
+                long naiveStart = System.nanoTime();
+                double[] expected = naive(values, (int) Math.ceil(duration / (double) dp.getStep()),
+                        function.equals("TRENDNAN"));
+                long naiveTime = System.nanoTime() - naiveStart;
+                int mismatches = 0;
+                double maxError = 0;
+                for (int i = 0; i < trends.length; i++) {
+                    if (Double.isNaN(expected[i]) || Double.isInfinite(expected[i])) {
+                        if (Double.compare(expected[i], trends[i]) != 0) {
+                            mismatches++;
+                        }
+                        continue;
+                    }
+                    double error = Math.abs(trends[i] - expected[i]) / Math.max(1, Math.abs(expected[i]));
+                    maxError = Math.max(maxError, error);
+                    if (!(error <= TOLERANCE)) {
+                        mismatches++;
+                    }
+                }
+                System.out.println(String.format("%-8s %9d %6d %11d %19.3g %10.1f %10.1f", function, duration,
+                        trends.length, mismatches, maxError, naiveTime / 1e6, trendTime / 1e6));
+            }
+        }
+    }
+
+    // the rrdtool compatible TREND: the window ends two slots after the slot, or at the last slot
+    private static double[] naive(double[] vals, int width, boolean ignorenan) {
+        double[] trends = new double[vals.length];
+        for (int slot = 0; slot < vals.length; slot++) {
+            if (slot + 1 < width) {
+                trends[slot] = Double.NaN;
+                continue;
+            }
+            double accum = 0.0;
+            int count = 0;
+            int row = Math.min(2, vals.length - slot);
+            for (int start = width; start > 0; start--) {
+                double val = vals[slot + row - start];
+                if (ignorenan || !Double.isNaN(val)) {
+                    accum = Util.sum(accum, val);
+                    ++count;
+                }
+            }
+            trends[slot] = count == 0 ? Double.NaN : accum / count;
+        }
+        return trends;
+    }
+}
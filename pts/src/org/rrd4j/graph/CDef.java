@@ -13,4 +13,8 @@ class CDef extends Source {
     void requestData(DataProcessor dproc) {
         dproc.addDatasource(name, rpnExpression);
     }
+
+    boolean describe(StringBuilder key) {
+        return RrdGraphCache.describe(key, "CDEF", name, rpnExpression);
+    }
 }
@@ -45,4 +45,15 @@ class CommentText implements RrdGraphConstants {
     boolean isValidGraphElement() {
         return !isPrint() && enabled;
     }
+
+    /**
+     * Appends the description of the comment to a graph cache key, subclasses appending their own fields.
+     * The text resolved while the graph is rendered is not described.
+     *
+     * @param key the cache key.
+     * @return false if the comment can't be described, so the graph can't be cached.
+     */
+    boolean describe(StringBuilder key) {
+        return RrdGraphCache.describe(key, getClass().getSimpleName(), text);
+    }
 }
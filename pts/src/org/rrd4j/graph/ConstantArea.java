@@ -14,7 +14,7 @@ public class ConstantArea extends Area {
     }
 
     void assignValues(DataProcessor dproc) {
-        values = new double[dproc.getTimestamps().length];
+        values = new double[dproc.getTimeline().getCount()];
         Arrays.fill(values, value);
         if(parent != null) {
             double[] parentValues = parent.getValues();
@@ -26,4 +26,7 @@ public class ConstantArea extends Area {
         }
     }
 
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, value);
+    }
 }
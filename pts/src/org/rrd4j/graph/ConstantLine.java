@@ -15,7 +15,7 @@ public class ConstantLine extends Line {
     }
 
     void assignValues(DataProcessor dproc) {
-        values = new double[dproc.getTimestamps().length];
+        values = new double[dproc.getTimeline().getCount()];
         Arrays.fill(values, value);
         if(parent != null) {
             double[] parentValues = parent.getValues();
@@ -27,4 +27,7 @@ public class ConstantLine extends Line {
         }
     }
 
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, value);
+    }
 }
@@ -19,6 +19,14 @@ class Def extends Source {
         this.backend = backend;
     }
 
+    String getRrdPath() {
+        return rrdPath;
+    }
+
+    String getBackend() {
+        return backend;
+    }
+
     void requestData(DataProcessor dproc) {
         if (backend == null) {
             dproc.addDatasource(name, rrdPath, dsName, consolFun);
@@ -27,4 +35,8 @@ class Def extends Source {
             dproc.addDatasource(name, rrdPath, dsName, consolFun, backend);
         }
     }
+
+    boolean describe(StringBuilder key) {
+        return RrdGraphCache.describe(key, "DEF", name, rrdPath, dsName, consolFun, backend);
+    }
 }
@@ -11,6 +11,10 @@ class HRule extends Rule {
         this.value = value;
     }
 
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, value);
+    }
+
     void setLegendVisibility(double minval, double maxval, boolean forceLegend) {
         legend.enabled &= (forceLegend || (value >= minval && value <= maxval));
     }
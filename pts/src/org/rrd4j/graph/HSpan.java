@@ -13,6 +13,10 @@ class HSpan extends Span {
         assert(start < end);
     }
 
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, start, end);
+    }
+
     private boolean checkRange(double v, double min, double max) {
         return v >= min && v <= max;
     }
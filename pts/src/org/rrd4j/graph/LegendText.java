@@ -9,4 +9,8 @@ class LegendText extends CommentText {
         super(text);
         this.legendColor = legendColor;
     }
+
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, legendColor);
+    }
 }
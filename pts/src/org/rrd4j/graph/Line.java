@@ -11,4 +11,8 @@ class Line extends SourcedPlotElement {
         this.stroke = stroke;
     }
 
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, stroke);
+    }
+
 }
@@ -14,4 +14,9 @@ class PDef extends Source {
     void requestData(DataProcessor dproc) {
         dproc.addDatasource(name, plottable);
     }
+
+    // the values of a plottable are not known
+    boolean describe(StringBuilder key) {
+        return false;
+    }
 }
@@ -8,4 +8,14 @@ class PlotElement {
     PlotElement(Paint color) {
         this.color = color;
     }
+
+    /**
+     * Appends the description of the element to a graph cache key, subclasses appending their own fields.
+     *
+     * @param key the cache key.
+     * @return false if the element can't be described, so the graph can't be cached.
+     */
+    boolean describe(StringBuilder key) {
+        return RrdGraphCache.describe(key, getClass().getSimpleName(), color);
+    }
 }
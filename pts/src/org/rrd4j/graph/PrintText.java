@@ -26,10 +26,18 @@ class PrintText extends CommentText {
         this.strftime = strftime;
     }
 
+    String getSrcName() {
+        return srcName;
+    }
+
     boolean isPrint() {
         return !includedInGraph;
     }
 
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, srcName, includedInGraph, strftime);
+    }
+
     void resolveText(Locale l, DataProcessor dproc, ValueScaler valueScaler) {
         super.resolveText(l, dproc, valueScaler);
         Value v = dproc.getVariable(srcName);
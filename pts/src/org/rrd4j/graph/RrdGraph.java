@@ -7,6 +7,8 @@ import java.awt.Graphics;
 import java.awt.Paint;
 import java.awt.Stroke;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 
 import javax.swing.ImageIcon;
 
@@ -42,8 +44,25 @@ public class RrdGraph implements RrdGraphConstants {
      * @throws java.io.IOException Thrown in case of I/O error
      */
     public RrdGraph(RrdGraphDef gdef) throws IOException {
+        this(gdef, null);
+    }
+
+    /**
+     * Creates graph from the corresponding {@link org.rrd4j.graph.RrdGraphDef} object, or gets it from
+     * a cache of graphs if the same graph was already created and is not outdated.
+     *
+     * @param gdef  Graph definition
+     * @param cache Graph cache, or null to always create the graph
+     * @throws java.io.IOException Thrown in case of I/O error
+     * @see RrdGraphCache
+     */
+    public RrdGraph(RrdGraphDef gdef, RrdGraphCache cache) throws IOException {
         this.gdef = gdef;
         signature = gdef.getSignature();
+        if (cache != null) {
+            info = cache.getRrdGraphInfo(gdef);
+            return;
+        }
         worker = new ImageWorker(1, 1); // Dummy worker, just to start with something
         try {
             createGraph();
@@ -600,6 +619,7 @@ public class RrdGraph implements RrdGraphConstants {
     private void fetchData() throws IOException {
         dproc = new DataProcessor(gdef.startTime, gdef.endTime);
         dproc.setPoolUsed(gdef.poolUsed);
+        dproc.setCalculationPool(gdef.calculationPool);
         dproc.setTimeZone(gdef.tz);
         if (gdef.step > 0) {
             dproc.setStep(gdef.step);
@@ -608,6 +628,20 @@ public class RrdGraph implements RrdGraphConstants {
         for (Source src : gdef.sources) {
             src.requestData(dproc);
         }
+        // only the sources drawn or printed, and the ones they depend on, are calculated
+        Set<String> requiredSources = new HashSet<String>();
+        for (PlotElement pe : gdef.plotElements) {
+            // constant lines and areas are named after their value, their stack parent is a plot element as well
+            if (pe instanceof SourcedPlotElement && !(pe instanceof ConstantLine) && !(pe instanceof ConstantArea)) {
+                requiredSources.add(((SourcedPlotElement) pe).srcName);
+            }
+        }
+        for (CommentText comment : gdef.comments) {
+            if (comment instanceof PrintText) {
+                requiredSources.add(((PrintText) comment).getSrcName());
+            }
+        }
+        dproc.setRequiredSources(requiredSources);
         dproc.processData();
         im.start = gdef.startTime;
         im.end = gdef.endTime;
@@ -0,0 +1,467 @@
+package org.rrd4j.graph;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDbPool;
+import org.rrd4j.core.Util;
+import org.rrd4j.data.Variable;
+
+/**
+ * <p>Bounded cache of in-memory graphs, for a web tier serving the same graphs to many viewers. Use it with
+ * {@link org.rrd4j.graph.RrdGraph#RrdGraph(RrdGraphDef, RrdGraphCache)} or
+ * {@link #getRrdGraphInfo(RrdGraphDef)}.</p>
+ *
+ * <p>Graphs are cached by the content of their definition, with the start and end times normalized to the graph
+ * step or, if not set, to the time span of a pixel: definitions built the same way a few seconds apart share the
+ * same graph. A cached graph is created again once the last update time of one of the RRD files it uses changes.
+ * Concurrent requests of the same graph wait for a single creation.</p>
+ *
+ * <p>Only graphs created in memory (with the {@link RrdGraphConstants#IN_MEMORY_IMAGE} filename) and made of
+ * RRD files and of sources and values provided by Rrd4j are cached. Graphs using {@link org.rrd4j.core.FetchData},
+ * plottables (even the interpolators of Rrd4j), custom paints, strokes, variables, time label formats or down
+ * samplers are always created. Background and overlay images are identified by their path.</p>
+ *
+ * <p>The last update times of the RRD files are read for each request, even when the graph is cached. With
+ * {@link RrdGraphDef#setPoolUsed(boolean) setPoolUsed(true)}, they are read from the RRD files kept open by the
+ * {@link org.rrd4j.core.RrdDbPool RrdDbPool}; without the pool, even a cache hit opens and closes every RRD file
+ * of the graph.</p>
+ */
+public class RrdGraphCache {
+    /**
+     * Default maximum number of graphs cached.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 100;
+    /**
+     * Default maximum size of the graphs cached: 16MB.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    // approximate overhead of an entry, its key and its graph information
+    private static final long ENTRY_OVERHEAD = 1024;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private int maxEntries;
+    private long maxBytes;
+    private long bytes = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long uncachedCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Creates a cache holding at most {@link #DEFAULT_MAX_ENTRIES} graphs and {@link #DEFAULT_MAX_BYTES} bytes.
+     */
+    public RrdGraphCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a cache holding at most the given number of graphs and bytes.
+     *
+     * @param maxEntries maximum number of graphs cached.
+     * @param maxBytes   maximum size of the graphs cached, in bytes.
+     */
+    public RrdGraphCache(int maxEntries, long maxBytes) {
+        setMaxEntries(maxEntries);
+        setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Returns the graph information of a graph definition, creating the graph if it's not cached or outdated.
+     * The bytes of the graph returned are a copy of the cached ones.
+     *
+     * @param gdef Graph definition
+     * @return Graph information
+     * @throws java.io.IOException Thrown in case of I/O error
+     */
+    public RrdGraphInfo getRrdGraphInfo(final RrdGraphDef gdef) throws IOException {
+        String key = getKey(gdef);
+        if (key == null) {
+            synchronized (entries) {
+                uncachedCount++;
+            }
+            return new RrdGraph(gdef).getRrdGraphInfo();
+        }
+        long[] lastUpdateTimes = getLastUpdateTimes(gdef);
+        Entry entry;
+        boolean creator = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && Arrays.equals(entry.lastUpdateTimes, lastUpdateTimes)) {
+                hitCount++;
+            }
+            else {
+                missCount++;
+                if (entry != null) {
+                    remove(key);
+                }
+                entry = new Entry(lastUpdateTimes, new FutureTask<RrdGraphInfo>(new Callable<RrdGraphInfo>() {
+                    public RrdGraphInfo call() throws IOException {
+                        return new RrdGraph(gdef).getRrdGraphInfo();
+                    }
+                }));
+                entries.put(key, entry);
+                creator = true;
+            }
+        }
+        if (creator) {
+            entry.graph.run();
+        }
+        RrdGraphInfo info;
+        try {
+            info = entry.graph.get();
+        }
+        catch (ExecutionException e) {
+            synchronized (entries) {
+                if (entries.get(key) == entry) {
+                    remove(key);
+                }
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("graph creation interrupted", e);
+        }
+        if (creator) {
+            synchronized (entries) {
+                if (entries.get(key) == entry) {
+                    entry.bytes = ENTRY_OVERHEAD + key.length() + info.getByteCount();
+                    bytes += entry.bytes;
+                    evict();
+                }
+            }
+        }
+        return new RrdGraphInfo(info);
+    }
+
+    // must be called while holding the lock on entries
+    private void remove(String key) {
+        bytes -= entries.remove(key).bytes;
+    }
+
+    // must be called while holding the lock on entries
+    private void evict() {
+        Iterator<Entry> i = entries.values().iterator();
+        while ((bytes > maxBytes || entries.size() > maxEntries) && i.hasNext()) {
+            bytes -= i.next().bytes;
+            i.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Removes all the graphs cached.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Returns the maximum number of graphs cached.
+     *
+     * @return the maximum number of graphs.
+     */
+    public int getMaxEntries() {
+        synchronized (entries) {
+            return maxEntries;
+        }
+    }
+
+    /**
+     * Sets the maximum number of graphs cached, evicting the least recently used graphs beyond.
+     *
+     * @param maxEntries the maximum number of graphs.
+     */
+    public void setMaxEntries(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Invalid maximum number of graphs: " + maxEntries);
+        }
+        synchronized (entries) {
+            this.maxEntries = maxEntries;
+            evict();
+        }
+    }
+
+    /**
+     * Returns the maximum size of the graphs cached.
+     *
+     * @return the maximum size, in bytes.
+     */
+    public long getMaxBytes() {
+        synchronized (entries) {
+            return maxBytes;
+        }
+    }
+
+    /**
+     * Sets the maximum size of the graphs cached, evicting the least recently used graphs beyond.
+     *
+     * @param maxBytes the maximum size, in bytes.
+     */
+    public void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid maximum cache size: " + maxBytes);
+        }
+        synchronized (entries) {
+            this.maxBytes = maxBytes;
+            evict();
+        }
+    }
+
+    /**
+     * Returns the approximate size of the graphs cached.
+     *
+     * @return the size, in bytes.
+     */
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    /**
+     * Returns the number of graphs cached.
+     *
+     * @return the number of graphs.
+     */
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of requests served by the cache, including the ones waiting for a graph being created.
+     *
+     * @return the number of hits.
+     */
+    public long getHitCount() {
+        synchronized (entries) {
+            return hitCount;
+        }
+    }
+
+    /**
+     * Returns the number of requests creating a graph, because it was not cached or was outdated.
+     *
+     * @return the number of misses.
+     */
+    public long getMissCount() {
+        synchronized (entries) {
+            return missCount;
+        }
+    }
+
+    /**
+     * Returns the number of requests creating a graph that can't be cached.
+     *
+     * @return the number of graphs not cached.
+     */
+    public long getUncachedCount() {
+        synchronized (entries) {
+            return uncachedCount;
+        }
+    }
+
+    /**
+     * Returns the number of graphs evicted to stay within the maximum number of graphs and size.
+     *
+     * @return the number of evictions.
+     */
+    public long getEvictionCount() {
+        synchronized (entries) {
+            return evictionCount;
+        }
+    }
+
+    // the last update times of the RRD files used by the graph, in the order of their first use
+    private static long[] getLastUpdateTimes(RrdGraphDef gdef) throws IOException {
+        Set<List<String>> rrds = new LinkedHashSet<List<String>>();
+        for (Source source : gdef.sources) {
+            if (source instanceof Def) {
+                Def def = (Def) source;
+                rrds.add(Arrays.asList(def.getRrdPath(), def.getBackend()));
+            }
+        }
+        long[] lastUpdateTimes = new long[rrds.size()];
+        int i = 0;
+        for (List<String> rrd : rrds) {
+            String path = rrd.get(0), backend = rrd.get(1);
+            if (gdef.poolUsed && backend == null) {
+                RrdDbPool pool = RrdDbPool.getInstance();
+                RrdDb rrdDb = pool.requestRrdDb(path);
+                try {
+                    lastUpdateTimes[i++] = rrdDb.getLastUpdateTime();
+                }
+                finally {
+                    pool.release(rrdDb);
+                }
+            }
+            else {
+                RrdDb rrdDb = backend == null ? new RrdDb(path, true)
+                        : new RrdDb(path, true, RrdBackendFactory.getFactory(backend));
+                try {
+                    lastUpdateTimes[i++] = rrdDb.getLastUpdateTime();
+                }
+                finally {
+                    rrdDb.close();
+                }
+            }
+        }
+        return lastUpdateTimes;
+    }
+
+    // the canonical description of the graph definition, or null if the graph can't be cached
+    static String getKey(RrdGraphDef gdef) {
+        if (!RrdGraphConstants.IN_MEMORY_IMAGE.equals(gdef.filename)) {
+            return null;
+        }
+        long step = gdef.step;
+        if (step <= 0) {
+            step = Math.max(1, (gdef.endTime - gdef.startTime) / Math.max(1, gdef.width));
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(Util.normalize(gdef.startTime, step)).append(' ');
+        key.append(gdef.endTime == 0 ? 0 : Util.normalize(gdef.endTime, step)).append(' ');
+        return gdef.describe(key) ? key.toString() : null;
+    }
+
+    /**
+     * Appends the description of values to a cache key. The values are either simple values, whose content is
+     * described, or graph definition objects, which describe themselves.
+     *
+     * @param key    the cache key.
+     * @param values the values described.
+     * @return false if one of the values can't be described, and the graph can't be cached.
+     */
+    static boolean describe(StringBuilder key, Object... values) {
+        for (Object o : values) {
+            if (!describe(key, o)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean describe(StringBuilder key, Object o) {
+        if (o == null) {
+            key.append("null ");
+            return true;
+        }
+        Class<?> c = o.getClass();
+        if (o instanceof String) {
+            key.append(((String) o).length()).append(':').append(o).append(' ');
+        }
+        else if (o instanceof Number || o instanceof Boolean || o instanceof Character || o instanceof Enum) {
+            key.append(o).append(' ');
+        }
+        else if (o instanceof Color) {
+            key.append("color:").append(((Color) o).getRGB()).append(' ');
+        }
+        else if (c == GradientPaint.class) {
+            GradientPaint p = (GradientPaint) o;
+            key.append("gradient:").append(p.getPoint1()).append(p.getPoint2()).append(p.isCyclic()).append(' ');
+            return describe(key, p.getColor1(), p.getColor2());
+        }
+        else if (o instanceof Font) {
+            Font f = (Font) o;
+            key.append("font:").append(f.getFontName(Locale.ROOT)).append('/').append(f.getStyle())
+                    .append('/').append(f.getSize2D()).append('/').append(f.getTransform()).append(' ');
+        }
+        else if (c == BasicStroke.class) {
+            BasicStroke s = (BasicStroke) o;
+            key.append("stroke:").append(s.getLineWidth()).append('/').append(s.getEndCap())
+                    .append('/').append(s.getLineJoin()).append('/').append(s.getMiterLimit())
+                    .append('/').append(Arrays.toString(s.getDashArray())).append('/').append(s.getDashPhase())
+                    .append(' ');
+        }
+        else if (o instanceof Locale) {
+            key.append("locale:").append(o).append(' ');
+        }
+        else if (o instanceof TimeZone) {
+            key.append("tz:").append(((TimeZone) o).getID()).append(' ');
+        }
+        else if (o instanceof Variable) {
+            // only the variables of Rrd4j are known to be described by their name and parameters
+            if (c.getDeclaringClass() != Variable.class) {
+                return false;
+            }
+            key.append("variable:").append(o).append(' ');
+        }
+        else if (c == SimpleTimeLabelFormat.class) {
+            key.append("timeformat:");
+            return ((SimpleTimeLabelFormat) o).describe(key);
+        }
+        else if (o instanceof Object[]) {
+            Object[] array = (Object[]) o;
+            key.append('[').append(array.length).append(' ');
+            if (!describe(key, array)) {
+                return false;
+            }
+            key.append("] ");
+        }
+        else if (o instanceof Source) {
+            return ((Source) o).describe(key);
+        }
+        else if (o instanceof PlotElement) {
+            return ((PlotElement) o).describe(key);
+        }
+        else if (o instanceof CommentText) {
+            return ((CommentText) o).describe(key);
+        }
+        else if (o instanceof TimeAxisSetting) {
+            return ((TimeAxisSetting) o).describe(key);
+        }
+        else if (o instanceof ValueAxisSetting) {
+            return ((ValueAxisSetting) o).describe(key);
+        }
+        else {
+            return false;
+        }
+        return true;
+    }
+
+    private static final class Entry {
+        private final long[] lastUpdateTimes;
+        private final FutureTask<RrdGraphInfo> graph;
+        // set once the graph is created
+        private long bytes = 0;
+
+        Entry(long[] lastUpdateTimes, FutureTask<RrdGraphInfo> graph) {
+            this.lastUpdateTimes = lastUpdateTimes;
+            this.graph = graph;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.util.Calendar;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
 
 import org.rrd4j.ConsolFun;
 import org.rrd4j.core.FetchData;
@@ -46,7 +47,9 @@ import org.rrd4j.data.Variable;
  * the string to disable the auto justification.</p>
  */
 public class RrdGraphDef implements RrdGraphConstants {
+    // the fields changing the graph must be described by describe(), for the graph cache keys
     boolean poolUsed = false; // ok
+    ForkJoinPool calculationPool = null;
     boolean antiAliasing = false; // ok
     boolean textAntiAliasing = false; // ok
     String filename = RrdGraphConstants.IN_MEMORY_IMAGE; // ok
@@ -187,6 +190,17 @@ public class RrdGraphDef implements RrdGraphConstants {
         this.poolUsed = poolUsed;
     }
 
+    /**
+     * Sets the pool used to calculate the CDEF and VDEF sources of the graph in parallel (defaults to null,
+     * the sources being calculated one after the other).
+     *
+     * @param calculationPool the pool, or null.
+     * @see org.rrd4j.data.DataProcessor#setCalculationPool(ForkJoinPool)
+     */
+    public void setCalculationPool(ForkJoinPool calculationPool) {
+        this.calculationPool = calculationPool;
+    }
+
     /**
      * Sets the name of the graph to generate. Since Rrd4j outputs GIFs, PNGs,
      * and JPEGs it's recommended that the filename end in either .gif,
@@ -963,7 +977,7 @@ public class RrdGraphDef implements RrdGraphConstants {
     @Deprecated
     public void print(String srcName, ConsolFun consolFun, String format) {
         Variable var = consolFun.getVariable();
-        String tempName = srcName + "_" + var.hashCode();
+        String tempName = srcName + "_" + consolFun;
         datasource(tempName, srcName, var);
         comments.add(new PrintText(tempName, format, false, false));
     }
@@ -1041,7 +1055,7 @@ public class RrdGraphDef implements RrdGraphConstants {
     @Deprecated
     public void gprint(String srcName, ConsolFun consolFun, String format) {
         Variable var = consolFun.getVariable();
-        String tempName = srcName + "_" + var.hashCode();
+        String tempName = srcName + "_" + consolFun;
         this.datasource(tempName, srcName, var);
         comments.add(new PrintText(tempName, format, true, false));
     }
@@ -1638,4 +1652,21 @@ public class RrdGraphDef implements RrdGraphConstants {
         return false;
     }
 
+    /**
+     * Appends the description of the graph definition to a graph cache key. The start and end times,
+     * normalized by the cache, and the calculation pool, which doesn't change the graph, are not described.
+     *
+     * @param key the cache key.
+     * @return false if the definition can't be described, so the graph can't be cached.
+     */
+    boolean describe(StringBuilder key) {
+        return RrdGraphCache.describe(key, poolUsed, antiAliasing, textAntiAliasing, filename, timeAxisSetting,
+                timeLabelFormat, valueAxisSetting, altYGrid, noMinorGrid, altYMrtg, altAutoscale, altAutoscaleMin,
+                altAutoscaleMax, unitsExponent, unitsLength, verticalLabel, width, height, interlaced, imageInfo,
+                imageFormat, imageQuality, backgroundImage, overlayImage, unit, lazy, minValue, maxValue, rigid, base,
+                logarithmic, colors, noLegend, onlyGraph, forceRulesLegend, title, step, fonts, drawXGrid, drawYGrid,
+                firstDayOfWeek, locale, tz, signature, showSignature, gridStroke, tickStroke, downsampler)
+                && RrdGraphCache.describe(key, sources.toArray(), comments.toArray(), plotElements.toArray());
+    }
+
 }
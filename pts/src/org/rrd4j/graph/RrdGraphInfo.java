@@ -13,11 +13,26 @@ public class RrdGraphInfo {
     byte[] bytes;
     String imgInfo;
     private List<String> printLines = new ArrayList<String>();
+    // the bytes are shared with the other users of a graph cache, they are only handed out as a copy
+    private boolean shared = false;
 
     RrdGraphInfo() {
         // cannot instantiate this class
     }
 
+    /**
+     * Creates a view of a cached graph, sharing its bytes.
+     */
+    RrdGraphInfo(RrdGraphInfo info) {
+        this.filename = info.filename;
+        this.width = info.width;
+        this.height = info.height;
+        this.bytes = info.bytes;
+        this.imgInfo = info.imgInfo;
+        this.printLines = info.printLines;
+        this.shared = true;
+    }
+
     void addPrintLine(String printLine) {
         printLines.add(printLine);
     }
@@ -55,7 +70,7 @@ public class RrdGraphInfo {
      * @return Graph bytes
      */
     public byte[] getBytes() {
-        return bytes;
+        return shared && bytes != null ? bytes.clone() : bytes;
     }
 
     /**
@@ -12,4 +12,8 @@ class Rule extends PlotElement {
         this.legend = legend;
         this.stroke = stroke;
     }
+
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, legend, stroke);
+    }
 }
@@ -38,4 +38,8 @@ public class SimpleTimeLabelFormat implements TimeLabelFormat {
             return sdf.format(calendar.getTime());
         }
     }
+
+    boolean describe(StringBuilder key) {
+        return RrdGraphCache.describe(key, format);
+    }
 }
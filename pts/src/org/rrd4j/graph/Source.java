@@ -10,4 +10,12 @@ abstract class Source {
     }
 
     abstract void requestData(DataProcessor dproc);
+
+    /**
+     * Appends the description of the source to a graph cache key.
+     *
+     * @param key the cache key.
+     * @return false if the source can't be described, so the graph can't be cached.
+     */
+    abstract boolean describe(StringBuilder key);
 }
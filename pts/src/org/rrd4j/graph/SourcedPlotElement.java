@@ -49,6 +49,10 @@ class SourcedPlotElement extends PlotElement {
         return stacked;
     }
 
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, srcName, parent);
+    }
+
     Paint getParentColor() {
         return parent != null ? parent.color : null;
     }
@@ -9,4 +9,8 @@ class Span extends PlotElement {
         super(color);
         this.legend = legend;
     }
+
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, legend);
+    }
 }
@@ -30,6 +30,10 @@ class Stack extends SourcedPlotElement {
         }
     }
 
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, parent);
+    }
+
     float getParentLineWidth() {
         if (parent instanceof Line) {
             return ((Line) parent).stroke.getLineWidth();
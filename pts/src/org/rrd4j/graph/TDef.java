@@ -20,4 +20,9 @@ class TDef extends Source {
         dproc.addDatasource(name, dsName, fetchData);
     }
 
+    // fetched data is not described
+    boolean describe(StringBuilder key) {
+        return false;
+    }
+
 }
@@ -54,4 +54,9 @@ class TimeAxisSetting {
             secPerPix, minorUnit, minorUnitCount, majorUnit, majorUnitCount,
             labelUnit, labelUnitCount, labelSpan, f);
     }
+
+    boolean describe(StringBuilder key) {
+        return RrdGraphCache.describe(key, "TimeAxisSetting", secPerPix, minorUnit, minorUnitCount, majorUnit,
+                majorUnitCount, labelUnit, labelUnitCount, labelSpan, format);
+    }
 }
@@ -18,4 +18,8 @@ class VDef extends Source {
         dproc.addDatasource(name, defName, var);
     }
 
+    boolean describe(StringBuilder key) {
+        return RrdGraphCache.describe(key, "VDEF", name, defName, var);
+    }
+
 }
@@ -11,6 +11,10 @@ class VRule extends Rule {
         this.timestamp = timestamp;
     }
 
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, timestamp);
+    }
+
     void setLegendVisibility(long minval, long maxval, boolean forceLegend) {
         legend.enabled &= (forceLegend || (timestamp >= minval && timestamp <= maxval));
     }
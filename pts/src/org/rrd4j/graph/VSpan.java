@@ -13,6 +13,10 @@ class VSpan extends Span {
         assert(start < end);
     }
 
+    boolean describe(StringBuilder key) {
+        return super.describe(key) && RrdGraphCache.describe(key, start, end);
+    }
+
     private boolean checkRange(long v, long min, long max) {
         return v >= min && v <= max;
     }
@@ -8,4 +8,8 @@ class ValueAxisSetting {
         this.gridStep = gridStep;
         this.labelFactor = labelFactor;
     }
+
+    boolean describe(StringBuilder key) {
+        return RrdGraphCache.describe(key, "ValueAxisSetting", gridStep, labelFactor);
+    }
 }